@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package bench.com.codenvy.jira;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP server emulating the Codenvy API calls made by the plugin, each answered after a fixed latency
+ */
+public class CodenvyStubServer {
+
+    private static final String PARENT_FACTORY = "{\"v\":\"4.0\",\"id\":\"parent\",\"name\":\"bench\",\"creator\":{\"userId\":\"bench-user\"}," +
+                                                 "\"policies\":{\"create\":\"perClick\"},\"workspace\":{\"name\":\"bench\"," +
+                                                 "\"projects\":[{\"name\":\"bench\",\"source\":{\"type\":\"git\"," +
+                                                 "\"location\":\"https://github.com/codenvy/bench.git\",\"parameters\":{}}}]}}";
+
+    private final HttpServer      server;
+    private final ExecutorService executor;
+    private final long            latencyMillis;
+    private final AtomicLong      factories;
+
+    /**
+     * Constructor.
+     *
+     * @param latencyMillis
+     *         how long each call waits before answering.
+     * @throws IOException
+     */
+    public CodenvyStubServer(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.factories = new AtomicLong();
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/api/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    answer(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long getCreatedFactories() {
+        return factories.get();
+    }
+
+    private void answer(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final String path = exchange.getRequestURI().getPath();
+        final String method = exchange.getRequestMethod();
+        if ("POST".equals(method) && "/api/auth/login".equals(path)) {
+            send(exchange, 200, "{\"value\":\"bench-token\"}");
+        } else if ("GET".equals(method) && "/api/user".equals(path)) {
+            send(exchange, 200, "{\"id\":\"bench-user\",\"email\":\"bench@codenvy.com\"}");
+        } else if ("GET".equals(method) && "/api/factory/find".equals(path)) {
+            send(exchange, 200, "[" + PARENT_FACTORY + "]");
+        } else if ("POST".equals(method) && "/api/factory".equals(path)) {
+            final long id = factories.incrementAndGet();
+            send(exchange, 200, "{\"id\":\"factory" + id + "\",\"links\":[{\"rel\":\"accept-named\"," +
+                                "\"href\":\"" + getUrl() + "/f?name=factory" + id + "&user=bench\"}]}");
+        } else {
+            send(exchange, 404, "{\"message\":\"" + method + " " + path + " is not emulated\"}");
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        final byte[] buffer = new byte[4096];
+        while (in.read(buffer) != -1) {
+            // request bodies are not checked
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package bench.com.codenvy.jira;
+
+import com.codenvy.jira.customfield.FactoryLinkRenderer;
+
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.resource.loader.StringResourceLoader;
+import org.apache.velocity.runtime.resource.util.StringResourceRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the rendering of the Develop and Review fields of an issue navigator page, before and after the fields
+ * held their factory URL rendered by a {@link FactoryLinkRenderer}.
+ * <p/>
+ * Each operation renders both fields of {@code rows} issues with the view template, as JIRA does for each cell. The
+ * {@code before} case renders the template of the former versions with fields holding the whole HTML link, the
+ * {@code after} case the current template with fields holding the URL. JIRA's {@code #enable_html_escaping()} macro
+ * is replaced by an empty one.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FieldRenderBenchmark {
+
+    private static final String MACROS = "#macro(enable_html_escaping)#end\n";
+
+    /** View template of the former versions, the field held the whole link */
+    private static final String BEFORE_TEMPLATE = MACROS +
+                                                  "#enable_html_escaping()\n" +
+                                                  "#if ($value)\n" +
+                                                  "    #set ( $contentAsHtml = $value )\n" +
+                                                  "    $contentAsHtml\n" +
+                                                  "#elseif ($generatePath)\n" +
+                                                  "    <a id=\"codenvy_${factoryKind}_field\" " +
+                                                  "href=\"${requestContext.baseUrl}${generatePath}\">$factoryLabel</a>\n" +
+                                                  "#end\n";
+
+    /** Number of issues of the navigator page */
+    @Param({"50", "500"})
+    public int rows;
+
+    private Template            before;
+    private Template            after;
+    private FactoryLinkRenderer developRenderer;
+    private FactoryLinkRenderer reviewRenderer;
+    private String[]            developLinks;
+    private String[]            reviewLinks;
+    private String[]            developUrls;
+    private String[]            reviewUrls;
+
+    @Setup
+    public void setup() throws Exception {
+        final VelocityEngine engine = new VelocityEngine();
+        engine.setProperty("resource.loader", "string");
+        engine.setProperty("string.resource.loader.class", StringResourceLoader.class.getName());
+        engine.init();
+        final StringResourceRepository templates = StringResourceLoader.getRepository();
+        templates.putStringResource("before.vm", BEFORE_TEMPLATE);
+        templates.putStringResource("after.vm", MACROS + readResource("/templates/view-codenvy-field.vm"));
+        before = engine.getTemplate("before.vm");
+        after = engine.getTemplate("after.vm");
+
+        developRenderer = new FactoryLinkRenderer("develop", "Developer Workspace");
+        reviewRenderer = new FactoryLinkRenderer("review", "Reviewer Workspace");
+        developLinks = new String[rows];
+        reviewLinks = new String[rows];
+        developUrls = new String[rows];
+        reviewUrls = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            developUrls[i] = "http://codenvy.example.com/f?name=BENCH-" + i + "-develop-factory&user=bench";
+            reviewUrls[i] = "http://codenvy.example.com/f?name=BENCH-" + i + "-review-factory&user=bench";
+            developLinks[i] = "<a id=\"codenvy_develop_field\" href=\"" + developUrls[i] + "\">Developer Workspace</a>";
+            reviewLinks[i] = "<a id=\"codenvy_review_field\" href=\"" + reviewUrls[i] + "\">Reviewer Workspace</a>";
+        }
+    }
+
+    @Benchmark
+    public int before() {
+        int length = 0;
+        for (int i = 0; i < rows; i++) {
+            length += render(before, developLinks[i], null);
+            length += render(before, reviewLinks[i], null);
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int after() {
+        int length = 0;
+        for (int i = 0; i < rows; i++) {
+            length += render(after, developUrls[i], developRenderer);
+            length += render(after, reviewUrls[i], reviewRenderer);
+        }
+        return length;
+    }
+
+    private static int render(Template template, String value, FactoryLinkRenderer renderer) {
+        final VelocityContext context = new VelocityContext();
+        context.put("value", value);
+        if (renderer != null) {
+            context.put("factoryLink", renderer);
+        }
+        final StringWriter html = new StringWriter();
+        template.merge(context, html);
+        return html.getBuffer().length();
+    }
+
+    private static String readResource(String name) throws IOException {
+        try (InputStream in = FieldRenderBenchmark.class.getResourceAsStream(name)) {
+            return new Scanner(in, StandardCharsets.UTF_8.name()).useDelimiter("\\A").next();
+        }
+    }
+}
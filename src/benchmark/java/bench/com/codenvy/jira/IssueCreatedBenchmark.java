@@ -0,0 +1,318 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package bench.com.codenvy.jira;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueInputParameters;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.issue.customfields.CustomFieldType;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.issue.fields.FieldManager;
+import com.atlassian.jira.issue.link.IssueLinkManager;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.jira.util.ErrorCollection;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.codenvy.jira.IssueCreatedListener;
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.client.CodenvySessionManager;
+import com.codenvy.jira.factory.CodenvyFieldResolver;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.factory.ParentFactoryCache;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+import com.codenvy.jira.pipeline.FactoryCollector;
+import com.codenvy.jira.pipeline.FactoryGenerationBatcher;
+import com.codenvy.jira.pipeline.FactoryGenerationQueue;
+import com.codenvy.jira.pipeline.FactoryOutbox;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.codenvy.jira.factory.CodenvyFieldResolver.CODENVY_DEVELOP_FIELD_TYPE_KEY;
+import static com.codenvy.jira.factory.CodenvyFieldResolver.CODENVY_REVIEW_FIELD_TYPE_KEY;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * End to end benchmark of an issue creation: from the JIRA event to the update of the issue with its factory URLs,
+ * JIRA services being mocked and Codenvy emulated by a local {@link CodenvyStubServer}.
+ * <p/>
+ * Throughput is reported in events per second, latency percentiles (p50, p99) in milliseconds. Run with
+ * {@code mvn -Pbenchmark test-compile exec:exec}, JMH options can be given with {@code -Dbenchmark.args="..."}.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+public class IssueCreatedBenchmark {
+
+    /** Latency of each emulated Codenvy call in milliseconds */
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    /** Maximum number of issues per batch, 1 disables batching */
+    @Param({"1", "50"})
+    public int batchSize;
+
+    private final AtomicLong                            issueCounter = new AtomicLong();
+    private final ConcurrentMap<String, CountDownLatch> pending      = new ConcurrentHashMap<>();
+
+    private CodenvyStubServer        server;
+    private CodenvyHttpClient        httpClient;
+    private CodenvyClient            client;
+    private FactoryGenerationQueue   generationQueue;
+    private FactoryGenerationBatcher batcher;
+    private IssueCreatedListener     listener;
+    private ApplicationUser          user;
+    private Project                  project;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = new CodenvyStubServer(latencyMillis);
+        server.start();
+
+        System.setProperty("codenvy.batch.size", String.valueOf(batchSize));
+        System.setProperty("codenvy.rate.permitsPerSecond", "0");
+        System.setProperty("codenvy.queue.capacity", "100000");
+
+        user = mock(ApplicationUser.class);
+        when(user.getKey()).thenReturn("bench");
+        project = mock(Project.class);
+        when(project.getKey()).thenReturn("BENCH");
+        when(project.getName()).thenReturn("Benchmark");
+
+        final CodenvyMetrics metrics = new CodenvyMetrics();
+        generationQueue = new FactoryGenerationQueue(metrics);
+        httpClient = new CodenvyHttpClient(metrics);
+        client = new CodenvyClient(httpClient, new CodenvySessionManager(httpClient, metrics));
+        final ParentFactoryCache parentFactoryCache = new ParentFactoryCache();
+        final ClusterCoordinator clusterCoordinator = localClusterCoordinator();
+        // Issues are never indexed, so that each one is generated
+        final IssueFactoryIndex index = new IssueFactoryIndex(null) {
+            @Override
+            public IssueFactories get(String issueKey) {
+                return null;
+            }
+
+            @Override
+            public void put(IssueFactories factories) {
+            }
+
+            @Override
+            public void markIssueUpdated(String issueKey) {
+            }
+
+            @Override
+            public boolean claim(String issueKey) {
+                return true;
+            }
+
+            @Override
+            public void release(String issueKey) {
+            }
+        };
+        final FactoryGenerator generator = new FactoryGenerator(mockIssueService(), mock(CustomFieldManager.class),
+                                                                parentFactoryCache, client, clusterCoordinator, index,
+                                                                metrics) {
+            @Override
+            public void generate(FactoryRequest request) throws IOException, JSONException {
+                try {
+                    super.generate(request);
+                } finally {
+                    final CountDownLatch done = pending.remove(request.getIssueKey());
+                    if (done != null) {
+                        done.countDown();
+                    }
+                }
+            }
+        };
+
+        final CodenvySettingsService settingsService = new CodenvySettingsService(mockPluginSettingsFactory(),
+                                                                                  mock(TransactionTemplate.class),
+                                                                                  mock(ClusterMessagingService.class),
+                                                                                  parentFactoryCache);
+        final EventPublisher eventPublisher = mock(EventPublisher.class);
+        final CodenvyFieldResolver fieldResolver = new CodenvyFieldResolver(eventPublisher, mockFieldManager());
+        final FactoryRequestResolver requestResolver = new FactoryRequestResolver(settingsService, fieldResolver,
+                                                                                   mock(IssueLinkManager.class), metrics);
+        final FactoryOutbox outbox = new FactoryOutbox(mock(ActiveObjects.class), generationQueue, generator, requestResolver,
+                                                       mock(IssueManager.class), mock(UserManager.class),
+                                                       clusterCoordinator);
+        batcher = new FactoryGenerationBatcher(generationQueue, generator, outbox, metrics);
+        listener = new IssueCreatedListener(eventPublisher, requestResolver, batcher, generator, mock(IssueManager.class),
+                                            index, new FactoryCollector(settingsService, client, metrics));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        batcher.destroy();
+        generationQueue.destroy();
+        httpClient.destroy();
+        server.stop();
+        System.clearProperty("codenvy.batch.size");
+        System.clearProperty("codenvy.rate.permitsPerSecond");
+        System.clearProperty("codenvy.queue.capacity");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void issueCreatedThroughput() throws InterruptedException, TimeoutException {
+        createIssue();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void issueCreatedLatency() throws InterruptedException, TimeoutException {
+        createIssue();
+    }
+
+    /**
+     * Fire an ISSUE_CREATED event and wait until the factories of the issue are generated
+     */
+    private void createIssue() throws InterruptedException, TimeoutException {
+        final String issueKey = "BENCH-" + issueCounter.incrementAndGet();
+        final CountDownLatch done = new CountDownLatch(1);
+        pending.put(issueKey, done);
+
+        final Issue issue = mock(Issue.class);
+        when(issue.getKey()).thenReturn(issueKey);
+        when(issue.getProjectObject()).thenReturn(project);
+        when(issue.getProjectId()).thenReturn(1L);
+        when(issue.getIssueTypeId()).thenReturn("1");
+
+        listener.onIssueEvent(new IssueEvent(issue, null, user, EventType.ISSUE_CREATED_ID));
+        if (!done.await(30, TimeUnit.SECONDS)) {
+            throw new TimeoutException("Factories of issue " + issueKey + " not generated.");
+        }
+    }
+
+    private PluginSettingsFactory mockPluginSettingsFactory() {
+        final PluginSettings settings = mock(PluginSettings.class);
+        when(settings.get(CodenvySettings.INSTANCE_URL)).thenReturn(server.getUrl());
+        when(settings.get(CodenvySettings.USERNAME)).thenReturn("bench");
+        when(settings.get(CodenvySettings.PASSWORD)).thenReturn("bench");
+        final PluginSettingsFactory pluginSettingsFactory = mock(PluginSettingsFactory.class);
+        when(pluginSettingsFactory.createGlobalSettings()).thenReturn(settings);
+        return pluginSettingsFactory;
+    }
+
+    private static FieldManager mockFieldManager() throws FieldException {
+        final Set<CustomField> fields = new HashSet<>();
+        fields.add(mockCustomField("customfield_10000", CODENVY_DEVELOP_FIELD_TYPE_KEY));
+        fields.add(mockCustomField("customfield_10001", CODENVY_REVIEW_FIELD_TYPE_KEY));
+        final FieldManager fieldManager = mock(FieldManager.class);
+        when(fieldManager.getAvailableCustomFields(any(ApplicationUser.class), any(Issue.class))).thenReturn(fields);
+        return fieldManager;
+    }
+
+    private static CustomField mockCustomField(String id, String typeKey) {
+        final CustomFieldType type = mock(CustomFieldType.class);
+        when(type.getKey()).thenReturn(typeKey);
+        final CustomField field = mock(CustomField.class);
+        when(field.getId()).thenReturn(id);
+        when(field.getCustomFieldType()).thenReturn(type);
+        return field;
+    }
+
+    /**
+     * Coordinator of a single node JIRA, with local locks
+     */
+    private static ClusterCoordinator localClusterCoordinator() {
+        final ConcurrentMap<String, Lock> locks = new ConcurrentHashMap<>();
+        return new ClusterCoordinator(null, null, mock(ClusterMessagingService.class)) {
+            @Override
+            public String getNodeId() {
+                return "local";
+            }
+
+            @Override
+            public Lock getLock(String name) {
+                Lock lock = locks.get(name);
+                if (lock == null) {
+                    final Lock created = new ReentrantLock();
+                    lock = locks.putIfAbsent(name, created);
+                    if (lock == null) {
+                        lock = created;
+                    }
+                }
+                return lock;
+            }
+        };
+    }
+
+    private static IssueService mockIssueService() {
+        final MutableIssue issue = mock(MutableIssue.class);
+        when(issue.getId()).thenReturn(1L);
+        final IssueService.IssueResult issueResult = mock(IssueService.IssueResult.class);
+        when(issueResult.getIssue()).thenReturn(issue);
+
+        final ErrorCollection errors = mock(ErrorCollection.class);
+        when(errors.hasAnyErrors()).thenReturn(false);
+        final IssueService.UpdateValidationResult validationResult = mock(IssueService.UpdateValidationResult.class);
+        when(validationResult.getErrorCollection()).thenReturn(errors);
+
+        final IssueService issueService = mock(IssueService.class);
+        when(issueService.getIssue(any(ApplicationUser.class), anyString())).thenReturn(issueResult);
+        when(issueService.newIssueInputParameters()).thenReturn(mock(IssueInputParameters.class));
+        when(issueService.validateUpdate(any(ApplicationUser.class), any(Long.class), any(IssueInputParameters.class)))
+                .thenReturn(validationResult);
+        return issueService;
+    }
+}
@@ -13,10 +13,15 @@ package com.codenvy.jira.administrate;
 import java.io.IOException;
 
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.atlassian.sal.api.auth.LoginUriProvider;
 import com.atlassian.sal.api.user.UserManager;
 import com.atlassian.templaterenderer.TemplateRenderer;
+import com.codenvy.jira.client.CircuitBreaker;
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.client.RateLimiter;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -29,14 +34,17 @@ import javax.servlet.http.HttpServletResponse;
  * @author Stephane Tournie
  */
 public class AdminServlet extends HttpServlet {
-    private final UserManager      userManager;
-    private final LoginUriProvider loginUriProvider;
-    private final TemplateRenderer renderer;
+    private final UserManager       userManager;
+    private final LoginUriProvider  loginUriProvider;
+    private final TemplateRenderer  renderer;
+    private final CodenvyHttpClient httpClient;
 
-    public AdminServlet(UserManager userManager, LoginUriProvider loginUriProvider, TemplateRenderer renderer) {
+    public AdminServlet(UserManager userManager, LoginUriProvider loginUriProvider, TemplateRenderer renderer,
+                        CodenvyHttpClient httpClient) {
         this.userManager = userManager;
         this.loginUriProvider = loginUriProvider;
         this.renderer = renderer;
+        this.httpClient = httpClient;
     }
 
     /**
@@ -56,7 +64,28 @@ public class AdminServlet extends HttpServlet {
         }
 
         response.setContentType("text/html;charset=utf-8");
-        renderer.render("templates/admin.vm", response.getWriter());
+        renderer.render("templates/admin.vm", getContext(), response.getWriter());
+    }
+
+    /**
+     * Get the state of the calls to Codenvy displayed on the admin page
+     *
+     * @return the velocity context
+     */
+    private Map<String, Object> getContext() {
+        final CircuitBreaker circuitBreaker = httpClient.getCircuitBreaker();
+        final RateLimiter rateLimiter = httpClient.getRateLimiter();
+        final Map<String, Object> context = new HashMap<>();
+        context.put("circuitState", circuitBreaker.getState().name());
+        context.put("circuitFailures", circuitBreaker.getConsecutiveFailures());
+        context.put("circuitFailureThreshold", circuitBreaker.getFailureThreshold());
+        context.put("circuitRejected", circuitBreaker.getRejected());
+        context.put("ratePermitsPerSecond", rateLimiter.getPermitsPerSecond());
+        context.put("rateAvailableTokens", (long)rateLimiter.getAvailableTokens());
+        context.put("rateThrottled", rateLimiter.getThrottled());
+        context.put("inFlight", httpClient.getInFlight());
+        context.put("maxInFlight", httpClient.getMaxInFlight());
+        return context;
     }
 
     private void redirectToLogin(HttpServletRequest request, HttpServletResponse response) throws IOException {
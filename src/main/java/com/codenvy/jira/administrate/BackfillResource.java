@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.administrate;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.sal.api.user.UserManager;
+import com.codenvy.jira.pipeline.FactoryBackfill;
+
+import java.util.Locale;
+
+/**
+ * Service to start, cancel and follow the generation of the factories of existing issues
+ */
+@Path("/backfill")
+public class BackfillResource {
+    private final UserManager                               userManager;
+    private final com.atlassian.jira.user.util.UserManager jiraUserManager;
+    private final FactoryBackfill                           backfill;
+
+    public BackfillResource(UserManager userManager, com.atlassian.jira.user.util.UserManager jiraUserManager,
+                            FactoryBackfill backfill) {
+        this.userManager = userManager;
+        this.jiraUserManager = jiraUserManager;
+        this.backfill = backfill;
+    }
+
+    /**
+     * Get the progress of the last backfill
+     *
+     * @param request the HTTP request
+     * @return the backfill progress or 401 if not authorized
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@Context HttpServletRequest request) {
+        if (getSystemAdmin(request) == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        BackfillStatus status = new BackfillStatus();
+        status.state = backfill.getState().name();
+        status.jql = backfill.getJql();
+        status.error = backfill.getError();
+        status.total = backfill.getTotal();
+        status.processed = backfill.getProcessed();
+        status.generated = backfill.getGenerated();
+        status.skipped = backfill.getSkipped();
+        status.failed = backfill.getFailed();
+        status.etaMillis = backfill.getEtaMillis();
+        status.node = backfill.getNode();
+        return Response.ok(status).build();
+    }
+
+    /**
+     * Start generating the factories of the issues matching a JQL query, the issues are updated as the calling user
+     *
+     * @param start the JQL query
+     * @param request the HTTP request
+     * @return HTTP 202 if started, 400 if the query is not valid, 401 if not authorized or 409 if a backfill is
+     * already running
+     */
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response start(final BackfillStart start, @Context HttpServletRequest request) {
+        final ApplicationUser user = getSystemAdmin(request);
+        if (user == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        if (start == null || start.jql == null || start.jql.trim().isEmpty()) {
+            return Response.status(Status.BAD_REQUEST).entity("A JQL query is required.").build();
+        }
+        if (start.jql.toUpperCase(Locale.ENGLISH).contains("ORDER BY")) {
+            return Response.status(Status.BAD_REQUEST).entity("The JQL query must not have an ORDER BY clause.").build();
+        }
+
+        try {
+            backfill.start(start.jql.trim(), user);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+        } catch (IllegalStateException e) {
+            return Response.status(Status.CONFLICT).entity(e.getMessage()).build();
+        }
+        return Response.status(Status.ACCEPTED).build();
+    }
+
+    /**
+     * Cancel the running backfill
+     *
+     * @param request the HTTP request
+     * @return HTTP 204 if ok or 401 if not authorized
+     */
+    @DELETE
+    public Response cancel(@Context HttpServletRequest request) {
+        if (getSystemAdmin(request) == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        backfill.cancel();
+        return Response.noContent().build();
+    }
+
+    private ApplicationUser getSystemAdmin(HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        if (username == null || !userManager.isSystemAdmin(username)) {
+            return null;
+        }
+        return jiraUserManager.getUserByName(username);
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class BackfillStart {
+        @XmlElement
+        private String jql;
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class BackfillStatus {
+        @XmlElement
+        private String state;
+        @XmlElement
+        private String jql;
+        @XmlElement
+        private String error;
+        @XmlElement
+        private int    total;
+        @XmlElement
+        private long   processed;
+        @XmlElement
+        private long   generated;
+        @XmlElement
+        private long   skipped;
+        @XmlElement
+        private long   failed;
+        @XmlElement
+        private long   etaMillis;
+        @XmlElement
+        private String node;
+    }
+}
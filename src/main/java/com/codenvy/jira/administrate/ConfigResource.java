@@ -25,11 +25,9 @@ import javax.xml.bind.annotation.XmlAccessorType;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 
-import com.atlassian.sal.api.pluginsettings.PluginSettings;
-import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
-import com.atlassian.sal.api.transaction.TransactionCallback;
-import com.atlassian.sal.api.transaction.TransactionTemplate;
 import com.atlassian.sal.api.user.UserManager;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
 
 /**
  * Service to store and retrieve Codenvy administration data
@@ -38,15 +36,12 @@ import com.atlassian.sal.api.user.UserManager;
  */
 @Path("/")
 public class ConfigResource {
-    private final UserManager           userManager;
-    private final PluginSettingsFactory pluginSettingsFactory;
-    private final TransactionTemplate   transactionTemplate;
+    private final UserManager            userManager;
+    private final CodenvySettingsService settingsService;
 
-    public ConfigResource(UserManager userManager, PluginSettingsFactory pluginSettingsFactory,
-                          TransactionTemplate transactionTemplate) {
+    public ConfigResource(UserManager userManager, CodenvySettingsService settingsService) {
         this.userManager = userManager;
-        this.pluginSettingsFactory = pluginSettingsFactory;
-        this.transactionTemplate = transactionTemplate;
+        this.settingsService = settingsService;
     }
 
     /**
@@ -63,16 +58,15 @@ public class ConfigResource {
             return Response.status(Status.UNAUTHORIZED).build();
         }
 
-        return Response.ok(transactionTemplate.execute(new TransactionCallback() {
-            public Object doInTransaction() {
-                PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
-                Config config = new Config();
-                config.setInstanceUrl((String)settings.get("codenvy.admin.instanceurl"));
-                config.setUsername((String)settings.get("codenvy.admin.username"));
-                config.setPassword((String)settings.get("codenvy.admin.password"));
-                return config;
-            }
-        })).build();
+        CodenvySettings settings = settingsService.get();
+        Config config = new Config();
+        config.setInstanceUrl(settings.getInstanceUrl());
+        config.setUsername(settings.getUsername());
+        config.setPassword(settings.getPassword());
+        config.setLazy(settings.isLazy());
+        config.setShareParent(settings.isShareParent());
+        config.setShareLinkType(settings.getShareLinkType());
+        return Response.ok(config).build();
     }
 
     /**
@@ -90,15 +84,9 @@ public class ConfigResource {
             return Response.status(Status.UNAUTHORIZED).build();
         }
 
-        transactionTemplate.execute(new TransactionCallback() {
-            public Object doInTransaction() {
-                PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
-                pluginSettings.put("codenvy.admin.instanceurl", config.getInstanceUrl());
-                pluginSettings.put("codenvy.admin.username", config.getUsername());
-                pluginSettings.put("codenvy.admin.password", config.getPassword());
-                return null;
-            }
-        });
+        settingsService.save(new CodenvySettings(config.getInstanceUrl(), config.getUsername(), config.getPassword(),
+                                                 Boolean.TRUE.equals(config.getLazy()),
+                                                 Boolean.TRUE.equals(config.getShareParent()), config.getShareLinkType()));
         return Response.noContent().build();
     }
 
@@ -112,6 +100,12 @@ public class ConfigResource {
         private String username;
         @XmlElement
         private String password;
+        @XmlElement
+        private Boolean lazy;
+        @XmlElement
+        private Boolean shareParent;
+        @XmlElement
+        private String  shareLinkType;
 
         public String getInstanceUrl() {
             return instanceUrl;
@@ -136,5 +130,29 @@ public class ConfigResource {
         public void setPassword(String password) {
             this.password = password;
         }
+
+        public Boolean getLazy() {
+            return lazy;
+        }
+
+        public void setLazy(Boolean lazy) {
+            this.lazy = lazy;
+        }
+
+        public Boolean getShareParent() {
+            return shareParent;
+        }
+
+        public void setShareParent(Boolean shareParent) {
+            this.shareParent = shareParent;
+        }
+
+        public String getShareLinkType() {
+            return shareLinkType;
+        }
+
+        public void setShareLinkType(String shareLinkType) {
+            this.shareLinkType = shareLinkType;
+        }
     }
 }
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.administrate;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.sal.api.user.UserManager;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.metrics.LatencyStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service to observe the factory generation metrics, also published over JMX as {@value CodenvyMetrics#OBJECT_NAME}
+ */
+@Path("/metrics")
+public class MetricsResource {
+    private final UserManager    userManager;
+    private final CodenvyMetrics metrics;
+
+    public MetricsResource(UserManager userManager, CodenvyMetrics metrics) {
+        this.userManager = userManager;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Get the factory generation metrics
+     *
+     * @param request the HTTP request
+     * @return the metrics or 401 if not authorized
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        Metrics status = new Metrics();
+        status.succeeded = metrics.getSucceeded();
+        status.skipped = metrics.getSkipped();
+        status.errors = metrics.getErrors();
+        status.inFlightGenerations = metrics.getInFlightGenerations();
+        status.gauges = metrics.getGauges();
+        for (Map.Entry<String, LatencyStats> entry : metrics.getStages().entrySet()) {
+            StageMetrics stage = new StageMetrics();
+            stage.name = entry.getKey();
+            stage.count = entry.getValue().getCount();
+            stage.totalMillis = entry.getValue().getTotalMillis();
+            stage.meanMillis = entry.getValue().getMeanMillis();
+            stage.maxMillis = entry.getValue().getMaxMillis();
+            stage.p95Millis = entry.getValue().getPercentileMillis(95);
+            stage.p99Millis = entry.getValue().getPercentileMillis(99);
+            status.stages.add(stage);
+        }
+        return Response.ok(status).build();
+    }
+
+    /**
+     * Reset the counters and stage latencies, e.g. before measuring a change
+     *
+     * @param request the HTTP request
+     * @return HTTP 204 if ok or 401 if not authorized
+     */
+    @DELETE
+    public Response reset(@Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        metrics.reset();
+        return Response.noContent().build();
+    }
+
+    private boolean isSystemAdmin(HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        return username != null && userManager.isSystemAdmin(username);
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class Metrics {
+        @XmlElement
+        private long               succeeded;
+        @XmlElement
+        private Map<String, Long>  skipped;
+        @XmlElement
+        private Map<String, Long>  errors;
+        @XmlElement
+        private int                inFlightGenerations;
+        @XmlElement
+        private Map<String, Long>  gauges;
+        @XmlElement
+        private List<StageMetrics> stages = new ArrayList<>();
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class StageMetrics {
+        @XmlElement
+        private String name;
+        @XmlElement
+        private long   count;
+        @XmlElement
+        private double totalMillis;
+        @XmlElement
+        private double meanMillis;
+        @XmlElement
+        private double maxMillis;
+        @XmlElement
+        private double p95Millis;
+        @XmlElement
+        private double p99Millis;
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.administrate;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.sal.api.user.UserManager;
+import com.codenvy.jira.pipeline.FactoryCollector;
+import com.codenvy.jira.pipeline.OrphanFactoryCollector;
+
+/**
+ * Service to follow and start the deletion of the factories no issue uses anymore
+ */
+@Path("/orphans")
+public class OrphanResource {
+    private final UserManager            userManager;
+    private final OrphanFactoryCollector orphanCollector;
+    private final FactoryCollector       collector;
+
+    public OrphanResource(UserManager userManager, OrphanFactoryCollector orphanCollector, FactoryCollector collector) {
+        this.userManager = userManager;
+        this.orphanCollector = orphanCollector;
+        this.collector = collector;
+    }
+
+    /**
+     * Get the counts of the last search of unused factories and of the deleted factories
+     *
+     * @param request the HTTP request
+     * @return the counts or 401 if not authorized
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        OrphanStatus status = new OrphanStatus();
+        status.running = orphanCollector.isRunning();
+        status.lastStartedAt = orphanCollector.getLastStartedAt();
+        status.lastEndedAt = orphanCollector.getLastEndedAt();
+        status.error = orphanCollector.getError();
+        status.scanned = orphanCollector.getScanned();
+        status.orphans = orphanCollector.getOrphans();
+        status.totalOrphans = orphanCollector.getTotalOrphans();
+        status.pending = collector.getPending();
+        status.deleted = collector.getDeleted();
+        status.failed = collector.getFailed();
+        status.dropped = collector.getDropped();
+        return Response.ok(status).build();
+    }
+
+    /**
+     * Start searching the unused factories right away
+     *
+     * @param request the HTTP request
+     * @return HTTP 202 if started, 401 if not authorized or 409 if a search is already running
+     */
+    @POST
+    public Response start(@Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        try {
+            orphanCollector.start();
+        } catch (IllegalStateException e) {
+            return Response.status(Status.CONFLICT).entity(e.getMessage()).build();
+        }
+        return Response.status(Status.ACCEPTED).build();
+    }
+
+    private boolean isSystemAdmin(HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        return username != null && userManager.isSystemAdmin(username);
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class OrphanStatus {
+        @XmlElement
+        private boolean running;
+        @XmlElement
+        private long    lastStartedAt;
+        @XmlElement
+        private long    lastEndedAt;
+        @XmlElement
+        private String  error;
+        @XmlElement
+        private long    scanned;
+        @XmlElement
+        private long    orphans;
+        @XmlElement
+        private long    totalOrphans;
+        @XmlElement
+        private int     pending;
+        @XmlElement
+        private long    deleted;
+        @XmlElement
+        private long    failed;
+        @XmlElement
+        private long    dropped;
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.administrate;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.sal.api.user.UserManager;
+import com.codenvy.jira.factory.ParentFactoryCache;
+
+/**
+ * Service to observe and invalidate the parent factory cache
+ */
+@Path("/cache/parent-factories")
+public class ParentFactoryCacheResource {
+    private final UserManager        userManager;
+    private final ParentFactoryCache parentFactoryCache;
+
+    public ParentFactoryCacheResource(UserManager userManager, ParentFactoryCache parentFactoryCache) {
+        this.userManager = userManager;
+        this.parentFactoryCache = parentFactoryCache;
+    }
+
+    /**
+     * Get parent factory cache statistics
+     *
+     * @param request the HTTP request
+     * @return the cache statistics or 401 if not authorized
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        CacheStatus status = new CacheStatus();
+        status.size = parentFactoryCache.getSize();
+        status.maxSize = parentFactoryCache.getMaxSize();
+        status.hits = parentFactoryCache.getHits();
+        status.misses = parentFactoryCache.getMisses();
+        status.evictions = parentFactoryCache.getEvictions();
+        return Response.ok(status).build();
+    }
+
+    /**
+     * Drop every cached parent factory
+     *
+     * @param request the HTTP request
+     * @return HTTP 204 if ok or 401 if not authorized
+     */
+    @DELETE
+    public Response invalidateAll(@Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        parentFactoryCache.invalidateAll();
+        return Response.noContent().build();
+    }
+
+    /**
+     * Drop the cached parent factory of a project, e.g. after it has been edited on Codenvy
+     *
+     * @param projectKey the key of the JIRA project
+     * @param request the HTTP request
+     * @return HTTP 204 if ok or 401 if not authorized
+     */
+    @DELETE
+    @Path("/{projectKey}")
+    public Response invalidate(@PathParam("projectKey") String projectKey, @Context HttpServletRequest request) {
+        if (!isSystemAdmin(request)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        parentFactoryCache.invalidate(projectKey);
+        return Response.noContent().build();
+    }
+
+    private boolean isSystemAdmin(HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        return username != null && userManager.isSystemAdmin(username);
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class CacheStatus {
+        @XmlElement
+        private int  size;
+        @XmlElement
+        private int  maxSize;
+        @XmlElement
+        private long hits;
+        @XmlElement
+        private long misses;
+        @XmlElement
+        private long evictions;
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.administrate;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.sal.api.user.UserManager;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.metrics.LatencyStats;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+import com.codenvy.jira.pipeline.FactoryGenerationQueue;
+import com.codenvy.jira.pipeline.FactoryOutbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service to observe the factory generation queue
+ */
+@Path("/queue")
+public class QueueResource {
+    private final UserManager            userManager;
+    private final FactoryGenerationQueue generationQueue;
+    private final FactoryOutbox          outbox;
+    private final CodenvyMetrics         metrics;
+    private final ClusterCoordinator     clusterCoordinator;
+
+    public QueueResource(UserManager userManager, FactoryGenerationQueue generationQueue, FactoryOutbox outbox,
+                         CodenvyMetrics metrics, ClusterCoordinator clusterCoordinator) {
+        this.userManager = userManager;
+        this.generationQueue = generationQueue;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.clusterCoordinator = clusterCoordinator;
+    }
+
+    /**
+     * Get the state of the factory generation queue
+     *
+     * @param request the HTTP request
+     * @return the queue state or 401 if not authorized
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@Context HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        if (username == null || !userManager.isSystemAdmin(username)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        QueueStatus status = new QueueStatus();
+        status.node = clusterCoordinator.getNodeId();
+        status.workers = generationQueue.getWorkers();
+        status.virtualThreads = generationQueue.isVirtualThreads();
+        status.activeWorkers = generationQueue.getActiveWorkers();
+        status.utilization = generationQueue.getUtilization();
+        status.queueDepth = generationQueue.getQueueDepth();
+        status.capacity = generationQueue.getCapacity();
+        status.overflowPolicy = generationQueue.getOverflowPolicy().name();
+        status.submitted = generationQueue.getSubmitted();
+        status.completed = generationQueue.getCompleted();
+        status.rejected = generationQueue.getRejected();
+        status.failed = generationQueue.getFailed();
+        status.outboxSize = outbox.getSize();
+        status.outboxRetried = outbox.getRetried();
+        status.outboxAbandoned = outbox.getAbandoned();
+        status.outboxLeased = outbox.getLeased();
+        status.outboxHandedOff = outbox.getHandedOff();
+        for (Map.Entry<String, LatencyStats> entry : metrics.getStages().entrySet()) {
+            StageStatus stage = new StageStatus();
+            stage.name = entry.getKey();
+            stage.count = entry.getValue().getCount();
+            stage.totalMillis = entry.getValue().getTotalMillis();
+            stage.meanMillis = entry.getValue().getMeanMillis();
+            stage.maxMillis = entry.getValue().getMaxMillis();
+            stage.p95Millis = entry.getValue().getPercentileMillis(95);
+            stage.p99Millis = entry.getValue().getPercentileMillis(99);
+            status.stages.add(stage);
+        }
+        return Response.ok(status).build();
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class QueueStatus {
+        @XmlElement
+        private String            node;
+        @XmlElement
+        private int               workers;
+        @XmlElement
+        private boolean           virtualThreads;
+        @XmlElement
+        private int               activeWorkers;
+        @XmlElement
+        private double            utilization;
+        @XmlElement
+        private int               queueDepth;
+        @XmlElement
+        private int               capacity;
+        @XmlElement
+        private String            overflowPolicy;
+        @XmlElement
+        private long              submitted;
+        @XmlElement
+        private long              completed;
+        @XmlElement
+        private long              rejected;
+        @XmlElement
+        private long              failed;
+        @XmlElement
+        private int               outboxSize;
+        @XmlElement
+        private long              outboxRetried;
+        @XmlElement
+        private long              outboxAbandoned;
+        @XmlElement
+        private int               outboxLeased;
+        @XmlElement
+        private long              outboxHandedOff;
+        @XmlElement
+        private List<StageStatus> stages = new ArrayList<>();
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class StageStatus {
+        @XmlElement
+        private String name;
+        @XmlElement
+        private long   count;
+        @XmlElement
+        private double totalMillis;
+        @XmlElement
+        private double meanMillis;
+        @XmlElement
+        private double maxMillis;
+        @XmlElement
+        private double p95Millis;
+        @XmlElement
+        private double p99Millis;
+    }
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker that stops calling Codenvy while it is down.
+ * <p/>
+ * The circuit opens after {@code failureThreshold} consecutive failures, then calls are rejected without reaching
+ * Codenvy for {@code openMillis}. After that delay the circuit is half open: up to {@code halfOpenCalls} trial calls
+ * are let through, a success closes the circuit and a failure opens it again.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    /**
+     * State of the circuit
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int  failureThreshold;
+    private final long openMillis;
+    private final int  halfOpenCalls;
+
+    private State state;
+    private int   consecutiveFailures;
+    private int   trialCalls;
+    private long  openedAt;
+    private long  rejected;
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold
+     *         number of consecutive failures that opens the circuit.
+     * @param openMillis
+     *         how long the circuit stays open before trial calls are let through.
+     * @param halfOpenCalls
+     *         number of concurrent trial calls when the circuit is half open.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis, int halfOpenCalls) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = Math.max(0, openMillis);
+        this.halfOpenCalls = Math.max(1, halfOpenCalls);
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Tell if a call may be made, a permitted call must be followed by {@link #onSuccess()}, {@link #onFailure()} or
+     * {@link #onCancel()}
+     *
+     * @return {@code false} if the call must not be made
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (currentTimeMillis() - openedAt < openMillis) {
+                rejected++;
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialCalls = 0;
+            LOG.info("Codenvy circuit half open, trying again.");
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialCalls >= halfOpenCalls) {
+                rejected++;
+                return false;
+            }
+            trialCalls++;
+        }
+        return true;
+    }
+
+    /**
+     * Record a successful call
+     */
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            LOG.info("Codenvy circuit closed.");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialCalls = 0;
+    }
+
+    /**
+     * Record a failed call
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            LOG.warn("Codenvy circuit opened after " + consecutiveFailures + " consecutive failure(s), calls suspended for " +
+                     openMillis + " ms.");
+            state = State.OPEN;
+            openedAt = currentTimeMillis();
+            trialCalls = 0;
+        }
+    }
+
+    /**
+     * Record a permitted call that was finally not made
+     */
+    public synchronized void onCancel() {
+        if (state == State.HALF_OPEN && trialCalls > 0) {
+            trialCalls--;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
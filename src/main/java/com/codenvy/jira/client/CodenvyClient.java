@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import us.monoid.json.JSONException;
+
+import com.codenvy.jira.client.CodenvyJson.CreatedFactory;
+import com.codenvy.jira.client.CodenvyJson.NamedFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Asynchronous client of the Codenvy API used by the factory generations, the backfill and the factory collectors.
+ * <p/>
+ * Each method returns at once a stage completed with the answer of Codenvy, so that dependent calls are chained with
+ * {@code thenCompose} and independent ones are sent concurrently. Calls are sent by the non-blocking
+ * {@link CodenvyHttpClient}: no thread waits for a call, only the callers that need the result of a whole chain of
+ * calls {@link #await} it.
+ */
+public class CodenvyClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodenvyClient.class);
+
+    private final CodenvyHttpClient     httpClient;
+    private final CodenvySessionManager sessionManager;
+
+    /**
+     * Constructor.
+     *
+     * @param httpClient
+     *         HTTP client shared by every call made to Codenvy.
+     * @param sessionManager
+     *         holder of the Codenvy session shared by all calls.
+     */
+    public CodenvyClient(CodenvyHttpClient httpClient, CodenvySessionManager sessionManager) {
+        this.httpClient = httpClient;
+        this.sessionManager = sessionManager;
+    }
+
+    /**
+     * Get the session shared by all calls for the given credentials, logging in on Codenvy if needed
+     *
+     * @param instanceUrl
+     *         the URL of the Codenvy instance
+     * @param username
+     *         the Codenvy username
+     * @param password
+     *         the Codenvy password
+     * @return the future usable session
+     */
+    public CompletionStage<CodenvySession> login(String instanceUrl, String username, String password) {
+        return sessionManager.getSession(instanceUrl, username, password);
+    }
+
+    /**
+     * Get the id of the user a session is logged in with
+     *
+     * @param session
+     *         the session
+     * @return the future user id
+     */
+    public CompletionStage<String> currentUser(CodenvySession session) {
+        return httpClient.get(session.getInstanceUrl() + "/api/user?token=" + session.getToken(),
+                              CodenvyJson.stringField("id"))
+                         .thenApply(userId -> {
+                             if (userId == null) {
+                                 throw new CompletionException(new IOException("No Codenvy user found."));
+                             }
+                             return userId;
+                         });
+    }
+
+    /**
+     * Find a factory of the session user by name
+     *
+     * @param session
+     *         the session
+     * @param name
+     *         the name of the factory
+     * @return the future JSON of the first factory found, {@code null} if there is none
+     */
+    public CompletionStage<String> findFactory(CodenvySession session, String name) {
+        // Only the first found factory is read, not the whole array
+        return httpClient.get(session.getInstanceUrl() + "/api/factory/find?name=" + name + "&creator.userId=" +
+                              session.getUserId() + "&token=" + session.getToken(), CodenvyJson.firstElement());
+    }
+
+    /**
+     * Read a page of the factories of the session user
+     *
+     * @param session
+     *         the session
+     * @param skipCount
+     *         the number of factories already read
+     * @param maxItems
+     *         the size of the page
+     * @return the future ids and names of the factories of the page
+     */
+    public CompletionStage<List<NamedFactory>> findFactories(CodenvySession session, int skipCount, int maxItems) {
+        return httpClient.get(session.getInstanceUrl() + "/api/factory/find?creator.userId=" + session.getUserId() +
+                              "&maxItems=" + maxItems + "&skipCount=" + skipCount + "&token=" + session.getToken(),
+                              CodenvyJson.namedFactories());
+    }
+
+    /**
+     * Create a factory
+     *
+     * @param session
+     *         the session
+     * @param factory
+     *         the JSON of the factory to create
+     * @return the future id and 'accept-named' URL of the created factory
+     */
+    public CompletionStage<CreatedFactory> createFactory(CodenvySession session, String factory) {
+        return httpClient.post(session.getInstanceUrl() + "/api/factory?token=" + session.getToken(), factory,
+                               CodenvyJson.createdFactory("accept-named"));
+    }
+
+    /**
+     * Delete a factory
+     *
+     * @param session
+     *         the session
+     * @param factoryId
+     *         the id of the factory to delete
+     * @return the future completed once the factory is deleted
+     */
+    public CompletionStage<Void> deleteFactory(CodenvySession session, String factoryId) {
+        return httpClient.delete(session.getInstanceUrl() + "/api/factory/" + factoryId + "?token=" + session.getToken());
+    }
+
+    /**
+     * Chain calls to the login, renewing the session once if Codenvy rejects its token
+     *
+     * @param instanceUrl
+     *         the URL of the Codenvy instance
+     * @param username
+     *         the Codenvy username
+     * @param password
+     *         the Codenvy password
+     * @param calls
+     *         the calls to make with the session
+     * @return the future result of the calls
+     */
+    public <T> CompletionStage<T> execute(final String instanceUrl, final String username, final String password,
+                                          final Function<CodenvySession, CompletionStage<T>> calls) {
+        return login(instanceUrl, username, password).thenCompose(session -> calls.apply(session)
+                .<CompletionStage<T>>handle((result, error) -> {
+                    final Throwable cause = unwrap(error);
+                    if (cause instanceof IOException && sessionManager.isUnauthorized((IOException)cause)) {
+                        LOG.debug("Codenvy token rejected, logging in again (" + username + ").");
+                        sessionManager.invalidate(session);
+                        return login(instanceUrl, username, password).thenCompose(calls);
+                    }
+                    return error == null ? CompletableFuture.completedFuture(result) : failed(cause);
+                })
+                .thenCompose(Function.<CompletionStage<T>>identity()));
+    }
+
+    /**
+     * Wait for the result of a stage
+     *
+     * @param stage
+     *         the stage to wait for
+     * @return the result of the stage
+     * @throws IOException
+     *         if Codenvy could not be reached or rejected a call
+     * @throws JSONException
+     */
+    public static <T> T await(CompletionStage<T> stage) throws IOException, JSONException {
+        try {
+            return stage.toCompletableFuture().get();
+        } catch (ExecutionException e) {
+            final Throwable cause = unwrap(e.getCause());
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof JSONException) {
+                throw (JSONException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Codenvy.");
+        }
+    }
+
+    /**
+     * Get the failure a stage completed with, without the wrapping exceptions of the stages it was chained to
+     *
+     * @param error
+     *         the error a stage completed with
+     * @return the original failure
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static <T> CompletionStage<T> failed(Throwable error) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+}
@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import us.monoid.json.JSONObject;
+
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.google.gson.stream.JsonReader;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking HTTP client shared by every call made to Codenvy.
+ * <p/>
+ * Calls are sent by the I/O threads of an asynchronous HTTP client and return at once a stage completed with the
+ * answer of Codenvy: no thread waits for a call, neither for Codenvy nor for the limits below. The stages are
+ * completed on the I/O threads, what is chained to them must not block. Response bodies are received in full before
+ * the handler reads the values it needs.
+ * <p/>
+ * Connections are pooled and kept alive between calls, up to {@code codenvy.http.maxConnections} (default 20).
+ * Each call times out after {@code codenvy.http.connectTimeout} milliseconds (default 5000) when connecting and
+ * {@code codenvy.http.readTimeout} milliseconds (default 30000) when waiting for data. At most
+ * {@code codenvy.http.maxInFlight} calls (default 20) are made at the same time, the others are queued for a free
+ * slot up to the connect timeout.
+ * <p/>
+ * Calls are rate limited to {@code codenvy.rate.permitsPerSecond} per second (default 10, 0 for no limit) with bursts
+ * of up to {@code codenvy.rate.burst} calls (default 20), a call whose token isn't due yet is delayed until it is.
+ * When {@code codenvy.breaker.failureThreshold} consecutive calls fail (default 5) because Codenvy can't be reached or
+ * answers 5xx, calls fail fast without reaching Codenvy during {@code codenvy.breaker.openDuration} milliseconds
+ * (default 30000) before a trial call is made.
+ */
+public class CodenvyHttpClient implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodenvyHttpClient.class);
+
+    /**
+     * Default number of calls made to Codenvy at the same time
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 20;
+
+    private final PoolingNHttpClientConnectionManager connectionManager;
+    private final CloseableHttpAsyncClient            httpClient;
+    private final ScheduledExecutorService            scheduler;
+    private final Queue<Call<?>>                      waiting;
+    private final Semaphore                           inFlight;
+    private final int                                 maxInFlight;
+    private final int                                 connectTimeout;
+    private final CircuitBreaker                      circuitBreaker;
+    private final RateLimiter                         rateLimiter;
+
+    /**
+     * Constructor.
+     *
+     * @param metrics
+     *         registry the in flight calls and leased connections gauges are published in.
+     */
+    public CodenvyHttpClient(CodenvyMetrics metrics) {
+        final int maxConnections = Math.max(1, Integer.getInteger("codenvy.http.maxConnections", 20));
+        final int readTimeout = Integer.getInteger("codenvy.http.readTimeout", 30000);
+        this.connectTimeout = Integer.getInteger("codenvy.http.connectTimeout", 5000);
+        this.maxInFlight = Math.max(1, Integer.getInteger("codenvy.http.maxInFlight", DEFAULT_MAX_IN_FLIGHT));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.waiting = new ConcurrentLinkedQueue<>();
+        this.circuitBreaker = new CircuitBreaker(Integer.getInteger("codenvy.breaker.failureThreshold", 5),
+                                                 Long.getLong("codenvy.breaker.openDuration", 30000), 1);
+        this.rateLimiter = new RateLimiter(Double.parseDouble(System.getProperty("codenvy.rate.permitsPerSecond", "10")),
+                                           Integer.getInteger("codenvy.rate.burst", 20));
+
+        try {
+            this.connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(
+                    IOReactorConfig.custom().setConnectTimeout(connectTimeout).setSoTimeout(readTimeout).build()));
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Unable to start the I/O threads of the Codenvy HTTP client.", e);
+        }
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        final RequestConfig requestConfig = RequestConfig.custom()
+                                                         .setConnectTimeout(connectTimeout)
+                                                         .setConnectionRequestTimeout(connectTimeout)
+                                                         .setSocketTimeout(readTimeout)
+                                                         .build();
+        this.httpClient = HttpAsyncClients.custom()
+                                          .setConnectionManager(connectionManager)
+                                          .setDefaultRequestConfig(requestConfig)
+                                          .disableCookieManagement()
+                                          .build();
+        this.httpClient.start();
+
+        // Delays the rate limited calls, times the queued ones out and closes the idle connections
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codenvy-http-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(30, TimeUnit.SECONDS);
+            }
+        }, 30, 30, TimeUnit.SECONDS);
+
+        metrics.registerGauge("httpInFlight", new CodenvyMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getInFlight();
+            }
+        });
+        metrics.registerGauge("httpLeasedConnections", new CodenvyMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getLeasedConnections();
+            }
+        });
+    }
+
+    /**
+     * GET a JSON document
+     *
+     * @param url
+     *         the URL to get
+     * @param handler
+     *         reader of the needed values of the document
+     * @return the future values read in the document answered by Codenvy
+     */
+    public <T> CompletionStage<T> get(String url, JsonResponseHandler<T> handler) {
+        return execute(new HttpGet(url), handler);
+    }
+
+    /**
+     * POST a JSON object
+     *
+     * @param url
+     *         the URL to post to
+     * @param body
+     *         the JSON object to send
+     * @param handler
+     *         reader of the needed values of the answered document
+     * @return the future values read in the document answered by Codenvy
+     */
+    public <T> CompletionStage<T> post(String url, JSONObject body, JsonResponseHandler<T> handler) {
+        return post(url, body.toString(), handler);
+    }
+
+    /**
+     * POST an already serialized JSON object
+     *
+     * @param url
+     *         the URL to post to
+     * @param body
+     *         the JSON to post
+     * @param handler
+     *         reader of the needed values of the answered document
+     * @return the future values read in the document answered by Codenvy
+     */
+    public <T> CompletionStage<T> post(String url, String body, JsonResponseHandler<T> handler) {
+        final HttpPost post = new HttpPost(url);
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return execute(post, handler);
+    }
+
+    /**
+     * DELETE a resource
+     *
+     * @param url
+     *         the URL of the resource to delete
+     * @return the future completed once Codenvy deleted the resource
+     */
+    public CompletionStage<Void> delete(String url) {
+        return execute(new HttpDelete(url), null);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    /**
+     * Get the number of calls queued for a free in flight slot
+     *
+     * @return the number of calls not sent yet
+     */
+    public int getWaiting() {
+        return waiting.size();
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    public int getAvailableConnections() {
+        return connectionManager.getTotalStats().getAvailable();
+    }
+
+    /**
+     * Send a request once the circuit, in flight and rate limits let it through, without waiting for its response
+     *
+     * @param request
+     *         the request to send
+     * @param handler
+     *         reader of the needed values of the response body, {@code null} if the body isn't needed
+     * @return the future values read by the handler, failed with a {@link CodenvyThrottledException} if a limit kept
+     * the request from being sent, with a {@link CodenvyHttpException} if Codenvy answered with a status other than 2xx
+     * or with an {@link IOException} if Codenvy can't be reached or answered a body the handler can't read
+     */
+    protected <T> CompletionStage<T> execute(HttpRequestBase request, JsonResponseHandler<T> handler) {
+        final Call<T> call = new Call<>(request, handler);
+        if (!circuitBreaker.allowRequest()) {
+            call.future.completeExceptionally(
+                    new CodenvyThrottledException("Codenvy is unavailable (circuit open), " + call + " not sent."));
+            return call.future;
+        }
+        if (waiting.isEmpty() && inFlight.tryAcquire()) {
+            dispatch(call);
+            return call.future;
+        }
+        // Queued without holding a thread, sent as soon as a call in flight completes
+        waiting.add(call);
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (waiting.remove(call)) {
+                        circuitBreaker.onCancel();
+                        call.future.completeExceptionally(new CodenvyThrottledException(
+                                "Too many calls in flight to Codenvy (" + maxInFlight + "), " + call + " not sent."));
+                    }
+                }
+            }, connectTimeout, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            if (waiting.remove(call)) {
+                circuitBreaker.onCancel();
+                call.future.completeExceptionally(new IOException("Codenvy HTTP client closed, " + call + " not sent."));
+            }
+        }
+        // A slot may have been released before the call was queued
+        sendWaiting();
+        return call.future;
+    }
+
+    /**
+     * Send a call holding an in flight slot as soon as its rate limit token is due
+     */
+    private void dispatch(final Call<?> call) {
+        final long delayNanos = rateLimiter.reserve(connectTimeout);
+        if (delayNanos < 0) {
+            release();
+            circuitBreaker.onCancel();
+            call.future.completeExceptionally(new CodenvyThrottledException(
+                    "Rate limit of calls to Codenvy reached (" + rateLimiter.getPermitsPerSecond() + "/s), " + call +
+                    " not sent."));
+            return;
+        }
+        if (delayNanos == 0) {
+            start(call);
+            return;
+        }
+        try {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    start(call);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            release();
+            circuitBreaker.onCancel();
+            call.future.completeExceptionally(new IOException("Codenvy HTTP client closed, " + call + " not sent."));
+        }
+    }
+
+    private <T> void start(final Call<T> call) {
+        try {
+            send(call.request, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    final T result;
+                    try {
+                        result = read(call, response);
+                    } catch (IOException | RuntimeException e) {
+                        release();
+                        call.future.completeExceptionally(e);
+                        return;
+                    }
+                    release();
+                    call.future.complete(result);
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    circuitBreaker.onFailure();
+                    release();
+                    call.future.completeExceptionally(e instanceof IOException ? e : new IOException(e));
+                }
+
+                @Override
+                public void cancelled() {
+                    circuitBreaker.onCancel();
+                    release();
+                    call.future.completeExceptionally(new InterruptedIOException(call + " cancelled."));
+                }
+            });
+        } catch (RuntimeException e) {
+            // The client is closed
+            circuitBreaker.onCancel();
+            release();
+            call.future.completeExceptionally(new IOException(call + " not sent: " + e.getMessage(), e));
+        }
+    }
+
+    /**
+     * Hand a request over to the I/O threads
+     *
+     * @param request
+     *         the request to send
+     * @param callback
+     *         called by an I/O thread with the response once it is received in full
+     */
+    protected void send(HttpRequestBase request, FutureCallback<HttpResponse> callback) {
+        httpClient.execute(request, callback);
+    }
+
+    private <T> T read(Call<T> call, HttpResponse response) throws IOException {
+        final int status = response.getStatusLine().getStatusCode();
+        final HttpEntity entity = response.getEntity();
+        if (status >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+        if (status < 200 || status >= 300) {
+            final String body = entity == null ? "" : EntityUtils.toString(entity, StandardCharsets.UTF_8);
+            throw new CodenvyHttpException(status, "Codenvy answered " + status + " to " + call + ": " + body);
+        }
+        if (call.handler == null || entity == null) {
+            return null;
+        }
+        try (JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), StandardCharsets.UTF_8))) {
+            return call.handler.handle(reader);
+        }
+    }
+
+    /**
+     * Give an in flight slot back, to the first queued call if any
+     */
+    private void release() {
+        inFlight.release();
+        sendWaiting();
+    }
+
+    private void sendWaiting() {
+        while (!waiting.isEmpty() && inFlight.tryAcquire()) {
+            final Call<?> call = waiting.poll();
+            if (call == null) {
+                inFlight.release();
+            } else {
+                dispatch(call);
+            }
+        }
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdownNow();
+        Call<?> call;
+        while ((call = waiting.poll()) != null) {
+            call.future.completeExceptionally(new IOException("Codenvy HTTP client closed, " + call + " not sent."));
+        }
+        httpClient.close();
+        LOG.debug("Codenvy HTTP client closed.");
+    }
+
+    private static final class Call<T> {
+        private final HttpRequestBase        request;
+        private final JsonResponseHandler<T> handler;
+        private final CompletableFuture<T>   future;
+
+        private Call(HttpRequestBase request, JsonResponseHandler<T> handler) {
+            this.request = request;
+            this.handler = handler;
+            this.future = new CompletableFuture<>();
+        }
+
+        @Override
+        public String toString() {
+            return request.getMethod() + " " + request.getURI().getPath();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming readers of the Codenvy responses, each one only reads the response up to the values it needs.
+ */
+public final class CodenvyJson {
+
+    private CodenvyJson() {
+    }
+
+    /**
+     * Factory created on Codenvy
+     */
+    public static final class CreatedFactory {
+        private final String id;
+        private final String url;
+
+        public CreatedFactory(String id, String url) {
+            this.id = id;
+            this.url = url;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * @return the URL of the factory, {@code null} if Codenvy answered no such link
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        @Override
+        public String toString() {
+            return "{id=" + id + ", url=" + url + "}";
+        }
+    }
+
+    /**
+     * Id and name of a factory found on Codenvy
+     */
+    public static final class NamedFactory {
+        private final String id;
+        private final String name;
+
+        public NamedFactory(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return "{id=" + id + ", name=" + name + "}";
+        }
+    }
+
+    /**
+     * Read a string field of a JSON object, the rest of the object is not read once the field is found
+     *
+     * @param name
+     *         the name of the field
+     * @return the reader of the field value, which reads {@code null} if the object has no such field
+     */
+    public static JsonResponseHandler<String> stringField(final String name) {
+        return new JsonResponseHandler<String>() {
+            @Override
+            public String handle(JsonReader reader) throws IOException {
+                expect(reader, JsonToken.BEGIN_OBJECT);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (name.equals(reader.nextName())) {
+                        return readString(reader);
+                    }
+                    reader.skipValue();
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Read the first element of a JSON array, the other elements are not read
+     *
+     * @return the reader of the JSON of the first element, which reads {@code null} if the array is empty
+     */
+    public static JsonResponseHandler<String> firstElement() {
+        return new JsonResponseHandler<String>() {
+            @Override
+            public String handle(JsonReader reader) throws IOException {
+                expect(reader, JsonToken.BEGIN_ARRAY);
+                reader.beginArray();
+                if (!reader.hasNext()) {
+                    return null;
+                }
+                final StringWriter json = new StringWriter();
+                copy(reader, new JsonWriter(json));
+                return json.toString();
+            }
+        };
+    }
+
+    /**
+     * Read the id and name of each factory of a JSON array, the other fields of the factories are skipped without
+     * being kept
+     *
+     * @return the reader of the factories
+     */
+    public static JsonResponseHandler<List<NamedFactory>> namedFactories() {
+        return new JsonResponseHandler<List<NamedFactory>>() {
+            @Override
+            public List<NamedFactory> handle(JsonReader reader) throws IOException {
+                expect(reader, JsonToken.BEGIN_ARRAY);
+                reader.beginArray();
+                final List<NamedFactory> factories = new ArrayList<>();
+                while (reader.hasNext()) {
+                    expect(reader, JsonToken.BEGIN_OBJECT);
+                    reader.beginObject();
+                    String id = null;
+                    String factoryName = null;
+                    while (reader.hasNext()) {
+                        final String name = reader.nextName();
+                        if ("id".equals(name)) {
+                            id = readString(reader);
+                        } else if ("name".equals(name)) {
+                            factoryName = readString(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    factories.add(new NamedFactory(id, factoryName));
+                }
+                reader.endArray();
+                return factories;
+            }
+        };
+    }
+
+    /**
+     * Read the id of a created factory and the URL of one of its links, the rest of the factory is not read once
+     * both are found
+     *
+     * @param rel
+     *         the relation of the link, {@code accept-named} for the URL that opens the factory by name
+     * @return the reader of the created factory
+     */
+    public static JsonResponseHandler<CreatedFactory> createdFactory(final String rel) {
+        return new JsonResponseHandler<CreatedFactory>() {
+            @Override
+            public CreatedFactory handle(JsonReader reader) throws IOException {
+                expect(reader, JsonToken.BEGIN_OBJECT);
+                reader.beginObject();
+                String id = null;
+                String url = null;
+                while (reader.hasNext() && (id == null || url == null)) {
+                    final String name = reader.nextName();
+                    if ("id".equals(name)) {
+                        id = readString(reader);
+                    } else if ("links".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        url = readLink(reader, rel);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                return new CreatedFactory(id, url);
+            }
+        };
+    }
+
+    /**
+     * Read an array of links up to the one with the given relation
+     *
+     * @return the URL of the link or {@code null} if the array has none, in which case the whole array is read
+     */
+    private static String readLink(JsonReader reader, String rel) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            expect(reader, JsonToken.BEGIN_OBJECT);
+            reader.beginObject();
+            String linkRel = null;
+            String href = null;
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                if ("rel".equals(name)) {
+                    linkRel = readString(reader);
+                } else if ("href".equals(name)) {
+                    href = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (rel.equals(linkRel)) {
+                // Skip the remaining links so that the reader is positioned after the array
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+                return href;
+            }
+        }
+        reader.endArray();
+        return null;
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        final JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    /**
+     * Copy the next value of a reader as is, numbers keep their textual representation
+     */
+    private static void copy(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copy(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copy(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                writer.value(new BigDecimal(reader.nextString()));
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected " + reader.peek() + " in Codenvy response.");
+        }
+    }
+
+    private static void expect(JsonReader reader, JsonToken token) throws IOException {
+        if (reader.peek() != token) {
+            throw new IOException("Codenvy answered " + reader.peek() + " where " + token + " was expected.");
+        }
+    }
+}
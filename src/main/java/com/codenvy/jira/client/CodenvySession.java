@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+/**
+ * Authenticated Codenvy session: the token obtained at login and the id of the logged in Codenvy user
+ */
+public final class CodenvySession {
+    private final String instanceUrl;
+    private final String username;
+    private final String password;
+    private final String token;
+    private final String userId;
+    private final long   refreshAt;
+    private final long   expiresAt;
+
+    public CodenvySession(String instanceUrl, String username, String password, String token, String userId, long refreshAt,
+                          long expiresAt) {
+        this.instanceUrl = instanceUrl;
+        this.username = username;
+        this.password = password;
+        this.token = token;
+        this.userId = userId;
+        this.refreshAt = refreshAt;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getInstanceUrl() {
+        return instanceUrl;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Check that the session has been opened on the given instance with the given credentials
+     *
+     * @param instanceUrl
+     *         the URL of the Codenvy instance
+     * @param username
+     *         the Codenvy username
+     * @param password
+     *         the Codenvy password
+     * @return {@code true} if the session can be used for these credentials
+     */
+    public boolean belongsTo(String instanceUrl, String username, String password) {
+        return this.instanceUrl.equals(instanceUrl) && this.username.equals(username) && this.password.equals(password);
+    }
+
+    /**
+     * Check if the token should be renewed before it expires
+     *
+     * @param now
+     *         the current time in milliseconds
+     * @return {@code true} if the token is close to its expiry
+     */
+    public boolean needsRefresh(long now) {
+        return now >= refreshAt;
+    }
+
+    /**
+     * Check if the token can no longer be used
+     *
+     * @param now
+     *         the current time in milliseconds
+     * @return {@code true} if the token is expired
+     */
+    public boolean isExpired(long now) {
+        return now >= expiresAt;
+    }
+}
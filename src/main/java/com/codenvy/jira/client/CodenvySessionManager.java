@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import us.monoid.json.JSONException;
+import us.monoid.json.JSONObject;
+
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Shares one Codenvy session between all factory generations.
+ * <p/>
+ * The session is opened once and reused until its token gets close to the end of its lifetime
+ * ({@code codenvy.token.ttl} seconds, default 1800). The token is then renewed by a single caller while the others keep
+ * using the current one, {@code codenvy.token.refreshBefore} seconds (default 120) before it expires. A call rejected
+ * with HTTP 401 drops the session and is retried once with a new one. Only one login is in flight at a time, the
+ * callers that need a session meanwhile are given the future of that login.
+ */
+public class CodenvySessionManager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodenvySessionManager.class);
+
+    private final CodenvyHttpClient               httpClient;
+    private final CodenvyMetrics                  metrics;
+    private final long                            ttlMillis;
+    private final long                            refreshBeforeMillis;
+    private final AtomicReference<CodenvySession> session;
+    private final AtomicReference<Login>          login;
+
+    /**
+     * Constructor.
+     *
+     * @param httpClient
+     *         HTTP client shared by every call made to Codenvy.
+     * @param metrics
+     *         registry the login and user lookup latencies are recorded in.
+     */
+    public CodenvySessionManager(CodenvyHttpClient httpClient, CodenvyMetrics metrics) {
+        this.httpClient = httpClient;
+        this.metrics = metrics;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Long.getLong("codenvy.token.ttl", 1800));
+        this.refreshBeforeMillis = TimeUnit.SECONDS.toMillis(Long.getLong("codenvy.token.refreshBefore", 120));
+        this.session = new AtomicReference<>();
+        this.login = new AtomicReference<>();
+    }
+
+    /**
+     * Get a session for the given credentials, opening it if needed
+     *
+     * @param instanceUrl
+     *         the URL of the Codenvy instance
+     * @param username
+     *         the Codenvy username
+     * @param password
+     *         the Codenvy password
+     * @return the future usable session
+     */
+    public CompletionStage<CodenvySession> getSession(String instanceUrl, String username, String password) {
+        final CodenvySession current = session.get();
+        final long now = System.currentTimeMillis();
+        if (current != null && current.belongsTo(instanceUrl, username, password) && !current.isExpired(now)) {
+            if (current.needsRefresh(now)) {
+                // Renew ahead of expiry, callers keep using the current token meanwhile
+                open(instanceUrl, username, password, true);
+            }
+            return CompletableFuture.completedFuture(current);
+        }
+        return open(instanceUrl, username, password, false);
+    }
+
+    /**
+     * Drop a session so that the next caller logs in again
+     *
+     * @param stale
+     *         the session that is no longer valid
+     */
+    public void invalidate(CodenvySession stale) {
+        session.compareAndSet(stale, null);
+    }
+
+    /**
+     * Log in on Codenvy and get the id of the logged in user
+     *
+     * @param instanceUrl
+     *         the URL of the Codenvy instance
+     * @param username
+     *         the Codenvy username
+     * @param password
+     *         the Codenvy password
+     * @return the future opened session
+     */
+    protected CompletionStage<CodenvySession> login(final String instanceUrl, final String username,
+                                                    final String password) {
+        // Authenticate on Codenvy as JIRA admin
+        final JSONObject credentials;
+        try {
+            credentials = new JSONObject().put("username", username).put("password", password);
+        } catch (JSONException e) {
+            final CompletableFuture<CodenvySession> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        final long loginStart = System.nanoTime();
+        return httpClient.post(instanceUrl + "/api/auth/login", credentials, CodenvyJson.stringField("value"))
+                         .thenCompose(tokenValue -> {
+                             metrics.recordStage("login", loginStart);
+                             if (tokenValue == null) {
+                                 throw new CompletionException(new IOException("No Codenvy Token obtained (" + username + ")."));
+                             }
+                             // Get Codenvy user id
+                             final long userStart = System.nanoTime();
+                             return httpClient.get(instanceUrl + "/api/user?token=" + tokenValue,
+                                                   CodenvyJson.stringField("id"))
+                                              .thenApply(userId -> {
+                                                  metrics.recordStage("user", userStart);
+                                                  if (userId == null) {
+                                                      throw new CompletionException(
+                                                              new IOException("No Codenvy user found (" + username + ")."));
+                                                  }
+                                                  final long now = System.currentTimeMillis();
+                                                  LOG.debug("Logged in on Codenvy (" + username + ").");
+                                                  return new CodenvySession(instanceUrl, username, password, tokenValue,
+                                                                            userId, now + ttlMillis - refreshBeforeMillis,
+                                                                            now + ttlMillis);
+                                              });
+                         });
+    }
+
+    /**
+     * Check if a failed call has been rejected because of its token
+     *
+     * @param e
+     *         the failure of the call
+     * @return {@code true} if Codenvy answered HTTP 401
+     */
+    protected boolean isUnauthorized(IOException e) {
+        return e instanceof CodenvyHttpException && ((CodenvyHttpException)e).getStatus() == 401;
+    }
+
+    /**
+     * Get the login in flight for the given credentials, starting one if there is none
+     *
+     * @param renewal
+     *         {@code true} if the current session is still usable and only has to be renewed
+     * @return the future opened session
+     */
+    private CompletableFuture<CodenvySession> open(final String instanceUrl, final String username, final String password,
+                                                   final boolean renewal) {
+        while (true) {
+            final Login pending = login.get();
+            if (pending != null && pending.belongsTo(instanceUrl, username, password)) {
+                return pending.future;
+            }
+            // Another caller may have logged in meanwhile
+            final CodenvySession latest = session.get();
+            if (latest != null && latest.belongsTo(instanceUrl, username, password) &&
+                !latest.needsRefresh(System.currentTimeMillis())) {
+                return CompletableFuture.completedFuture(latest);
+            }
+            final Login started = new Login(instanceUrl, username, password);
+            if (!login.compareAndSet(pending, started)) {
+                continue;
+            }
+            login(instanceUrl, username, password).whenComplete((opened, error) -> {
+                if (error == null) {
+                    session.set(opened);
+                } else if (renewal) {
+                    LOG.warn("Unable to renew Codenvy token (" + username + "): " + CodenvyClient.unwrap(error).getMessage());
+                }
+                login.compareAndSet(started, null);
+                if (error == null) {
+                    started.future.complete(opened);
+                } else {
+                    started.future.completeExceptionally(CodenvyClient.unwrap(error));
+                }
+            });
+            return started.future;
+        }
+    }
+
+    private static final class Login {
+        private final String                            instanceUrl;
+        private final String                            username;
+        private final String                            password;
+        private final CompletableFuture<CodenvySession> future;
+
+        private Login(String instanceUrl, String username, String password) {
+            this.instanceUrl = instanceUrl;
+            this.username = username;
+            this.password = password;
+            this.future = new CompletableFuture<>();
+        }
+
+        private boolean belongsTo(String instanceUrl, String username, String password) {
+            return this.instanceUrl.equals(instanceUrl) && this.username.equals(username) && this.password.equals(password);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import java.io.IOException;
+
+/**
+ * A call was not sent to Codenvy because of a local limit: the circuit is open, the rate limit or the number of calls
+ * in flight is reached. Codenvy hasn't been asked anything, retrying the call later isn't a failed attempt.
+ */
+public class CodenvyThrottledException extends IOException {
+
+    public CodenvyThrottledException(String message) {
+        super(message);
+    }
+}
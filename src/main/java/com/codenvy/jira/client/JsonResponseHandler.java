@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+
+/**
+ * Reads what is needed from the body of a Codenvy response
+ *
+ * @param <T>
+ *         the type of the read value
+ */
+public interface JsonResponseHandler<T> {
+    /**
+     * Read the response body, the rest of the body is left unread once the needed values are found
+     *
+     * @param reader
+     *         streaming reader of the response body
+     * @return the read value
+     * @throws IOException
+     *         if the body can't be read or isn't the expected JSON
+     */
+    T handle(JsonReader reader) throws IOException;
+}
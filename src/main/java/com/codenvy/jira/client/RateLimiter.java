@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket that caps the rate of calls made to Codenvy.
+ * <p/>
+ * The bucket holds up to {@code burst} tokens and is refilled with {@code permitsPerSecond} tokens per second, each
+ * call takes one token. Callers are never blocked, they reserve a token and delay their call until it is due. A rate of
+ * 0 disables the limit.
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final double burst;
+
+    private double tokens;
+    private long   refilledAt;
+    private long   throttled;
+
+    /**
+     * Constructor.
+     *
+     * @param permitsPerSecond
+     *         sustained rate of calls, 0 for no limit.
+     * @param burst
+     *         number of calls that can be made at once after an idle period.
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerSecond = Math.max(0, permitsPerSecond);
+        this.burst = Math.max(1, burst);
+        this.tokens = this.burst;
+        this.refilledAt = nanoTime();
+    }
+
+    /**
+     * Reserve a token without waiting for it
+     * <p/>
+     * When the bucket is empty, the next token to be refilled is reserved and the caller tells when it may make its
+     * call, the tokens refilled meanwhile pay the reservations back in order.
+     *
+     * @param timeoutMillis
+     *         how long the caller agrees to wait for a token at most
+     * @return in how many nanoseconds the reserved token is due, 0 if a token is available, -1 if none is due in time
+     */
+    public synchronized long reserve(long timeoutMillis) {
+        if (permitsPerSecond == 0) {
+            return 0;
+        }
+        refill(nanoTime());
+        final long waitNanos = tokens >= 1 ? 0 : (long)((1 - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+        if (waitNanos > TimeUnit.MILLISECONDS.toNanos(timeoutMillis)) {
+            throttled++;
+            return -1;
+        }
+        tokens -= 1;
+        return waitNanos;
+    }
+
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    public synchronized double getAvailableTokens() {
+        refill(nanoTime());
+        // Negative while reserved tokens are not refilled yet
+        return Math.max(0, tokens);
+    }
+
+    public synchronized long getThrottled() {
+        return throttled;
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+}
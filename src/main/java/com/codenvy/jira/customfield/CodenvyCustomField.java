@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.customfield;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.customfields.impl.GenericTextCFType;
+import com.atlassian.jira.issue.customfields.manager.GenericConfigManager;
+import com.atlassian.jira.issue.customfields.persistence.CustomFieldValuePersister;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.TextFieldCharacterLengthValidator;
+import com.atlassian.jira.issue.fields.layout.field.FieldLayoutItem;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Codenvy custom field holding the URL of a factory of the issue, rendered as a link by a {@link FactoryLinkRenderer}.
+ * <p/>
+ * In lazy generation mode, an issue without factories renders a link that generates them when it is first clicked.
+ */
+public abstract class CodenvyCustomField extends GenericTextCFType {
+
+    private final CodenvySettingsService settingsService;
+    private final String                 kind;
+    private final String                 label;
+    private final FactoryLinkRenderer    renderer;
+
+    /**
+     * Constructor.
+     *
+     * @param settingsService
+     *         holder of the Codenvy settings.
+     * @param kind
+     *         the factory linked by the field, {@code develop} or {@code review}.
+     * @param label
+     *         the text of the link.
+     */
+    protected CodenvyCustomField(CustomFieldValuePersister customFieldValuePersister, GenericConfigManager genericConfigManager,
+                                 TextFieldCharacterLengthValidator textFieldCharacterLengthValidator,
+                                 JiraAuthenticationContext jiraAuthenticationContext, CodenvySettingsService settingsService,
+                                 String kind, String label) {
+
+        super(customFieldValuePersister, genericConfigManager, textFieldCharacterLengthValidator, jiraAuthenticationContext);
+        this.settingsService = settingsService;
+        this.kind = kind;
+        this.label = label;
+        this.renderer = new FactoryLinkRenderer(kind, label);
+    }
+
+    @Override
+    public Map<String, Object> getVelocityParameters(Issue issue, CustomField field, FieldLayoutItem fieldLayoutItem) {
+        final Map<String, Object> parameters = super.getVelocityParameters(issue, field, fieldLayoutItem);
+        parameters.put("factoryLink", renderer);
+        // Issue is null when the field is rendered outside of an issue, e.g. on its configuration page
+        if (issue != null && issue.getKey() != null && settingsService.get().isLazy()) {
+            parameters.put("factoryKind", kind);
+            parameters.put("factoryLabel", label);
+            parameters.put("generatePath", "/rest/codenvy/1.0/factories/" + issue.getKey() + "/" +
+                                           kind.toUpperCase(Locale.ENGLISH));
+        }
+        return parameters;
+    }
+}
@@ -10,19 +10,20 @@
  *******************************************************************************/
 package com.codenvy.jira.customfield;
 
-import com.atlassian.jira.issue.customfields.impl.GenericTextCFType;
 import com.atlassian.jira.issue.customfields.manager.GenericConfigManager;
 import com.atlassian.jira.issue.customfields.persistence.CustomFieldValuePersister;
 import com.atlassian.jira.issue.fields.TextFieldCharacterLengthValidator;
 import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.codenvy.jira.settings.CodenvySettingsService;
 
 
-public class DevelopCustomField extends GenericTextCFType {
+public class DevelopCustomField extends CodenvyCustomField {
 
     public DevelopCustomField(CustomFieldValuePersister customFieldValuePersister, GenericConfigManager genericConfigManager,
                               TextFieldCharacterLengthValidator textFieldCharacterLengthValidator,
-                              JiraAuthenticationContext jiraAuthenticationContext) {
+                              JiraAuthenticationContext jiraAuthenticationContext, CodenvySettingsService settingsService) {
 
-        super(customFieldValuePersister, genericConfigManager, textFieldCharacterLengthValidator, jiraAuthenticationContext);
+        super(customFieldValuePersister, genericConfigManager, textFieldCharacterLengthValidator, jiraAuthenticationContext,
+              settingsService, "develop", "Developer Workspace");
     }
 }
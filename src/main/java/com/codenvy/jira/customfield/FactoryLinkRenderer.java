@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.customfield;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders the value of a Codenvy custom field as a link to its factory, caching the HTML rendered for each value.
+ * <p/>
+ * Fields hold the bare URL of their factory. Values stored by former versions of the plugin hold the whole HTML link,
+ * whose URL is extracted to build the link again. Since values can be edited, only http(s) URLs become links, any other
+ * value is rendered as escaped text. Up to {@code codenvy.render.cacheSize} values (default 5000) are cached per field
+ * type, least recently used first, so that issue navigators and boards listing the same issues don't build the same
+ * links again.
+ */
+public class FactoryLinkRenderer {
+
+    private static final Pattern HREF     = Pattern.compile("href=\"([^\"]+)\"");
+    private static final Pattern HTTP_URL = Pattern.compile("https?://\\S+", Pattern.CASE_INSENSITIVE);
+
+    private final String              kind;
+    private final String              label;
+    private final int                 maxSize;
+    private final Map<String, String> rendered;
+
+    /**
+     * Constructor.
+     *
+     * @param kind
+     *         the factory linked by the field, {@code develop} or {@code review}.
+     * @param label
+     *         the text of the link.
+     */
+    public FactoryLinkRenderer(String kind, String label) {
+        this.kind = kind;
+        this.label = label;
+        this.maxSize = Math.max(1, Integer.getInteger("codenvy.render.cacheSize", 5000));
+        this.rendered = new LinkedHashMap<String, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Render the value of a field, the name of the method tells Velocity not to escape the rendered HTML
+     *
+     * @param value
+     *         the value stored in the field
+     * @return the HTML link to the factory, or the escaped value if it holds no http(s) URL
+     */
+    public String renderHtml(Object value) {
+        final String stored = value.toString();
+        synchronized (rendered) {
+            String html = rendered.get(stored);
+            if (html == null) {
+                final String url = getUrl(stored);
+                html = url == null ? escape(stored)
+                                   : "<a id=\"codenvy_" + kind + "_field\" href=\"" + escape(url) + "\">" + label + "</a>";
+                rendered.put(stored, html);
+            }
+            return html;
+        }
+    }
+
+    /**
+     * Get the number of cached links
+     *
+     * @return the size of the cache
+     */
+    public int getSize() {
+        synchronized (rendered) {
+            return rendered.size();
+        }
+    }
+
+    /**
+     * Get the URL of the factory linked by the value of a field
+     *
+     * @param value
+     *         the value stored in the field, a URL or an HTML link
+     * @return the URL or {@code null} if the value has no http(s) URL
+     */
+    public static String getUrl(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        String url = value;
+        if (isLegacyLink(value)) {
+            final Matcher matcher = HREF.matcher(value);
+            if (!matcher.find()) {
+                return null;
+            }
+            url = unescape(matcher.group(1));
+        }
+        return HTTP_URL.matcher(url).matches() ? url : null;
+    }
+
+    private static boolean isLegacyLink(String value) {
+        return value.startsWith("<");
+    }
+
+    private static String unescape(String url) {
+        return url.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+    }
+
+    private static String escape(String url) {
+        return url.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
@@ -10,19 +10,20 @@
  *******************************************************************************/
 package com.codenvy.jira.customfield;
 
-import com.atlassian.jira.issue.customfields.impl.GenericTextCFType;
 import com.atlassian.jira.issue.customfields.manager.GenericConfigManager;
 import com.atlassian.jira.issue.customfields.persistence.CustomFieldValuePersister;
 import com.atlassian.jira.issue.fields.TextFieldCharacterLengthValidator;
 import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.codenvy.jira.settings.CodenvySettingsService;
 
 
-public class ReviewCustomField extends GenericTextCFType {
+public class ReviewCustomField extends CodenvyCustomField {
 
     public ReviewCustomField(CustomFieldValuePersister customFieldValuePersister, GenericConfigManager genericConfigManager,
                              TextFieldCharacterLengthValidator textFieldCharacterLengthValidator,
-                             JiraAuthenticationContext jiraAuthenticationContext) {
+                             JiraAuthenticationContext jiraAuthenticationContext, CodenvySettingsService settingsService) {
 
-        super(customFieldValuePersister, genericConfigManager, textFieldCharacterLengthValidator, jiraAuthenticationContext);
+        super(customFieldValuePersister, genericConfigManager, textFieldCharacterLengthValidator, jiraAuthenticationContext,
+              settingsService, "review", "Reviewer Workspace");
     }
 }
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.ClearCacheEvent;
+import com.atlassian.jira.event.issue.field.CustomFieldCreatedEvent;
+import com.atlassian.jira.event.issue.field.CustomFieldDeletedEvent;
+import com.atlassian.jira.event.issue.field.CustomFieldUpdatedEvent;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.issue.fields.FieldManager;
+import com.atlassian.jira.user.ApplicationUser;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the Develop and Review fields of an issue.
+ * <p/>
+ * The available custom fields only depend on the project and the issue type of an issue, so the ids of the Codenvy
+ * fields are cached per project and issue type instead of scanning every custom field for each issue. The cache is
+ * cleared when a custom field is created, updated or deleted, when JIRA clears its caches, and entries expire after
+ * {@code codenvy.fieldIds.ttl} seconds (default 300) to catch field context changes JIRA sends no event for.
+ */
+public class CodenvyFieldResolver implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodenvyFieldResolver.class);
+
+    public static final String CODENVY_DEVELOP_FIELD_TYPE_KEY = "com.codenvy.jira.codenvy-jira-plugin:developfield";
+    public static final String CODENVY_REVIEW_FIELD_TYPE_KEY  = "com.codenvy.jira.codenvy-jira-plugin:reviewfield";
+
+    private final EventPublisher                       eventPublisher;
+    private final FieldManager                         fieldManager;
+    private final long                                 ttlMillis;
+    private final ConcurrentMap<String, CodenvyFields> fieldsByContext;
+
+    /**
+     * Constructor.
+     *
+     * @param eventPublisher
+     *         injected {@code EventPublisher} implementation.
+     * @param fieldManager
+     *         service to work with JIRA issue fields.
+     */
+    public CodenvyFieldResolver(EventPublisher eventPublisher, FieldManager fieldManager) {
+        this.eventPublisher = eventPublisher;
+        this.fieldManager = fieldManager;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(0, Long.getLong("codenvy.fieldIds.ttl", 300)));
+        this.fieldsByContext = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Called when the plugin has been enabled.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        eventPublisher.register(this);
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        eventPublisher.unregister(this);
+    }
+
+    /**
+     * Get the Develop and Review fields available on an issue
+     *
+     * @param appUser
+     *         the user the fields are looked up for
+     * @param issue
+     *         the issue
+     * @return the ids of the fields, {@code null} if a field is not available
+     * @throws FieldException
+     */
+    public CodenvyFields resolve(ApplicationUser appUser, Issue issue) throws FieldException {
+        final String context = issue.getProjectId() + ":" + issue.getIssueTypeId();
+        final long now = System.currentTimeMillis();
+        CodenvyFields fields = fieldsByContext.get(context);
+        if (fields == null || fields.expiresAt <= now) {
+            fields = scan(appUser, issue, now + ttlMillis);
+            fieldsByContext.put(context, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * Forget the resolved fields
+     */
+    public void invalidateAll() {
+        fieldsByContext.clear();
+    }
+
+    @EventListener
+    public void onCustomFieldCreated(CustomFieldCreatedEvent event) {
+        invalidateAll();
+    }
+
+    @EventListener
+    public void onCustomFieldUpdated(CustomFieldUpdatedEvent event) {
+        invalidateAll();
+    }
+
+    @EventListener
+    public void onCustomFieldDeleted(CustomFieldDeletedEvent event) {
+        invalidateAll();
+    }
+
+    @EventListener
+    public void onClearCache(ClearCacheEvent event) {
+        invalidateAll();
+    }
+
+    private CodenvyFields scan(ApplicationUser appUser, Issue issue, long expiresAt) throws FieldException {
+        String developFieldId = null;
+        String reviewFieldId = null;
+        final Set<CustomField> customFields = fieldManager.getAvailableCustomFields(appUser, issue);
+        for (CustomField cf : customFields) {
+            String customFieldTypeKey = cf.getCustomFieldType().getKey();
+            if (CODENVY_DEVELOP_FIELD_TYPE_KEY.equals(customFieldTypeKey)) {
+                developFieldId = cf.getId();
+            }
+            if (CODENVY_REVIEW_FIELD_TYPE_KEY.equals(customFieldTypeKey)) {
+                reviewFieldId = cf.getId();
+            }
+        }
+        LOG.debug("Codenvy fields of project " + issue.getProjectId() + " and issue type " + issue.getIssueTypeId() + ": " +
+                  developFieldId + ", " + reviewFieldId + ".");
+        return new CodenvyFields(developFieldId, reviewFieldId, expiresAt);
+    }
+
+    /**
+     * Ids of the Develop and Review fields available in a project for an issue type
+     */
+    public static final class CodenvyFields {
+        private final String developFieldId;
+        private final String reviewFieldId;
+        private final long   expiresAt;
+
+        private CodenvyFields(String developFieldId, String reviewFieldId, long expiresAt) {
+            this.developFieldId = developFieldId;
+            this.reviewFieldId = reviewFieldId;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getDevelopFieldId() {
+            return developFieldId;
+        }
+
+        public String getReviewFieldId() {
+            return reviewFieldId;
+        }
+    }
+}
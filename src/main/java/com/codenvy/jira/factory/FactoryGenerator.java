@@ -0,0 +1,494 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueInputParameters;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyJson.CreatedFactory;
+import com.codenvy.jira.client.CodenvySession;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Generates the Develop and Review factories of an issue from the parent factory of its project.
+ * <p/>
+ * Both factories are created concurrently with the {@link CodenvyClient}, so each generation has its two creations in
+ * flight at the same time.
+ * <p/>
+ * The index entry of an issue is checked and claimed under the {@link ClusterCoordinator#getIssueLock cluster lock} of
+ * the issue, waiting for it up to {@code codenvy.cluster.lockTimeout} seconds (default 30): an issue generated
+ * meanwhile is skipped, one claimed by a generation in progress is retried later. Codenvy is called once the lock is
+ * released, so that the generations of unrelated issues sharing a lock don't wait for each other.
+ * <p/>
+ * Created factories are recorded in the {@link IssueFactoryIndex} before the issue is updated. A generation of an
+ * indexed issue doesn't call Codenvy: it is skipped, or only updates the issue if the previous update didn't happen.
+ * The factories of an issue whose entry is stale, the issue having moved to another project, are generated again.
+ */
+public class FactoryGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryGenerator.class);
+
+    private final IssueService                           issueService;
+    private final CustomFieldManager                     customFieldManager;
+    private final ParentFactoryCache                     parentFactoryCache;
+    private final CodenvyClient                          client;
+    private final ClusterCoordinator                     clusterCoordinator;
+    private final IssueFactoryIndex                      index;
+    private final CodenvyMetrics                         metrics;
+    private final long                                   lockTimeoutMillis;
+    private final ConcurrentMap<String, FactoryTemplate> templates;
+
+    /**
+     * Constructor.
+     *
+     * @param issueService
+     *         service to work with JIRA issues.
+     * @param customFieldManager
+     *         service to get JIRA custom fields.
+     * @param parentFactoryCache
+     *         cache of the parent factory of each project.
+     * @param client
+     *         client of the Codenvy API.
+     * @param clusterCoordinator
+     *         provides the cluster lock of each issue.
+     * @param index
+     *         index of the factories generated for each issue.
+     * @param metrics
+     *         registry the stage latencies and generation outcomes are recorded in.
+     */
+    public FactoryGenerator(IssueService issueService, CustomFieldManager customFieldManager,
+                            ParentFactoryCache parentFactoryCache, CodenvyClient client,
+                            ClusterCoordinator clusterCoordinator, IssueFactoryIndex index, CodenvyMetrics metrics) {
+        this.issueService = issueService;
+        this.customFieldManager = customFieldManager;
+        this.parentFactoryCache = parentFactoryCache;
+        this.client = client;
+        this.clusterCoordinator = clusterCoordinator;
+        this.index = index;
+        this.metrics = metrics;
+        this.lockTimeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("codenvy.cluster.lockTimeout", 30));
+        this.templates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Generate the Develop and Review factories of an issue and store their URLs in the issue
+     *
+     * @param request
+     *         the issue to generate factories for
+     * @throws IOException
+     *         if Codenvy could not be reached or rejected a call, or if another node is still generating the issue
+     * @throws JSONException
+     */
+    public void generate(FactoryRequest request) throws IOException, JSONException {
+        metrics.generationStarted();
+        try {
+            if (!claim(request)) {
+                return;
+            }
+            try {
+                doGenerate(request);
+            } finally {
+                // Nothing left to release once the factories are recorded
+                index.release(request.getIssueKey());
+            }
+        } catch (IOException | JSONException | RuntimeException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            metrics.generationEnded();
+        }
+    }
+
+    /**
+     * Check the index entry of an issue under its cluster lock and claim it if its factories have to be created
+     *
+     * @param request
+     *         the issue to generate factories for
+     * @return {@code true} if the issue has been claimed, {@code false} if it has been handled without calling Codenvy
+     * @throws IOException
+     *         if another generation of the issue is in progress
+     */
+    private boolean claim(FactoryRequest request) throws IOException {
+        final String issueKey = request.getIssueKey();
+        final Lock lock = lock(issueKey);
+        try {
+            final long stageStart = System.nanoTime();
+            final IssueFactories indexed = index.get(issueKey);
+            metrics.recordStage("index", stageStart);
+            if (indexed != null && indexed.isClaimed()) {
+                throw new IOException("Factories of issue " + issueKey + " already being generated.");
+            }
+            if (indexed != null && indexed.hasFactories()) {
+                completeIndexed(request, indexed);
+                return false;
+            }
+            // Issues generated before the index existed, the fields of a moved issue link to its former project
+            if ((indexed == null || !indexed.isStale()) && isGenerated(request)) {
+                LOG.debug("Factories of issue " + issueKey + " already generated.");
+                metrics.recordSkipped(CodenvyMetrics.SKIPPED_ALREADY_GENERATED);
+                return false;
+            }
+            if (!index.claim(issueKey)) {
+                throw new IOException("Factories of issue " + issueKey + " already being generated.");
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handle an issue whose factories have already been created, without calling Codenvy
+     *
+     * @param request
+     *         the issue to generate factories for
+     * @param indexed
+     *         the factories recorded for the issue
+     */
+    private void completeIndexed(FactoryRequest request, IssueFactories indexed) {
+        if (indexed.isIssueUpdated()) {
+            LOG.debug("Factories of issue " + request.getIssueKey() + " already generated.");
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_ALREADY_GENERATED);
+            return;
+        }
+        // The factories were created but the issue update failed or was interrupted
+        LOG.debug("Factories of issue " + request.getIssueKey() + " already created, updating the issue.");
+        if (updateIssue(request, indexed.getDevelopUrl(), indexed.getReviewUrl())) {
+            metrics.recordSuccess();
+        }
+    }
+
+    /**
+     * Check if the Develop and Review fields of an issue are both set
+     *
+     * @param request
+     *         the issue to check
+     * @return {@code true} if the factories of the issue have already been generated
+     */
+    protected boolean isGenerated(FactoryRequest request) {
+        // Read the issue again, another node may have updated it since the request was made
+        final MutableIssue issue = issueService.getIssue(request.getUser(), request.getIssueKey()).getIssue();
+        return issue != null && hasValue(issue, request.getDevelopFieldId()) && hasValue(issue, request.getReviewFieldId());
+    }
+
+    private boolean hasValue(Issue issue, String fieldId) {
+        final CustomField field = customFieldManager.getCustomFieldObject(fieldId);
+        final Object value = field == null ? null : issue.getCustomFieldValue(field);
+        return value != null && !value.toString().isEmpty();
+    }
+
+    private Lock lock(String issueKey) throws IOException {
+        final Lock lock = clusterCoordinator.getIssueLock(issueKey);
+        try {
+            if (!lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Factories of issue " + issueKey + " still being generated by another node after " +
+                                      lockTimeoutMillis + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the lock of issue " + issueKey + ".");
+        }
+        return lock;
+    }
+
+    private void doGenerate(FactoryRequest request) throws IOException, JSONException {
+        if (reuseSharedFactories(request)) {
+            return;
+        }
+        final String codenvyUrl = request.getCodenvyUrl();
+        final String codenvyUsername = request.getCodenvyUsername();
+        final String codenvyPassword = request.getCodenvyPassword();
+        final String issueKey = request.getIssueKey();
+        final String projectName = request.getProjectName();
+
+        // Authenticate on Codenvy as JIRA admin, the session is shared by all issue events
+        long stageStart = System.nanoTime();
+        final CodenvySession session = CodenvyClient.await(client.login(codenvyUrl, codenvyUsername, codenvyPassword));
+        metrics.recordStage("session", stageStart);
+
+        // Get parent factory for project, Codenvy is only asked on a cache miss
+        stageStart = System.nanoTime();
+        final String parentFactoryJson = getParentFactory(request);
+        metrics.recordStage("find", stageStart);
+
+        if (parentFactoryJson == null) {
+            LOG.warn("No factory found with name: " + request.getProjectKey().toLowerCase(Locale.getDefault()) +
+                     " and userId (owner): " + session.getUserId());
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_PARENT_FACTORY);
+            return;
+        }
+
+        LOG.debug("Parent factory for project " + projectName + ": " + parentFactoryJson);
+
+        // Develop factory: perUser policy, Review factory: perClick policy, both only depend on the parent factory
+        final FactoryTemplate template = getTemplate(request.getProjectKey(), parentFactoryJson);
+        final String developFactory = template.render(issueKey + "-develop-factory", issueKey, "origin/master", "perUser");
+        final String reviewFactory = template.render(issueKey + "-review-factory", issueKey, "origin/master", "perClick");
+
+        // Generate Develop and Review factories concurrently
+        final CompletableFuture<CreatedFactory> develop = createFactoryAsync(request, developFactory, "develop");
+        final CompletableFuture<CreatedFactory> review = createFactoryAsync(request, reviewFactory, "review");
+        final CreatedFactory generatedDevelopFactory;
+        final CreatedFactory generatedReviewFactory;
+        try {
+            // Completes once both creations are done, whatever their outcome
+            CompletableFuture.allOf(develop, review).join();
+            generatedDevelopFactory = develop.join();
+            generatedReviewFactory = review.join();
+        } catch (CompletionException e) {
+            // Don't leave a half generated pair on Codenvy, the issue will be generated again
+            deleteCreatedFactory(request, develop);
+            deleteCreatedFactory(request, review);
+            final Throwable cause = CodenvyClient.unwrap(e);
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            }
+            if (cause instanceof JSONException) {
+                throw (JSONException)cause;
+            }
+            throw e;
+        }
+        LOG.debug("Generated DEVELOP factory for issue " + issueKey + ": " + generatedDevelopFactory);
+        LOG.debug("Generated REVIEW factory for issue " + issueKey + ": " + generatedReviewFactory);
+
+        // Set factory URLs in Develop & Review fields
+        String developFactoryUrl = generatedDevelopFactory.getUrl();
+        String reviewFactoryUrl = generatedReviewFactory.getUrl();
+
+        if (developFactoryUrl == null || reviewFactoryUrl == null) {
+            LOG.warn("URL of factory Develop (" + developFactoryUrl + ") and/or Review (" + reviewFactoryUrl + ") is null.");
+            // Unusable and not indexed, a redelivery would otherwise leave another pair on Codenvy
+            deleteCreatedFactory(request, develop);
+            deleteCreatedFactory(request, review);
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_FACTORY_URL);
+            return;
+        }
+
+        // Recorded first so that a retry doesn't create them again if the update fails
+        index.put(new IssueFactories(issueKey, generatedDevelopFactory.getId(), developFactoryUrl,
+                                     generatedReviewFactory.getId(), reviewFactoryUrl, false));
+        if (updateIssue(request, developFactoryUrl, reviewFactoryUrl)) {
+            metrics.recordSuccess();
+        }
+    }
+
+    /**
+     * Record the factories of the issue an issue shares its factories with as its own, without calling Codenvy
+     *
+     * @param request
+     *         the issue to generate
+     * @return {@code true} if the issue now uses the factories of the shared issue, {@code false} if it has no shared
+     * issue or if the factories of the shared issue aren't generated yet
+     */
+    private boolean reuseSharedFactories(FactoryRequest request) {
+        final String sharedIssueKey = request.getSharedIssueKey();
+        if (sharedIssueKey == null) {
+            return false;
+        }
+        final long stageStart = System.nanoTime();
+        final IssueFactories shared = index.get(sharedIssueKey);
+        metrics.recordStage("shared", stageStart);
+        if (shared == null || shared.isStale() || shared.getDevelopUrl() == null || shared.getReviewUrl() == null) {
+            LOG.debug("Factories of issue " + sharedIssueKey + " not generated yet, issue " + request.getIssueKey() +
+                      " gets its own factories.");
+            return false;
+        }
+        LOG.debug("Issue " + request.getIssueKey() + " shares the factories of issue " + sharedIssueKey + ".");
+        index.put(new IssueFactories(request.getIssueKey(), shared.getDevelopFactoryId(), shared.getDevelopUrl(),
+                                     shared.getReviewFactoryId(), shared.getReviewUrl(), false));
+        // Counted as shared rather than generated, a failed update is counted as invalid and completed by a retry
+        if (updateIssue(request, shared.getDevelopUrl(), shared.getReviewUrl())) {
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_SHARED);
+        }
+        return true;
+    }
+
+    /**
+     * Store the factory URLs in the Develop and Review fields of an issue, the fields render them as links
+     *
+     * @param request
+     *         the issue to update
+     * @param developFactoryUrl
+     *         the URL of the Develop factory
+     * @param reviewFactoryUrl
+     *         the URL of the Review factory
+     * @return {@code true} if the issue has been updated
+     */
+    private boolean updateIssue(FactoryRequest request, String developFactoryUrl, String reviewFactoryUrl) {
+        if (updateIssue(request.getUser(), request.getIssueKey(), request.getDevelopFieldId(), developFactoryUrl,
+                        request.getReviewFieldId(), reviewFactoryUrl)) {
+            index.markIssueUpdated(request.getIssueKey());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Clear the Develop and Review fields of an issue, e.g. when they link to factories that are being deleted
+     *
+     * @param request
+     *         the issue to update
+     * @return {@code true} if the issue has been updated
+     */
+    public boolean clearIssue(FactoryRequest request) {
+        return updateIssue(request.getUser(), request.getIssueKey(), request.getDevelopFieldId(), null,
+                           request.getReviewFieldId(), null);
+    }
+
+    /**
+     * Get the parent factory of the project of an issue, Codenvy is only asked if it isn't cached
+     *
+     * @param request
+     *         the issue whose project parent factory is searched
+     * @return the JSON of the parent factory or {@code null} if the project has none
+     * @throws IOException
+     * @throws JSONException
+     */
+    public String getParentFactory(final FactoryRequest request) throws IOException, JSONException {
+        final String codenvyUrl = request.getCodenvyUrl();
+        final String projectKeyLower = request.getProjectKey().toLowerCase(Locale.getDefault());
+        return parentFactoryCache.get(request.getProjectKey(), new ParentFactoryCache.Loader() {
+            @Override
+            public String load(String projectKey) throws IOException, JSONException {
+                return CodenvyClient.await(client.execute(codenvyUrl, request.getCodenvyUsername(),
+                                                          request.getCodenvyPassword(),
+                                                          session -> client.findFactory(session, projectKeyLower)));
+            }
+        });
+    }
+
+    /**
+     * Get the compiled template of the factories of a project, it is compiled again when the parent factory changes
+     *
+     * @param projectKey
+     *         the key of the project
+     * @param parentFactoryJson
+     *         the JSON of the parent factory of the project
+     * @return the template
+     * @throws JSONException
+     */
+    private FactoryTemplate getTemplate(String projectKey, String parentFactoryJson) throws JSONException {
+        FactoryTemplate template = templates.get(projectKey);
+        if (template == null || !template.isCompiledFrom(parentFactoryJson)) {
+            template = FactoryTemplate.compile(parentFactoryJson);
+            templates.put(projectKey, template);
+        }
+        return template;
+    }
+
+    /**
+     * Create a factory on Codenvy in the background
+     *
+     * @param request
+     *         the issue the factory is created for
+     * @param factory
+     *         the JSON of the factory to create
+     * @param stage
+     *         the name of the stage the creation latency is recorded in
+     * @return the future id and 'accept-named' URL of the created factory
+     */
+    private CompletableFuture<CreatedFactory> createFactoryAsync(FactoryRequest request, final String factory,
+                                                             final String stage) {
+        final long stageStart = System.nanoTime();
+        return client.execute(request.getCodenvyUrl(), request.getCodenvyUsername(), request.getCodenvyPassword(),
+                              session -> client.createFactory(session, factory))
+                     .whenComplete((created, error) -> metrics.recordStage(stage, stageStart))
+                     .toCompletableFuture();
+    }
+
+    /**
+     * Delete a factory whose creation succeeded while the creation of its sibling failed
+     *
+     * @param request
+     *         the issue the factory was created for
+     * @param creation
+     *         the completed creation of the factory
+     */
+    private void deleteCreatedFactory(final FactoryRequest request, final CompletableFuture<CreatedFactory> creation) {
+        if (creation.isCompletedExceptionally()) {
+            return;
+        }
+        final String factoryId = creation.join().getId();
+        // Nothing waits for the deletion, a failure is only logged
+        client.execute(request.getCodenvyUrl(), request.getCodenvyUsername(), request.getCodenvyPassword(),
+                       session -> client.deleteFactory(session, factoryId))
+              .whenComplete((result, error) -> {
+                  if (error != null) {
+                      LOG.warn("Factory " + creation.join() + " of issue " + request.getIssueKey() +
+                               " could not be deleted: " + CodenvyClient.unwrap(error).getMessage());
+                  }
+              });
+    }
+
+    /**
+     * Update a JIRA issue with given value in fields Develop and Review
+     *
+     * @param appUser
+     *         the user from current session
+     * @param issueKey
+     *         the key of the issue to update
+     * @param developFieldId
+     *         the id of custom field Develop
+     * @param developValue
+     *         the value to put in custom field Develop
+     * @param reviewFieldId
+     *         the id of custom field Review
+     * @param reviewValue
+     *         the value to put in custom field Review
+     * @return {@code true} if the issue has been updated
+     */
+    private boolean updateIssue(ApplicationUser appUser, String issueKey, String developFieldId, String developValue,
+                             String reviewFieldId, String reviewValue) {
+        // Get the issue from the key that's passed in
+        IssueService.IssueResult issueResult = issueService.getIssue(appUser, issueKey);
+        MutableIssue issue = issueResult.getIssue();
+        // Next we need to validate the updated issue
+        IssueInputParameters issueInputParameters = issueService.newIssueInputParameters();
+        issueInputParameters.addCustomFieldValue(developFieldId, developValue);
+        issueInputParameters.addCustomFieldValue(reviewFieldId, reviewValue);
+        long stageStart = System.nanoTime();
+        IssueService.UpdateValidationResult result = issueService.validateUpdate(appUser, issue.getId(),
+                                                                                 issueInputParameters);
+        metrics.recordStage("validateUpdate", stageStart);
+        if (result.getErrorCollection().hasAnyErrors()) {
+            LOG.warn("Issue " + issueKey + " not updated due to error(s): " + result.getErrorCollection().getErrorMessages() + ".");
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_INVALID_UPDATE);
+            return false;
+        }
+        // Validation passes
+        stageStart = System.nanoTime();
+        issueService.update(appUser, result);
+        metrics.recordStage("update", stageStart);
+        LOG.debug("Codenvy fields successfully updated on issue " + issueKey + ".");
+        return true;
+    }
+}
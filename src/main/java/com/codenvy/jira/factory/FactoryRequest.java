@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import com.atlassian.jira.user.ApplicationUser;
+
+/**
+ * Everything needed to generate the Develop and Review factories of an issue
+ */
+public final class FactoryRequest {
+    private final String          codenvyUrl;
+    private final String          codenvyUsername;
+    private final String          codenvyPassword;
+    private final String          issueKey;
+    private final String          projectKey;
+    private final String          projectName;
+    private final ApplicationUser user;
+    private final String          developFieldId;
+    private final String          reviewFieldId;
+    private final String          sharedIssueKey;
+
+    /**
+     * Constructor.
+     *
+     * @param codenvyUrl
+     *         the URL of the Codenvy instance
+     * @param codenvyUsername
+     *         the Codenvy user the factories are created with
+     * @param codenvyPassword
+     *         the password of the Codenvy user
+     * @param issueKey
+     *         the key of the issue
+     * @param projectKey
+     *         the key of the project of the issue
+     * @param projectName
+     *         the name of the project of the issue
+     * @param user
+     *         the JIRA user the issue is updated with
+     * @param developFieldId
+     *         the id of custom field Develop
+     * @param reviewFieldId
+     *         the id of custom field Review
+     */
+    public FactoryRequest(String codenvyUrl, String codenvyUsername, String codenvyPassword, String issueKey, String projectKey,
+                          String projectName, ApplicationUser user, String developFieldId, String reviewFieldId) {
+        this(codenvyUrl, codenvyUsername, codenvyPassword, issueKey, projectKey, projectName, user, developFieldId,
+             reviewFieldId, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param codenvyUrl
+     *         the URL of the Codenvy instance
+     * @param codenvyUsername
+     *         the Codenvy user the factories are created with
+     * @param codenvyPassword
+     *         the password of the Codenvy user
+     * @param issueKey
+     *         the key of the issue
+     * @param projectKey
+     *         the key of the project of the issue
+     * @param projectName
+     *         the name of the project of the issue
+     * @param user
+     *         the JIRA user the issue is updated with
+     * @param developFieldId
+     *         the id of custom field Develop
+     * @param reviewFieldId
+     *         the id of custom field Review
+     * @param sharedIssueKey
+     *         the key of the issue whose factories the issue uses, {@code null} if it has its own
+     */
+    public FactoryRequest(String codenvyUrl, String codenvyUsername, String codenvyPassword, String issueKey, String projectKey,
+                          String projectName, ApplicationUser user, String developFieldId, String reviewFieldId,
+                          String sharedIssueKey) {
+        this.codenvyUrl = codenvyUrl;
+        this.codenvyUsername = codenvyUsername;
+        this.codenvyPassword = codenvyPassword;
+        this.issueKey = issueKey;
+        this.projectKey = projectKey;
+        this.projectName = projectName;
+        this.user = user;
+        this.developFieldId = developFieldId;
+        this.reviewFieldId = reviewFieldId;
+        this.sharedIssueKey = sharedIssueKey;
+    }
+
+    public String getCodenvyUrl() {
+        return codenvyUrl;
+    }
+
+    public String getCodenvyUsername() {
+        return codenvyUsername;
+    }
+
+    public String getCodenvyPassword() {
+        return codenvyPassword;
+    }
+
+    public String getIssueKey() {
+        return issueKey;
+    }
+
+    public String getProjectKey() {
+        return projectKey;
+    }
+
+    public String getProjectName() {
+        return projectName;
+    }
+
+    public ApplicationUser getUser() {
+        return user;
+    }
+
+    public String getDevelopFieldId() {
+        return developFieldId;
+    }
+
+    public String getReviewFieldId() {
+        return reviewFieldId;
+    }
+
+    /**
+     * Get the issue whose factories the issue uses, its parent or the issue it is linked to
+     *
+     * @return the key of the issue or {@code null} if the issue has its own factories
+     */
+    public String getSharedIssueKey() {
+        return sharedIssueKey;
+    }
+}
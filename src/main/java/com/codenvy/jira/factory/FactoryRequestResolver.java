@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.issue.link.IssueLink;
+import com.atlassian.jira.issue.link.IssueLinkManager;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that the factories of an issue can be generated and gathers what is needed to do it
+ * <p/>
+ * Depending on the settings, a sub-task shares the factories of its parent issue and an issue linked with the chosen
+ * link type shares the factories of the issue it is linked to, if that issue is in the same project: both work on the
+ * same branch, so creating their own factories would only duplicate the ones of the shared issue.
+ */
+public class FactoryRequestResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryRequestResolver.class);
+
+    private final CodenvySettingsService settingsService;
+    private final CodenvyFieldResolver   fieldResolver;
+    private final IssueLinkManager       issueLinkManager;
+    private final CodenvyMetrics         metrics;
+
+    /**
+     * Constructor.
+     *
+     * @param settingsService
+     *         holder of the Codenvy settings.
+     * @param fieldResolver
+     *         finds the Develop and Review fields of an issue.
+     * @param issueLinkManager
+     *         service to get the links of JIRA issues.
+     * @param metrics
+     *         registry the skipped issues are counted in.
+     */
+    public FactoryRequestResolver(CodenvySettingsService settingsService, CodenvyFieldResolver fieldResolver,
+                                  IssueLinkManager issueLinkManager, CodenvyMetrics metrics) {
+        this.settingsService = settingsService;
+        this.fieldResolver = fieldResolver;
+        this.issueLinkManager = issueLinkManager;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Tell if factories are generated the first time they are opened rather than when issues are created
+     *
+     * @return {@code true} if the lazy generation mode is enabled
+     */
+    public boolean isLazy() {
+        return settingsService.get().isLazy();
+    }
+
+    /**
+     * Build the factory request of an issue
+     *
+     * @param issue
+     *         the issue to generate factories for
+     * @param appUser
+     *         the JIRA user the issue is updated with
+     * @return the request or {@code null} if the plugin isn't configured or the issue has no Develop and Review fields
+     */
+    public FactoryRequest resolve(Issue issue, ApplicationUser appUser) {
+        // Get plugin settings
+        final CodenvySettings settings = settingsService.get();
+        final String codenvyUrl = settings.getInstanceUrl();
+        final String codenvyUsername = settings.getUsername();
+        final String codenvyPassword = settings.getPassword();
+
+        if (!settings.isComplete()) {
+            LOG.warn("At least one of codenvy URL (\'" + codenvyUrl + "\'), username (\'" + codenvyUsername + "\') " +
+                     "or password (\'" + codenvyPassword + "\') is not set or empty.");
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_CONFIG);
+            return null;
+        }
+
+        final String issueKey = issue.getKey();
+        final String projectKey = issue.getProjectObject().getKey();
+        final String projectName = issue.getProjectObject().getName();
+
+        // Get current JIRA user
+        if (appUser == null) {
+            LOG.warn("No user given in issue event.");
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_USER);
+            return null;
+        }
+
+        // Get id of custom fields Develop & Review
+        final String developFieldId;
+        final String reviewFieldId;
+        try {
+            final CodenvyFieldResolver.CodenvyFields fields = fieldResolver.resolve(appUser, issue);
+            developFieldId = fields.getDevelopFieldId();
+            reviewFieldId = fields.getReviewFieldId();
+        } catch (FieldException e) {
+            LOG.error(e.getMessage());
+            metrics.recordError(e);
+            return null;
+        }
+
+        // Continue only if Develop and Review fields are available on the issue
+        if (developFieldId == null || reviewFieldId == null) {
+            LOG.warn("Field Develop (" + developFieldId + ") and/or Review (" + reviewFieldId + ") are not available for issue " +
+                     issueKey + ".");
+            metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_FIELDS);
+            return null;
+        }
+
+        return new FactoryRequest(codenvyUrl, codenvyUsername, codenvyPassword, issueKey, projectKey, projectName, appUser,
+                                  developFieldId, reviewFieldId, getSharedIssueKey(settings, issue));
+    }
+
+    /**
+     * Find the issue whose factories an issue uses
+     *
+     * @param settings
+     *         the Codenvy settings
+     * @param issue
+     *         the issue to generate factories for
+     * @return the key of the parent issue or of the linked issue, {@code null} if the issue has its own factories
+     */
+    private String getSharedIssueKey(CodenvySettings settings, Issue issue) {
+        if (settings.isShareParent() && issue.isSubTask() && issue.getParentObject() != null) {
+            return issue.getParentObject().getKey();
+        }
+        final String linkType = settings.getShareLinkType();
+        if (linkType == null || issue.getId() == null) {
+            return null;
+        }
+        for (IssueLink link : issueLinkManager.getOutwardLinks(issue.getId())) {
+            if (isSharingLink(link, linkType, link.getDestinationObject(), issue)) {
+                return link.getDestinationObject().getKey();
+            }
+        }
+        for (IssueLink link : issueLinkManager.getInwardLinks(issue.getId())) {
+            if (isSharingLink(link, linkType, link.getSourceObject(), issue)) {
+                return link.getSourceObject().getKey();
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSharingLink(IssueLink link, String linkType, Issue linked, Issue issue) {
+        // The factories of another project are made from another parent factory
+        return linked != null && link.getIssueLinkType() != null &&
+               linkType.equalsIgnoreCase(link.getIssueLinkType().getName()) &&
+               issue.getProjectObject().getKey().equals(linked.getProjectObject().getKey());
+    }
+}
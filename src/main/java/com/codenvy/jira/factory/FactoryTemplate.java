@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import us.monoid.json.JSONException;
+import us.monoid.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable factory request body compiled once from the parent factory of a project.
+ * <p/>
+ * The parent factory is parsed a single time and serialized with placeholders in place of the values that differ
+ * between issues. Rendering the factory of an issue only concatenates the serialized fragments with the quoted values,
+ * so concurrent generations share the template without copying or mutating any JSON tree.
+ */
+public final class FactoryTemplate {
+
+    private static final String[] PLACEHOLDERS = {"${codenvy.factory.name}",
+                                                  "${codenvy.factory.branch}",
+                                                  "${codenvy.factory.startPoint}",
+                                                  "${codenvy.factory.createPolicy}"};
+
+    private static final int NAME          = 0;
+    private static final int BRANCH        = 1;
+    private static final int START_POINT   = 2;
+    private static final int CREATE_POLICY = 3;
+
+    private final String   parentFactoryJson;
+    private final String[] fragments;
+    private final int[]    slots;
+    private final int      fragmentsLength;
+
+    /**
+     * Compile the template of the factories of a project
+     *
+     * @param parentFactoryJson
+     *         the JSON of the parent factory of the project
+     * @return the template
+     * @throws JSONException
+     *         if the parent factory is not valid JSON or has no project source parameters
+     */
+    public static FactoryTemplate compile(String parentFactoryJson) throws JSONException {
+        final JSONObject factory = new JSONObject(parentFactoryJson);
+        factory.remove("id");
+        factory.remove("creator");
+        factory.put("name", PLACEHOLDERS[NAME]);
+
+        final JSONObject policies = factory.optJSONObject("policies");
+        if (policies == null) {
+            factory.put("policies", new JSONObject().put("create", PLACEHOLDERS[CREATE_POLICY]));
+        } else {
+            policies.put("create", PLACEHOLDERS[CREATE_POLICY]);
+        }
+
+        final JSONObject project = factory.getJSONObject("workspace").getJSONArray("projects").getJSONObject(0);
+        final JSONObject parameters = project.getJSONObject("source").getJSONObject("parameters");
+        parameters.put("branch", PLACEHOLDERS[BRANCH]);
+        parameters.put("startPoint", PLACEHOLDERS[START_POINT]);
+
+        return new FactoryTemplate(parentFactoryJson, factory.toString());
+    }
+
+    private FactoryTemplate(String parentFactoryJson, String body) {
+        final List<String> fragmentList = new ArrayList<>();
+        final List<Integer> slotList = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            // Find the next quoted placeholder
+            int slot = -1;
+            int at = -1;
+            for (int i = 0; i < PLACEHOLDERS.length; i++) {
+                final int index = body.indexOf('"' + PLACEHOLDERS[i] + '"', from);
+                if (index >= 0 && (at < 0 || index < at)) {
+                    at = index;
+                    slot = i;
+                }
+            }
+            if (slot < 0) {
+                break;
+            }
+            fragmentList.add(body.substring(from, at));
+            slotList.add(slot);
+            from = at + PLACEHOLDERS[slot].length() + 2;
+        }
+        fragmentList.add(body.substring(from));
+
+        this.parentFactoryJson = parentFactoryJson;
+        this.fragments = fragmentList.toArray(new String[fragmentList.size()]);
+        this.slots = new int[slotList.size()];
+        int length = 0;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = slotList.get(i);
+        }
+        for (String fragment : fragments) {
+            length += fragment.length();
+        }
+        this.fragmentsLength = length;
+    }
+
+    /**
+     * Tell if the template has been compiled from a parent factory
+     *
+     * @param json
+     *         the JSON of a parent factory
+     * @return {@code true} if the template is up to date with the parent factory
+     */
+    public boolean isCompiledFrom(String json) {
+        return parentFactoryJson == json || parentFactoryJson.equals(json);
+    }
+
+    /**
+     * Render the request body of the factory of an issue
+     *
+     * @param name
+     *         the name of the factory
+     * @param branch
+     *         the branch the workspace works on
+     * @param startPoint
+     *         the branch is created from this start point if it doesn't exist
+     * @param createPolicy
+     *         the create policy of the factory, {@code perUser} or {@code perClick}
+     * @return the JSON of the factory
+     */
+    public String render(String name, String branch, String startPoint, String createPolicy) {
+        final String[] values = {JSONObject.quote(name), JSONObject.quote(branch), JSONObject.quote(startPoint),
+                                 JSONObject.quote(createPolicy)};
+        int length = fragmentsLength;
+        for (int slot : slots) {
+            length += values[slot].length();
+        }
+        final StringBuilder body = new StringBuilder(length);
+        for (int i = 0; i < slots.length; i++) {
+            body.append(fragments[i]).append(values[slots[i]]);
+        }
+        return body.append(fragments[slots.length]).toString();
+    }
+}
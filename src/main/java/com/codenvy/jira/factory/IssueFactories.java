@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+/**
+ * Develop and Review factories generated for an issue, as recorded in the {@link IssueFactoryIndex}
+ */
+public final class IssueFactories {
+    private final String  issueKey;
+    private final String  developFactoryId;
+    private final String  developUrl;
+    private final String  reviewFactoryId;
+    private final String  reviewUrl;
+    private final boolean issueUpdated;
+    private final boolean stale;
+    private final boolean claimed;
+
+    public IssueFactories(String issueKey, String developFactoryId, String developUrl, String reviewFactoryId,
+                          String reviewUrl, boolean issueUpdated) {
+        this(issueKey, developFactoryId, developUrl, reviewFactoryId, reviewUrl, issueUpdated, false);
+    }
+
+    public IssueFactories(String issueKey, String developFactoryId, String developUrl, String reviewFactoryId,
+                          String reviewUrl, boolean issueUpdated, boolean stale) {
+        this(issueKey, developFactoryId, developUrl, reviewFactoryId, reviewUrl, issueUpdated, stale, false);
+    }
+
+    public IssueFactories(String issueKey, String developFactoryId, String developUrl, String reviewFactoryId,
+                          String reviewUrl, boolean issueUpdated, boolean stale, boolean claimed) {
+        this.issueKey = issueKey;
+        this.developFactoryId = developFactoryId;
+        this.developUrl = developUrl;
+        this.reviewFactoryId = reviewFactoryId;
+        this.reviewUrl = reviewUrl;
+        this.issueUpdated = issueUpdated;
+        this.stale = stale;
+        this.claimed = claimed;
+    }
+
+    public String getIssueKey() {
+        return issueKey;
+    }
+
+    public String getDevelopFactoryId() {
+        return developFactoryId;
+    }
+
+    public String getDevelopUrl() {
+        return developUrl;
+    }
+
+    public String getReviewFactoryId() {
+        return reviewFactoryId;
+    }
+
+    public String getReviewUrl() {
+        return reviewUrl;
+    }
+
+    /**
+     * Tell if the factory URLs have been stored in the Develop and Review fields of the issue
+     *
+     * @return {@code false} if the factories were created but the issue could not be updated
+     */
+    public boolean isIssueUpdated() {
+        return issueUpdated;
+    }
+
+    /**
+     * Tell if the factories have to be generated again because the issue moved to another project
+     *
+     * @return {@code true} if the recorded factories, if any, no longer apply to the issue
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Tell if a generation in progress claimed the issue, its factories being created on Codenvy
+     *
+     * @return {@code true} if the factories of the issue are being generated
+     */
+    public boolean isClaimed() {
+        return claimed;
+    }
+
+    /**
+     * Tell if the entry records the factories the issue has to use
+     *
+     * @return {@code false} if the entry is stale or only records a generation in progress or interrupted
+     */
+    public boolean hasFactories() {
+        return !stale && developUrl != null && reviewUrl != null;
+    }
+
+    /**
+     * Get the URL of one of the factories
+     *
+     * @param kind
+     *         the factory
+     * @return the URL of the factory
+     */
+    public String getUrl(OnDemandFactoryGenerator.Kind kind) {
+        return kind == OnDemandFactoryGenerator.Kind.DEVELOP ? developUrl : reviewUrl;
+    }
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Default;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.NotNull;
+import net.java.ao.schema.StringLength;
+import net.java.ao.schema.Table;
+
+/**
+ * Factories generated on Codenvy for an issue
+ */
+@Table("ISSUE_FACTORY")
+public interface IssueFactoryEntry extends Entity {
+
+    @NotNull
+    @Indexed
+    String getIssueKey();
+
+    void setIssueKey(String issueKey);
+
+    @Indexed
+    String getDevelopFactoryId();
+
+    void setDevelopFactoryId(String developFactoryId);
+
+    @StringLength(StringLength.MAX_LENGTH)
+    String getDevelopUrl();
+
+    void setDevelopUrl(String developUrl);
+
+    @Indexed
+    String getReviewFactoryId();
+
+    void setReviewFactoryId(String reviewFactoryId);
+
+    @StringLength(StringLength.MAX_LENGTH)
+    String getReviewUrl();
+
+    void setReviewUrl(String reviewUrl);
+
+    /**
+     * Tell if the factory URLs have been stored in the issue
+     *
+     * @return {@code false} if the issue update failed or didn't happen yet
+     */
+    boolean isIssueUpdated();
+
+    void setIssueUpdated(boolean issueUpdated);
+
+    /**
+     * Tell if the factories have to be generated again, the issue having been moved to another project
+     *
+     * @return {@code true} if the factories of the issue are outdated
+     */
+    @NotNull
+    @Default("false")
+    boolean isStale();
+
+    void setStale(boolean stale);
+
+    /**
+     * Get when a generation claimed the issue, its factories being created on Codenvy
+     *
+     * @return epoch milliseconds of the claim or {@code null} if no generation is in progress
+     */
+    Long getClaimedAt();
+
+    void setClaimedAt(Long claimedAt);
+
+    /**
+     * Get when the factories were generated
+     *
+     * @return epoch milliseconds of the generation
+     */
+    long getGeneratedAt();
+
+    void setGeneratedAt(long generatedAt);
+}
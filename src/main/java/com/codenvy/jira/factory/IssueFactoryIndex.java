@@ -0,0 +1,305 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+
+import net.java.ao.DBParam;
+import net.java.ao.Query;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of the factories generated for each issue, stored in the {@code ISSUE_FACTORY} Active Objects table.
+ * <p/>
+ * The factories of an issue are recorded as soon as Codenvy created them, before the issue is updated, so that a
+ * redelivered event or a retried generation finds them with a single local lookup instead of creating them again, and
+ * so that their URLs can be served without calling Codenvy.
+ * <p/>
+ * The entry of an issue moved to another project is marked stale: its factories are generated again from the parent
+ * factory of the new project.
+ * <p/>
+ * A generation claims the entry of its issue before calling Codenvy, so that the other generations of the issue, on any
+ * node, leave it alone without waiting for it. A claim not released after {@code codenvy.index.claimTimeout} seconds
+ * (default 300), e.g. because its node stopped, is ignored.
+ * <p/>
+ * Several issues may record the same factories when they share the factories of a parent or linked issue, a factory is
+ * only unused once no entry records it anymore.
+ */
+public class IssueFactoryIndex {
+
+    private final ActiveObjects ao;
+    private final long          claimTimeoutMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param ao
+     *         the Active Objects store of the index.
+     */
+    public IssueFactoryIndex(ActiveObjects ao) {
+        this.ao = ao;
+        this.claimTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong("codenvy.index.claimTimeout", 300)));
+    }
+
+    /**
+     * Get the factories generated for an issue
+     *
+     * @param issueKey
+     *         the key of the issue
+     * @return the factories of the issue or {@code null} if none were generated
+     */
+    public IssueFactories get(String issueKey) {
+        final IssueFactoryEntry[] entries = ao.find(IssueFactoryEntry.class, Query.select().where("ISSUE_KEY = ?", issueKey));
+        return entries.length == 0 ? null : toFactories(entries[0]);
+    }
+
+    /**
+     * Get the factories generated for several issues with a single query
+     *
+     * @param issueKeys
+     *         the keys of the issues
+     * @return the factories of the indexed issues, by issue key
+     */
+    public Map<String, IssueFactories> getAll(Collection<String> issueKeys) {
+        final Map<String, IssueFactories> factories = new HashMap<>();
+        if (issueKeys.isEmpty()) {
+            return factories;
+        }
+        final StringBuilder where = new StringBuilder("ISSUE_KEY IN (");
+        for (int i = 0; i < issueKeys.size(); i++) {
+            where.append(i == 0 ? "?" : ", ?");
+        }
+        where.append(')');
+        for (IssueFactoryEntry entry : ao.find(IssueFactoryEntry.class,
+                                               Query.select().where(where.toString(), issueKeys.toArray()))) {
+            factories.put(entry.getIssueKey(), toFactories(entry));
+        }
+        return factories;
+    }
+
+    /**
+     * Find which of some factories are recorded for an issue
+     *
+     * @param factoryIds
+     *         the ids of the factories
+     * @return the ids of the factories still used by at least one issue
+     */
+    public Set<String> getReferenced(Collection<String> factoryIds) {
+        final Set<String> referenced = new HashSet<>();
+        if (factoryIds.isEmpty()) {
+            return referenced;
+        }
+        final StringBuilder in = new StringBuilder("(");
+        for (int i = 0; i < factoryIds.size(); i++) {
+            in.append(i == 0 ? "?" : ", ?");
+        }
+        in.append(')');
+        final Object[] params = new Object[factoryIds.size() * 2];
+        int i = 0;
+        for (String factoryId : factoryIds) {
+            params[i] = factoryId;
+            params[i + factoryIds.size()] = factoryId;
+            i++;
+        }
+        for (IssueFactoryEntry entry : ao.find(IssueFactoryEntry.class, Query.select().where(
+                "DEVELOP_FACTORY_ID IN " + in + " OR REVIEW_FACTORY_ID IN " + in, params))) {
+            if (factoryIds.contains(entry.getDevelopFactoryId())) {
+                referenced.add(entry.getDevelopFactoryId());
+            }
+            if (factoryIds.contains(entry.getReviewFactoryId())) {
+                referenced.add(entry.getReviewFactoryId());
+            }
+        }
+        return referenced;
+    }
+
+    /**
+     * Record the factories generated for an issue, replacing the ones recorded before
+     *
+     * @param factories
+     *         the generated factories
+     */
+    public void put(final IssueFactories factories) {
+        ao.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                final IssueFactoryEntry[] entries = ao.find(IssueFactoryEntry.class,
+                                                            Query.select().where("ISSUE_KEY = ?", factories.getIssueKey()));
+                if (entries.length == 0) {
+                    ao.create(IssueFactoryEntry.class,
+                              new DBParam("ISSUE_KEY", factories.getIssueKey()),
+                              new DBParam("DEVELOP_FACTORY_ID", factories.getDevelopFactoryId()),
+                              new DBParam("DEVELOP_URL", factories.getDevelopUrl()),
+                              new DBParam("REVIEW_FACTORY_ID", factories.getReviewFactoryId()),
+                              new DBParam("REVIEW_URL", factories.getReviewUrl()),
+                              new DBParam("ISSUE_UPDATED", factories.isIssueUpdated()),
+                              new DBParam("STALE", factories.isStale()),
+                              new DBParam("GENERATED_AT", System.currentTimeMillis()));
+                    return null;
+                }
+                final IssueFactoryEntry entry = entries[0];
+                entry.setDevelopFactoryId(factories.getDevelopFactoryId());
+                entry.setDevelopUrl(factories.getDevelopUrl());
+                entry.setReviewFactoryId(factories.getReviewFactoryId());
+                entry.setReviewUrl(factories.getReviewUrl());
+                entry.setIssueUpdated(factories.isIssueUpdated());
+                entry.setStale(factories.isStale());
+                entry.setClaimedAt(null);
+                entry.setGeneratedAt(System.currentTimeMillis());
+                entry.save();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Claim an issue for a generation, unless another generation claimed it
+     *
+     * @param issueKey
+     *         the key of the issue
+     * @return {@code false} if another generation of the issue is in progress
+     */
+    public boolean claim(final String issueKey) {
+        return ao.executeInTransaction(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction() {
+                final long now = System.currentTimeMillis();
+                final IssueFactoryEntry[] entries = ao.find(IssueFactoryEntry.class,
+                                                            Query.select().where("ISSUE_KEY = ?", issueKey));
+                if (entries.length == 0) {
+                    ao.create(IssueFactoryEntry.class,
+                              new DBParam("ISSUE_KEY", issueKey),
+                              new DBParam("ISSUE_UPDATED", false),
+                              new DBParam("STALE", false),
+                              new DBParam("CLAIMED_AT", now));
+                    return true;
+                }
+                final IssueFactoryEntry entry = entries[0];
+                if (isClaimed(entry, now)) {
+                    return false;
+                }
+                entry.setClaimedAt(now);
+                entry.save();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Release the claim of a generation, once its factories are recorded or if it failed
+     *
+     * @param issueKey
+     *         the key of the issue
+     */
+    public void release(final String issueKey) {
+        ao.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                for (IssueFactoryEntry entry : ao.find(IssueFactoryEntry.class,
+                                                       Query.select().where("ISSUE_KEY = ?", issueKey))) {
+                    if (entry.getClaimedAt() == null) {
+                        // Released when the factories were recorded
+                        continue;
+                    }
+                    if (!entry.isStale() && entry.getDevelopFactoryId() == null && entry.getReviewFactoryId() == null) {
+                        // Only created for the claim
+                        ao.delete(entry);
+                    } else {
+                        entry.setClaimedAt(null);
+                        entry.save();
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Record that the factory URLs have been stored in an issue
+     *
+     * @param issueKey
+     *         the key of the issue
+     */
+    public void markIssueUpdated(final String issueKey) {
+        ao.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                for (IssueFactoryEntry entry : ao.find(IssueFactoryEntry.class,
+                                                       Query.select().where("ISSUE_KEY = ?", issueKey))) {
+                    entry.setIssueUpdated(true);
+                    entry.save();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Record that the factories of an issue have to be generated again
+     *
+     * @param issueKey
+     *         the key of the issue
+     */
+    public void markStale(String issueKey) {
+        put(new IssueFactories(issueKey, null, null, null, null, false, true));
+    }
+
+    /**
+     * Forget the factories of an issue
+     *
+     * @param issueKey
+     *         the key of the issue
+     * @return the forgotten factories or {@code null} if none were recorded
+     */
+    public IssueFactories remove(final String issueKey) {
+        return ao.executeInTransaction(new TransactionCallback<IssueFactories>() {
+            @Override
+            public IssueFactories doInTransaction() {
+                final IssueFactoryEntry[] entries = ao.find(IssueFactoryEntry.class,
+                                                            Query.select().where("ISSUE_KEY = ?", issueKey));
+                if (entries.length == 0) {
+                    return null;
+                }
+                // Read before the delete, a deleted entity must not be used anymore
+                final IssueFactories removed = toFactories(entries[0]);
+                ao.delete(entries);
+                return removed;
+            }
+        });
+    }
+
+    /**
+     * Get the number of indexed issues
+     *
+     * @return the size of the index
+     */
+    public int getSize() {
+        return ao.count(IssueFactoryEntry.class);
+    }
+
+    private IssueFactories toFactories(IssueFactoryEntry entry) {
+        return new IssueFactories(entry.getIssueKey(), entry.getDevelopFactoryId(), entry.getDevelopUrl(),
+                                  entry.getReviewFactoryId(), entry.getReviewUrl(), entry.isIssueUpdated(), entry.isStale(),
+                                  isClaimed(entry, System.currentTimeMillis()));
+    }
+
+    private boolean isClaimed(IssueFactoryEntry entry, long now) {
+        final Long claimedAt = entry.getClaimedAt();
+        return claimedAt != null && now - claimedAt < claimTimeoutMillis;
+    }
+}
@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.customfield.FactoryLinkRenderer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Generates the factories of an issue the first time one of them is opened, when the lazy generation mode is enabled.
+ * <p/>
+ * Concurrent requests for the same issue share a single generation: the first request generates the factories on its
+ * own thread while the others wait for it, up to {@code codenvy.lazy.timeout} seconds (default 60). The URLs of
+ * factories already generated are read from the {@link IssueFactoryIndex}.
+ */
+public class OnDemandFactoryGenerator {
+
+    /**
+     * Factories generated for an issue
+     */
+    public enum Kind {
+        DEVELOP, REVIEW
+    }
+
+    private final FactoryRequestResolver                         requestResolver;
+    private final FactoryGenerator                               generator;
+    private final IssueManager                                   issueManager;
+    private final CustomFieldManager                             customFieldManager;
+    private final IssueFactoryIndex                              index;
+    private final ConcurrentMap<String, CompletableFuture<Void>> generations;
+    private final long                                           timeoutMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param requestResolver
+     *         checks that the factories of an issue can be generated.
+     * @param generator
+     *         generator of the factories of an issue.
+     * @param issueManager
+     *         service to read the factory URLs stored in an issue.
+     * @param customFieldManager
+     *         service to get JIRA custom fields.
+     * @param index
+     *         index of the factories generated for each issue.
+     */
+    public OnDemandFactoryGenerator(FactoryRequestResolver requestResolver, FactoryGenerator generator,
+                                    IssueManager issueManager, CustomFieldManager customFieldManager,
+                                    IssueFactoryIndex index) {
+        this.requestResolver = requestResolver;
+        this.generator = generator;
+        this.issueManager = issueManager;
+        this.customFieldManager = customFieldManager;
+        this.index = index;
+        this.generations = new ConcurrentHashMap<>();
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(Long.getLong("codenvy.lazy.timeout", 60));
+    }
+
+    /**
+     * Get the URL of a factory of an issue without generating the factories of the issue
+     *
+     * @param issue
+     *         the issue
+     * @param user
+     *         the user who opens the factory
+     * @param kind
+     *         the factory to open
+     * @return the URL of the factory or {@code null} if the factories of the issue haven't been generated
+     */
+    public String findFactoryUrl(Issue issue, ApplicationUser user, Kind kind) {
+        final IssueFactories indexed = index.get(issue.getKey());
+        if (indexed != null && indexed.hasFactories()) {
+            return indexed.getUrl(kind);
+        }
+        final FactoryRequest request = requestResolver.resolve(issue, user);
+        if (request == null) {
+            return null;
+        }
+        final String fieldId = kind == Kind.DEVELOP ? request.getDevelopFieldId() : request.getReviewFieldId();
+        return getCurrentUrl(request.getIssueKey(), fieldId, kind);
+    }
+
+    /**
+     * Get the URL of a factory of an issue, generating the factories of the issue if they don't exist yet
+     *
+     * @param issue
+     *         the issue
+     * @param user
+     *         the user who opens the factory, the issue is updated with
+     * @param kind
+     *         the factory to open
+     * @return the URL of the factory or {@code null} if the factories of the issue can't be generated
+     * @throws IOException
+     *         if Codenvy could not be reached or rejected a call
+     * @throws JSONException
+     */
+    public String getFactoryUrl(Issue issue, ApplicationUser user, Kind kind) throws IOException, JSONException {
+        final IssueFactories indexed = index.get(issue.getKey());
+        if (indexed != null && indexed.hasFactories()) {
+            return indexed.getUrl(kind);
+        }
+        final FactoryRequest request = requestResolver.resolve(issue, user);
+        if (request == null) {
+            return null;
+        }
+        final String fieldId = kind == Kind.DEVELOP ? request.getDevelopFieldId() : request.getReviewFieldId();
+        final String currentUrl = getCurrentUrl(request.getIssueKey(), fieldId, kind);
+        if (currentUrl != null) {
+            return currentUrl;
+        }
+
+        final CompletableFuture<Void> generation = new CompletableFuture<>();
+        final CompletableFuture<Void> running = generations.putIfAbsent(request.getIssueKey(), generation);
+        if (running == null) {
+            try {
+                // A concurrent generation may have ended between the first check and the registration
+                if (getCurrentUrl(request.getIssueKey(), fieldId, kind) == null) {
+                    generator.generate(request);
+                }
+                generation.complete(null);
+            } catch (IOException | JSONException | RuntimeException e) {
+                generation.completeExceptionally(e);
+                throw e;
+            } finally {
+                generations.remove(request.getIssueKey(), generation);
+            }
+        } else {
+            await(request.getIssueKey(), running);
+        }
+        return getCurrentUrl(request.getIssueKey(), fieldId, kind);
+    }
+
+    /**
+     * Get the number of issues whose factories are being generated on demand
+     *
+     * @return the number of generations in progress
+     */
+    public int getInFlight() {
+        return generations.size();
+    }
+
+    private void await(String issueKey, CompletableFuture<Void> generation) throws IOException {
+        try {
+            generation.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IOException("Factory generation for issue " + issueKey + " failed: " + e.getCause().getMessage(),
+                                  e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Factory generation for issue " + issueKey + " still in progress after " +
+                                  timeoutMillis + " ms.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the factories of issue " + issueKey + ".");
+        }
+    }
+
+    /**
+     * Get the URL of a factory of an issue as recorded in the index, or as stored in the issue if it isn't indexed
+     *
+     * @param issueKey
+     *         the key of the issue
+     * @param fieldId
+     *         the id of the field the factory link is stored in
+     * @param kind
+     *         the factory
+     * @return the URL or {@code null} if the factory has to be generated
+     */
+    private String getCurrentUrl(String issueKey, String fieldId, Kind kind) {
+        final IssueFactories factories = index.get(issueKey);
+        if (factories != null) {
+            // The link stored in the issue of a stale entry leads to the factory of its former project
+            return factories.hasFactories() ? factories.getUrl(kind) : null;
+        }
+        return getStoredUrl(issueKey, fieldId);
+    }
+
+    /**
+     * Get the URL of a factory stored in an issue
+     *
+     * @param issueKey
+     *         the key of the issue
+     * @param fieldId
+     *         the id of the field the factory link is stored in
+     * @return the URL or {@code null} if the field is empty
+     */
+    protected String getStoredUrl(String issueKey, String fieldId) {
+        // Read the issue again, it may have been updated since it was loaded
+        final Issue issue = issueManager.getIssueObject(issueKey);
+        final CustomField field = customFieldManager.getCustomFieldObject(fieldId);
+        if (issue == null || field == null) {
+            return null;
+        }
+        final Object value = issue.getCustomFieldValue(field);
+        return value == null ? null : FactoryLinkRenderer.getUrl(value.toString());
+    }
+}
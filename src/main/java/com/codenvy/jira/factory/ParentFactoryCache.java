@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.factory;
+
+import us.monoid.json.JSONException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of the parent factory of each JIRA project.
+ * <p/>
+ * Entries are the raw JSON of the parent factory, keyed by project key, evicted when they are older than
+ * {@code codenvy.parentFactory.ttl} seconds (default 600) or when more than {@code codenvy.parentFactory.cacheSize}
+ * projects (default 500) are cached, least recently used first. A project without parent factory is cached as well, so
+ * its issues don't ask Codenvy again before the same delay. Concurrent misses on the same project share one load.
+ */
+public class ParentFactoryCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParentFactoryCache.class);
+
+    /**
+     * Loads the parent factory of a project from Codenvy
+     */
+    public interface Loader {
+        /**
+         * Load the parent factory of a project
+         *
+         * @param projectKey
+         *         the key of the JIRA project
+         * @return the JSON of the parent factory or {@code null} if the project has none
+         * @throws IOException
+         * @throws JSONException
+         */
+        String load(String projectKey) throws IOException, JSONException;
+    }
+
+    private final long                                 ttlMillis;
+    private final int                                  maxSize;
+    private final Map<String, Entry>                   entries;
+    private final ConcurrentMap<String, ReentrantLock> loadLocks;
+    private final AtomicLong                           hits;
+    private final AtomicLong                           misses;
+    private final AtomicLong                           evictions;
+
+    public ParentFactoryCache() {
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(Long.getLong("codenvy.parentFactory.ttl", 600));
+        this.maxSize = Math.max(1, Integer.getInteger("codenvy.parentFactory.cacheSize", 500));
+        this.loadLocks = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the parent factory of a project, loading it on a miss
+     *
+     * @param projectKey
+     *         the key of the JIRA project
+     * @param loader
+     *         used to load the parent factory if it isn't cached
+     * @return the JSON of the parent factory or {@code null} if the project has none
+     * @throws IOException
+     * @throws JSONException
+     */
+    public String get(String projectKey, Loader loader) throws IOException, JSONException {
+        Entry cached = getEntry(projectKey);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.json;
+        }
+
+        // Not a monitor: a virtual thread blocked on the load inside a synchronized block would pin its carrier
+        ReentrantLock lock = loadLocks.get(projectKey);
+        if (lock == null) {
+            final ReentrantLock newLock = new ReentrantLock();
+            lock = loadLocks.putIfAbsent(projectKey, newLock);
+            if (lock == null) {
+                lock = newLock;
+            }
+        }
+        lock.lock();
+        try {
+            // Loaded by another caller while we were waiting
+            cached = getEntry(projectKey);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.json;
+            }
+            misses.incrementAndGet();
+            final String loaded = loader.load(projectKey);
+            put(projectKey, loaded);
+            return loaded;
+        } finally {
+            // Removed before unlocking, so a new lock is only created once the entry is cached
+            loadLocks.remove(projectKey, lock);
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the parent factory of a project if it is cached and fresh
+     *
+     * @param projectKey
+     *         the key of the JIRA project
+     * @return the JSON of the parent factory or {@code null} if it isn't cached or the project has none
+     */
+    public String getIfPresent(String projectKey) {
+        final Entry entry = getEntry(projectKey);
+        return entry == null ? null : entry.json;
+    }
+
+    /**
+     * Cache the parent factory of a project
+     *
+     * @param projectKey
+     *         the key of the JIRA project
+     * @param json
+     *         the JSON of the parent factory or {@code null} if the project has none
+     */
+    public synchronized void put(String projectKey, String json) {
+        entries.put(projectKey, new Entry(json, System.currentTimeMillis()));
+    }
+
+    /**
+     * Drop the cached parent factory of a project
+     *
+     * @param projectKey
+     *         the key of the JIRA project
+     */
+    public synchronized void invalidate(String projectKey) {
+        if (entries.remove(projectKey) != null) {
+            LOG.info("Parent factory of project " + projectKey + " removed from cache.");
+        }
+    }
+
+    /**
+     * Drop every cached parent factory
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        LOG.info("Parent factory cache cleared.");
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private synchronized Entry getEntry(String projectKey) {
+        final Entry entry = entries.get(projectKey);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+            entries.remove(projectKey);
+            evictions.incrementAndGet();
+            return null;
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        private final String json;
+        private final long   loadedAt;
+
+        private Entry(String json, long loadedAt) {
+            this.json = json;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of the metrics of the factory generation pipeline: latency of each stage, outcome counters and gauges of
+ * the work in progress.
+ * <p/>
+ * The metrics are published over JMX as {@value #OBJECT_NAME} and over REST at
+ * {@code /rest/codenvy-admin/1.0/metrics}.
+ */
+public class CodenvyMetrics implements CodenvyMetricsMXBean, InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodenvyMetrics.class);
+
+    public static final String OBJECT_NAME = "com.codenvy.jira:type=FactoryGeneration";
+
+    public static final String SKIPPED_MISSING_CONFIG         = "missingConfig";
+    public static final String SKIPPED_MISSING_USER           = "missingUser";
+    public static final String SKIPPED_MISSING_FIELDS         = "missingFields";
+    public static final String SKIPPED_MISSING_PARENT_FACTORY = "missingParentFactory";
+    public static final String SKIPPED_MISSING_FACTORY_URL    = "missingFactoryUrl";
+    public static final String SKIPPED_INVALID_UPDATE         = "invalidUpdate";
+    public static final String SKIPPED_ALREADY_GENERATED      = "alreadyGenerated";
+    public static final String SKIPPED_SHARED                 = "shared";
+
+    /**
+     * Current value of a quantity owned by another component
+     */
+    public interface Gauge {
+        long getValue();
+    }
+
+    private final ConcurrentMap<String, LatencyStats> stages;
+    private final ConcurrentMap<String, AtomicLong>   skipped;
+    private final ConcurrentMap<String, AtomicLong>   errors;
+    private final ConcurrentMap<String, Gauge>        gauges;
+    private final AtomicLong                          succeeded;
+    private final AtomicInteger                       inFlightGenerations;
+
+    public CodenvyMetrics() {
+        this.stages = new ConcurrentHashMap<>();
+        this.skipped = new ConcurrentHashMap<>();
+        this.errors = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+        this.succeeded = new AtomicLong();
+        this.inFlightGenerations = new AtomicInteger();
+    }
+
+    /**
+     * Called when the plugin has been enabled, publishes the metrics over JMX.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        try {
+            // Left behind by a previous version of the plugin that was not disabled cleanly
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            LOG.warn("Factory generation metrics not published over JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Record the duration of a stage
+     *
+     * @param stage
+     *         the name of the stage
+     * @param startNanos
+     *         the {@link System#nanoTime()} at which the stage started
+     */
+    public void recordStage(String stage, long startNanos) {
+        LatencyStats stats = stages.get(stage);
+        if (stats == null) {
+            final LatencyStats newStats = new LatencyStats();
+            stats = stages.putIfAbsent(stage, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        stats.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record that the factories of an issue have been generated
+     */
+    public void recordSuccess() {
+        succeeded.incrementAndGet();
+    }
+
+    /**
+     * Record that the factories of an issue have not been generated
+     *
+     * @param reason
+     *         why the issue was skipped, one of the {@code SKIPPED_} constants
+     */
+    public void recordSkipped(String reason) {
+        increment(skipped, reason);
+    }
+
+    /**
+     * Record that the generation of the factories of an issue failed
+     *
+     * @param error
+     *         the error the generation failed with
+     */
+    public void recordError(Throwable error) {
+        increment(errors, error.getClass().getSimpleName());
+    }
+
+    /**
+     * Record that a factory generation started, it must be followed by {@link #generationEnded()}
+     */
+    public void generationStarted() {
+        inFlightGenerations.incrementAndGet();
+    }
+
+    /**
+     * Record that a factory generation ended, whatever its outcome
+     */
+    public void generationEnded() {
+        inFlightGenerations.decrementAndGet();
+    }
+
+    /**
+     * Publish a quantity owned by another component
+     *
+     * @param name
+     *         the name of the gauge
+     * @param gauge
+     *         the gauge, read each time the metrics are observed
+     */
+    public void registerGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Get the latency of every recorded stage
+     *
+     * @return stage latencies sorted by stage name
+     */
+    public Map<String, LatencyStats> getStages() {
+        return new TreeMap<>(stages);
+    }
+
+    @Override
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    @Override
+    public long getSkippedMissingConfig() {
+        return count(skipped, SKIPPED_MISSING_CONFIG);
+    }
+
+    @Override
+    public long getSkippedMissingFields() {
+        return count(skipped, SKIPPED_MISSING_FIELDS);
+    }
+
+    @Override
+    public Map<String, Long> getSkipped() {
+        return snapshot(skipped);
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        return snapshot(errors);
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, LatencyStats> entry : stages.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getStageTotalMillis() {
+        final Map<String, Double> totals = new TreeMap<>();
+        for (Map.Entry<String, LatencyStats> entry : stages.entrySet()) {
+            totals.put(entry.getKey(), entry.getValue().getTotalMillis());
+        }
+        return totals;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        final Map<String, Double> means = new TreeMap<>();
+        for (Map.Entry<String, LatencyStats> entry : stages.entrySet()) {
+            means.put(entry.getKey(), entry.getValue().getMeanMillis());
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getStageMaxMillis() {
+        final Map<String, Double> maxima = new TreeMap<>();
+        for (Map.Entry<String, LatencyStats> entry : stages.entrySet()) {
+            maxima.put(entry.getKey(), entry.getValue().getMaxMillis());
+        }
+        return maxima;
+    }
+
+    @Override
+    public Map<String, Double> getStageP95Millis() {
+        return getStagePercentileMillis(95);
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Millis() {
+        return getStagePercentileMillis(99);
+    }
+
+    @Override
+    public int getInFlightGenerations() {
+        return inFlightGenerations.get();
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        final Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getValue());
+        }
+        return values;
+    }
+
+    @Override
+    public void reset() {
+        stages.clear();
+        skipped.clear();
+        errors.clear();
+        succeeded.set(0);
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counters, String key) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(key, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    private static long count(ConcurrentMap<String, AtomicLong> counters, String key) {
+        final AtomicLong counter = counters.get(key);
+        return counter == null ? 0 : counter.get();
+    }
+
+    private static Map<String, Long> snapshot(ConcurrentMap<String, AtomicLong> counters) {
+        final Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        return values;
+    }
+
+    private Map<String, Double> getStagePercentileMillis(double percentile) {
+        final Map<String, Double> percentiles = new TreeMap<>();
+        for (Map.Entry<String, LatencyStats> entry : stages.entrySet()) {
+            percentiles.put(entry.getKey(), entry.getValue().getPercentileMillis(percentile));
+        }
+        return percentiles;
+    }
+}
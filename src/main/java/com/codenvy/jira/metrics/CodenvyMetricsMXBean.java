@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the factory generation metrics, an MXBean so that the maps are read as open data by any JMX client, registered as {@value CodenvyMetrics#OBJECT_NAME}
+ */
+public interface CodenvyMetricsMXBean {
+
+    /**
+     * Get the number of issues whose factories have been generated
+     *
+     * @return the number of successful generations
+     */
+    long getSucceeded();
+
+    /**
+     * Get the number of issues skipped because the Codenvy URL, username or password is not set
+     *
+     * @return the number of skipped issues
+     */
+    long getSkippedMissingConfig();
+
+    /**
+     * Get the number of issues skipped because they have no Develop or Review field
+     *
+     * @return the number of skipped issues
+     */
+    long getSkippedMissingFields();
+
+    /**
+     * Get the number of skipped issues by reason
+     *
+     * @return the number of skipped issues sorted by reason
+     */
+    Map<String, Long> getSkipped();
+
+    /**
+     * Get the number of failed generations by error type
+     *
+     * @return the number of errors sorted by type
+     */
+    Map<String, Long> getErrors();
+
+    /**
+     * Get the number of times each stage has been executed
+     *
+     * @return the counts sorted by stage name
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * Get the cumulative duration of each stage, the rate of which gives the time spent in the stage
+     *
+     * @return the total durations in milliseconds sorted by stage name
+     */
+    Map<String, Double> getStageTotalMillis();
+
+    /**
+     * Get the mean duration of each stage
+     *
+     * @return the mean durations in milliseconds sorted by stage name
+     */
+    Map<String, Double> getStageMeanMillis();
+
+    /**
+     * Get the longest duration of each stage
+     *
+     * @return the longest durations in milliseconds sorted by stage name
+     */
+    Map<String, Double> getStageMaxMillis();
+
+    /**
+     * Get the 95th percentile of the recent durations of each stage
+     *
+     * @return the durations in milliseconds sorted by stage name
+     */
+    Map<String, Double> getStageP95Millis();
+
+    /**
+     * Get the 99th percentile of the recent durations of each stage
+     *
+     * @return the durations in milliseconds sorted by stage name
+     */
+    Map<String, Double> getStageP99Millis();
+
+    /**
+     * Get the number of factory generations in progress
+     *
+     * @return the number of generations in progress
+     */
+    int getInFlightGenerations();
+
+    /**
+     * Get the current value of the gauges registered by the plugin components, e.g. the depth of the queue
+     *
+     * @return the gauge values sorted by name
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * Reset the counters and stage latencies, gauges are not affected
+     */
+    void reset();
+}
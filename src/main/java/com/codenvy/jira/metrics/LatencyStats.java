@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe latency accumulator of a pipeline stage
+ * <p/>
+ * The count and total duration are cumulative so that rates can be derived from two readings, while percentiles are
+ * computed over the last {@value #RECENT_SAMPLES} executions only so that a slowdown shows up at once instead of being
+ * averaged out by the executions since start.
+ */
+public class LatencyStats {
+    public static final int RECENT_SAMPLES = 1024;
+
+    private final AtomicLong      count      = new AtomicLong();
+    private final AtomicLong      totalNanos = new AtomicLong();
+    private final AtomicLong      maxNanos   = new AtomicLong();
+    private final AtomicLongArray recent     = new AtomicLongArray(RECENT_SAMPLES);
+
+    /**
+     * Record one stage execution
+     *
+     * @param nanos
+     *         the duration of the execution in nanoseconds
+     */
+    public void record(long nanos) {
+        final long n = count.incrementAndGet();
+        recent.set((int)((n - 1) % RECENT_SAMPLES), nanos);
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Get the number of recorded executions
+     *
+     * @return the number of recorded executions
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the cumulative duration of recorded executions
+     *
+     * @return the total duration in milliseconds
+     */
+    public double getTotalMillis() {
+        return (double)totalNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Get the mean duration of recorded executions
+     *
+     * @return the mean duration in milliseconds or 0 if nothing was recorded
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : (double)totalNanos.get() / n / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Get the longest recorded duration
+     *
+     * @return the longest duration in milliseconds
+     */
+    public double getMaxMillis() {
+        return (double)maxNanos.get() / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Get a percentile of the durations of the last {@value #RECENT_SAMPLES} executions
+     *
+     * @param percentile
+     *         the percentile between 0 and 100, e.g. 95
+     * @return the duration in milliseconds under which that percentage of the recent executions completed or 0 if
+     * nothing was recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        final int size = (int)Math.min(count.get(), RECENT_SAMPLES);
+        if (size == 0) {
+            return 0;
+        }
+        final long[] samples = new long[size];
+        for (int i = 0; i < size; i++) {
+            samples[i] = recent.get(i);
+        }
+        Arrays.sort(samples);
+        final int index = Math.max(0, Math.min(size - 1, (int)Math.ceil(percentile / 100 * size) - 1));
+        return (double)samples[index] / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
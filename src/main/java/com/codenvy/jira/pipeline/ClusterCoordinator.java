@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.jira.cluster.ClusterMessageConsumer;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Coordinates the factory generations of the nodes of a JIRA Data Center cluster.
+ * <p/>
+ * The factories of an issue are generated under a cluster wide lock so that only one node works on an issue at a time.
+ * Issues share {@code codenvy.cluster.lockStripes} locks (default 256) so that the number of cluster locks, which JIRA
+ * keeps in its database, stays bounded. Nodes tell the others when they leave work in the outbox so that idle nodes
+ * pick it up right away instead of at their next drain. On a single node JIRA the locks are local and nothing is sent.
+ */
+public class ClusterCoordinator implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterCoordinator.class);
+
+    /** Cluster channel names are limited to 20 characters */
+    static final String CHANNEL     = "codenvy-work";
+    static final String LOCK_PREFIX = "com.codenvy.jira.";
+    static final String LOCAL_NODE  = "local";
+
+    private final ClusterLockService      clusterLockService;
+    private final ClusterManager          clusterManager;
+    private final ClusterMessagingService clusterMessagingService;
+    private final int                     lockStripes;
+    private final List<Runnable>          workListeners;
+    private final ClusterMessageConsumer  workConsumer;
+
+    /**
+     * Constructor.
+     *
+     * @param clusterLockService
+     *         provides the locks shared by the nodes of the cluster.
+     * @param clusterManager
+     *         tells the id of this node.
+     * @param clusterMessagingService
+     *         tells the other nodes of the cluster that work is waiting.
+     */
+    public ClusterCoordinator(ClusterLockService clusterLockService, ClusterManager clusterManager,
+                              ClusterMessagingService clusterMessagingService) {
+        this.clusterLockService = clusterLockService;
+        this.clusterManager = clusterManager;
+        this.clusterMessagingService = clusterMessagingService;
+        this.lockStripes = Math.max(1, Integer.getInteger("codenvy.cluster.lockStripes", 256));
+        this.workListeners = new CopyOnWriteArrayList<>();
+        // The cluster messaging service only keeps a weak reference to its listeners
+        this.workConsumer = new ClusterMessageConsumer() {
+            @Override
+            public void receive(String channel, String message, String senderId) {
+                LOG.debug("Factory generations waiting on node " + senderId + ".");
+                for (Runnable listener : workListeners) {
+                    listener.run();
+                }
+            }
+        };
+    }
+
+    /**
+     * Called when the plugin has been enabled.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        clusterMessagingService.registerListener(CHANNEL, workConsumer);
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        clusterMessagingService.unregisterListener(CHANNEL, workConsumer);
+        workListeners.clear();
+    }
+
+    public boolean isClustered() {
+        return clusterManager.isClustered();
+    }
+
+    /**
+     * Get the id of this node
+     *
+     * @return the JIRA node id, {@value #LOCAL_NODE} if JIRA isn't clustered
+     */
+    public String getNodeId() {
+        final String nodeId = clusterManager.isClustered() ? clusterManager.getNodeId() : null;
+        return nodeId == null ? LOCAL_NODE : nodeId;
+    }
+
+    /**
+     * Get the lock the factories of an issue are generated under
+     *
+     * @param issueKey
+     *         the key of the issue
+     * @return the cluster wide lock of the issue, shared with other issues
+     */
+    public Lock getIssueLock(String issueKey) {
+        return getLock("issue." + (issueKey.hashCode() & Integer.MAX_VALUE) % lockStripes);
+    }
+
+    /**
+     * Get a cluster wide lock
+     *
+     * @param name
+     *         the name of the lock, unique within the plugin
+     * @return the lock
+     */
+    public Lock getLock(String name) {
+        return clusterLockService.getLockForName(LOCK_PREFIX + name);
+    }
+
+    /**
+     * Tell the other nodes that factory generations are waiting in the outbox
+     */
+    public void announceWork() {
+        if (clusterManager.isClustered()) {
+            clusterMessagingService.sendRemote(CHANNEL, "work");
+        }
+    }
+
+    /**
+     * Register what to do when another node announces work
+     *
+     * @param listener
+     *         run on the cluster messaging thread, must not block
+     */
+    public void addWorkListener(Runnable listener) {
+        workListeners.add(listener);
+    }
+}
@@ -0,0 +1,545 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.issue.search.SearchResults;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Generates the factories of existing issues, for issues created before the plugin was installed or while Codenvy was
+ * unreachable.
+ * <p/>
+ * The issues matching a JQL query are read by pages of {@code codenvy.backfill.pageSize} issues (default 100), oldest
+ * first. Issues whose Develop and Review fields are already set are skipped, the others are generated on the
+ * {@link FactoryGenerationQueue} with at most {@code codenvy.backfill.concurrency} generations in flight (default 2)
+ * so that newly created issues are not delayed. The position in the results is saved after each page so that a
+ * backfill interrupted by a restart resumes where it stopped.
+ * <p/>
+ * On a JIRA cluster a single node runs the backfill and saves a heartbeat with its position. If the heartbeat is older
+ * than {@code codenvy.backfill.takeOver} seconds (default 300) because that node stopped, another node takes the
+ * backfill over from the saved position.
+ */
+public class FactoryBackfill implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryBackfill.class);
+
+    private static final String JQL_KEY       = "codenvy.backfill.jql";
+    private static final String USER_KEY      = "codenvy.backfill.user";
+    private static final String OFFSET_KEY    = "codenvy.backfill.offset";
+    private static final String STATE_KEY     = "codenvy.backfill.state";
+    private static final String NODE_KEY      = "codenvy.backfill.node";
+    private static final String HEARTBEAT_KEY = "codenvy.backfill.heartbeat";
+    private static final String ORDER_CLAUSE  = " ORDER BY created ASC, key ASC";
+
+    /**
+     * State of the backfill
+     */
+    public enum State {
+        IDLE, RUNNING, CANCELLED, DONE, FAILED
+    }
+
+    private final SearchService            searchService;
+    private final UserManager              jiraUserManager;
+    private final CustomFieldManager       customFieldManager;
+    private final PluginSettingsFactory    pluginSettingsFactory;
+    private final FactoryRequestResolver   requestResolver;
+    private final FactoryGenerationQueue   generationQueue;
+    private final FactoryGenerator         generator;
+    private final FactoryOutbox            outbox;
+    private final ClusterCoordinator       clusterCoordinator;
+    private final int                      pageSize;
+    private final int                      concurrency;
+    private final long                     takeOverMillis;
+    private final ScheduledExecutorService runner;
+    private final AtomicLong               processed;
+    private final AtomicLong               generated;
+    private final AtomicLong               skipped;
+    private final AtomicLong               failed;
+
+    private volatile State   state;
+    private volatile String  jql;
+    private volatile String  error;
+    private volatile int     total;
+    private volatile int     startOffset;
+    private volatile long    startedAt;
+    private volatile boolean cancelled;
+    private volatile long    heartbeatAt;
+
+    /**
+     * Constructor.
+     *
+     * @param searchService
+     *         service to search JIRA issues.
+     * @param jiraUserManager
+     *         service to get JIRA users.
+     * @param customFieldManager
+     *         service to get JIRA custom fields.
+     * @param pluginSettingsFactory
+     *         factory to get globally saved settings, where the backfill position is saved.
+     * @param requestResolver
+     *         checks that the factories of an issue can be generated.
+     * @param generationQueue
+     *         queue that runs factory generations in the background.
+     * @param generator
+     *         generator of the factories of an issue.
+     * @param outbox
+     *         store of the generations to retry.
+     * @param clusterCoordinator
+     *         makes sure a single node of a cluster runs the backfill.
+     */
+    public FactoryBackfill(SearchService searchService, UserManager jiraUserManager, CustomFieldManager customFieldManager,
+                           PluginSettingsFactory pluginSettingsFactory, FactoryRequestResolver requestResolver,
+                           FactoryGenerationQueue generationQueue, FactoryGenerator generator, FactoryOutbox outbox,
+                           ClusterCoordinator clusterCoordinator) {
+        this.searchService = searchService;
+        this.jiraUserManager = jiraUserManager;
+        this.customFieldManager = customFieldManager;
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.requestResolver = requestResolver;
+        this.generationQueue = generationQueue;
+        this.generator = generator;
+        this.outbox = outbox;
+        this.clusterCoordinator = clusterCoordinator;
+        this.pageSize = Math.max(1, Integer.getInteger("codenvy.backfill.pageSize", 100));
+        this.concurrency = Math.max(1, Integer.getInteger("codenvy.backfill.concurrency", 2));
+        this.takeOverMillis = TimeUnit.SECONDS.toMillis(Math.max(60, Long.getLong("codenvy.backfill.takeOver", 300)));
+        this.processed = new AtomicLong();
+        this.generated = new AtomicLong();
+        this.skipped = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.state = State.IDLE;
+        this.runner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codenvy-factory-backfill");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Called when the plugin has been enabled, resumes a backfill interrupted by a restart or left by a stopped node.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        // Let JIRA finish its startup before searching
+        resumeIfAbandoned(TimeUnit.MINUTES.toMillis(1));
+        runner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resumeIfAbandoned(0);
+                } catch (RuntimeException e) {
+                    // Never let an error cancel the next checks
+                    LOG.error("Checking the factory backfill failed: " + e.getMessage(), e);
+                }
+            }
+        }, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed, the backfill will be resumed when it is enabled again.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        cancelled = true;
+        runner.shutdownNow();
+    }
+
+    /**
+     * Start generating the factories of the issues matching a query
+     *
+     * @param jql
+     *         the query, without ORDER BY clause
+     * @param user
+     *         the user the issues are searched and updated with
+     * @throws IllegalArgumentException
+     *         if the query is not valid
+     * @throws IllegalStateException
+     *         if a backfill is already running
+     */
+    public synchronized void start(final String jql, final ApplicationUser user) {
+        if (state == State.RUNNING) {
+            throw new IllegalStateException("A factory backfill is already running.");
+        }
+        parse(user, jql);
+
+        final Lock lock = lockBackfill();
+        try {
+            final PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+            if (isRunningElsewhere(settings)) {
+                throw new IllegalStateException("A factory backfill is already running on node " + settings.get(NODE_KEY) +
+                                                ".");
+            }
+            settings.put(JQL_KEY, jql);
+            settings.put(USER_KEY, user.getKey());
+            settings.put(OFFSET_KEY, "0");
+            settings.put(STATE_KEY, State.RUNNING.name());
+            claim(settings);
+        } finally {
+            lock.unlock();
+        }
+        reset(jql, 0);
+        runner.execute(new Runnable() {
+            @Override
+            public void run() {
+                backfill(jql, user.getKey(), 0);
+            }
+        });
+    }
+
+    /**
+     * Stop the running backfill, the generations in flight are completed. A backfill running on another node stops
+     * after its current page.
+     */
+    public synchronized void cancel() {
+        if (state == State.RUNNING) {
+            cancelled = true;
+            return;
+        }
+        final PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        if (State.RUNNING.name().equals(settings.get(STATE_KEY))) {
+            settings.put(STATE_KEY, State.CANCELLED.name());
+        }
+    }
+
+    /**
+     * Get the state of the backfill
+     *
+     * @return the state of the backfill run by this node, {@code RUNNING} if another node is running one
+     */
+    public State getState() {
+        if (state != State.RUNNING && isRunningElsewhere(pluginSettingsFactory.createGlobalSettings())) {
+            return State.RUNNING;
+        }
+        return state;
+    }
+
+    /**
+     * Get the node running the backfill
+     *
+     * @return the id of the node that runs or last ran the backfill, {@code null} if none ran
+     */
+    public String getNode() {
+        return (String)pluginSettingsFactory.createGlobalSettings().get(NODE_KEY);
+    }
+
+    public String getJql() {
+        return jql;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Get the number of issues matching the query
+     *
+     * @return the number of issues, known once the first page has been read
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Get the number of issues handled so far, including the ones handled before a restart
+     *
+     * @return the number of issues generated, skipped or failed
+     */
+    public long getProcessed() {
+        return startOffset + processed.get();
+    }
+
+    public long getGenerated() {
+        return generated.get();
+    }
+
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Estimate the remaining duration of the backfill from its rate so far
+     *
+     * @return the estimated remaining time in milliseconds, -1 if unknown
+     */
+    public long getEtaMillis() {
+        final long done = processed.get();
+        if (state != State.RUNNING || done == 0) {
+            return -1;
+        }
+        final long remaining = Math.max(0, total - getProcessed());
+        return (System.currentTimeMillis() - startedAt) * remaining / done;
+    }
+
+    private void reset(String jql, int offset) {
+        this.jql = jql;
+        this.error = null;
+        this.total = 0;
+        this.startOffset = offset;
+        this.startedAt = System.currentTimeMillis();
+        this.cancelled = false;
+        this.processed.set(0);
+        this.generated.set(0);
+        this.skipped.set(0);
+        this.failed.set(0);
+        this.state = State.RUNNING;
+    }
+
+    private void backfill(String jql, String userKey, int offset) {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        State endState = State.DONE;
+        try {
+            final ApplicationUser user = jiraUserManager.getUserByKey(userKey);
+            if (user == null) {
+                throw new IllegalStateException("User " + userKey + " who started the backfill doesn't exist anymore.");
+            }
+            final Query query = parse(user, jql + ORDER_CLAUSE);
+
+            int start = offset;
+            while (!cancelled) {
+                final SearchResults results = searchService.search(user, query, new PagerFilter(start, pageSize));
+                total = results.getTotal();
+                final List<Issue> issues = results.getIssues();
+                if (issues.isEmpty()) {
+                    break;
+                }
+                for (Issue issue : issues) {
+                    if (cancelled) {
+                        break;
+                    }
+                    generate(issue, user, inFlight);
+                    if (System.currentTimeMillis() - heartbeatAt > takeOverMillis / 4 && !heartbeat(start)) {
+                        break;
+                    }
+                }
+                start += issues.size();
+                if (!heartbeat(start)) {
+                    break;
+                }
+            }
+            if (cancelled) {
+                endState = State.CANCELLED;
+            }
+        } catch (SearchException | RuntimeException e) {
+            LOG.error("Factory backfill of '" + jql + "' failed: " + e.getMessage(), e);
+            error = e.getMessage();
+            endState = State.FAILED;
+        } catch (InterruptedException e) {
+            // Plugin disabled, the backfill is resumed when it is enabled again
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // Wait for the generations in flight
+        inFlight.acquireUninterruptibly(concurrency);
+        if (runner.isShutdown()) {
+            // Plugin disabled while the backfill was running, resume it when the plugin is enabled again
+            return;
+        }
+        final PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        if (!clusterCoordinator.getNodeId().equals(settings.get(NODE_KEY))) {
+            LOG.warn("Factory backfill of '" + jql + "' taken over by node " + settings.get(NODE_KEY) + ".");
+            state = State.IDLE;
+            return;
+        }
+        if (endState == State.DONE && State.CANCELLED.name().equals(settings.get(STATE_KEY))) {
+            endState = State.CANCELLED;
+        }
+        settings.put(STATE_KEY, endState.name());
+        state = endState;
+        LOG.info("Factory backfill of '" + jql + "' " + endState.name().toLowerCase(Locale.ENGLISH) + ": " +
+                 generated.get() + " issue(s) generated, " + skipped.get() + " skipped, " + failed.get() + " failed.");
+    }
+
+    /**
+     * Resume the saved backfill if it was run by this node before a restart or if the node running it stopped
+     *
+     * @param delayMillis
+     *         how long to wait before resuming it
+     */
+    private void resumeIfAbandoned(long delayMillis) {
+        final String savedJql;
+        final String userKey;
+        final int offset;
+        synchronized (this) {
+            if (state == State.RUNNING) {
+                return;
+            }
+            final Lock lock = lockBackfill();
+            try {
+                final PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+                if (!State.RUNNING.name().equals(settings.get(STATE_KEY)) || isRunningElsewhere(settings)) {
+                    return;
+                }
+                savedJql = (String)settings.get(JQL_KEY);
+                userKey = (String)settings.get(USER_KEY);
+                final String savedOffset = (String)settings.get(OFFSET_KEY);
+                // The issues of the last page may not have been generated
+                offset = Math.max(0, (savedOffset == null ? 0 : Integer.parseInt(savedOffset)) - pageSize);
+                LOG.info("Resuming factory backfill of '" + savedJql + "' left by node " + settings.get(NODE_KEY) +
+                         " from issue " + offset + ".");
+                claim(settings);
+            } finally {
+                lock.unlock();
+            }
+            reset(savedJql, offset);
+        }
+        runner.schedule(new Runnable() {
+            @Override
+            public void run() {
+                backfill(savedJql, userKey, offset);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check if the saved backfill is run by another node that is still alive
+     */
+    private boolean isRunningElsewhere(PluginSettings settings) {
+        if (!State.RUNNING.name().equals(settings.get(STATE_KEY))) {
+            return false;
+        }
+        final String node = (String)settings.get(NODE_KEY);
+        final String heartbeat = (String)settings.get(HEARTBEAT_KEY);
+        return node != null && !node.equals(clusterCoordinator.getNodeId()) && heartbeat != null &&
+               System.currentTimeMillis() - Long.parseLong(heartbeat) < takeOverMillis;
+    }
+
+    private void claim(PluginSettings settings) {
+        heartbeatAt = System.currentTimeMillis();
+        settings.put(NODE_KEY, clusterCoordinator.getNodeId());
+        settings.put(HEARTBEAT_KEY, String.valueOf(heartbeatAt));
+    }
+
+    /**
+     * Save the position of the backfill and tell the other nodes this node is still running it
+     *
+     * @return {@code false} if the backfill has been cancelled or taken over by another node
+     */
+    private boolean heartbeat(int offset) {
+        final PluginSettings settings = pluginSettingsFactory.createGlobalSettings();
+        if (!clusterCoordinator.getNodeId().equals(settings.get(NODE_KEY))) {
+            return false;
+        }
+        if (!State.RUNNING.name().equals(settings.get(STATE_KEY))) {
+            // Cancelled from another node
+            cancelled = true;
+            return false;
+        }
+        heartbeatAt = System.currentTimeMillis();
+        settings.put(OFFSET_KEY, String.valueOf(offset));
+        settings.put(HEARTBEAT_KEY, String.valueOf(heartbeatAt));
+        return true;
+    }
+
+    private Lock lockBackfill() {
+        final Lock lock = clusterCoordinator.getLock("backfill");
+        lock.lock();
+        return lock;
+    }
+
+    private void generate(Issue issue, ApplicationUser user, final Semaphore inFlight) throws InterruptedException {
+        final FactoryRequest request = requestResolver.resolve(issue, user);
+        if (request == null || isGenerated(issue, request)) {
+            skipped.incrementAndGet();
+            processed.incrementAndGet();
+            return;
+        }
+
+        inFlight.acquire();
+        final Runnable handOff = new Runnable() {
+            @Override
+            public void run() {
+                inFlight.release();
+                failed.incrementAndGet();
+                processed.incrementAndGet();
+                outbox.handOff(request);
+            }
+        };
+        final boolean accepted = generationQueue.submit(request.getIssueKey(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    generator.generate(request);
+                    generated.incrementAndGet();
+                } catch (JSONException | IOException e) {
+                    failed.incrementAndGet();
+                    outbox.failed(request, e);
+                } finally {
+                    processed.incrementAndGet();
+                    inFlight.release();
+                }
+            }
+        }, handOff);
+        if (!accepted) {
+            handOff.run();
+        }
+    }
+
+    private boolean isGenerated(Issue issue, FactoryRequest request) {
+        return hasValue(issue, request.getDevelopFieldId()) && hasValue(issue, request.getReviewFieldId());
+    }
+
+    private boolean hasValue(Issue issue, String fieldId) {
+        final CustomField field = customFieldManager.getCustomFieldObject(fieldId);
+        final Object value = field == null ? null : issue.getCustomFieldValue(field);
+        return value != null && !value.toString().isEmpty();
+    }
+
+    private Query parse(ApplicationUser user, String jql) {
+        final SearchService.ParseResult result = searchService.parseQuery(user, jql);
+        if (!result.isValid()) {
+            throw new IllegalArgumentException("Invalid JQL '" + jql + "': " + result.getErrors().getErrorMessages());
+        }
+        return result.getQuery();
+    }
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import us.monoid.json.JSONException;
+
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyHttpException;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes on Codenvy the factories of deleted issues and of issues moved to another project.
+ * <p/>
+ * Factories to delete are queued in memory, up to {@code codenvy.gc.capacity} factories (default 10000), and deleted
+ * in the background by batches of at most {@code codenvy.gc.batchSize} factories (default 20) every
+ * {@code codenvy.gc.interval} milliseconds (default 1000), all with the shared Codenvy session. A mass delete of issues
+ * is so spread over time instead of sending a burst of calls to {@code /api/factory}. The factories of a batch are
+ * deleted concurrently, the ones that could not be deleted because Codenvy can't be reached are deleted with the next
+ * batch.
+ */
+public class FactoryCollector implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryCollector.class);
+
+    private final CodenvySettingsService   settingsService;
+    private final CodenvyClient            client;
+    private final CodenvyMetrics           metrics;
+    private final BlockingQueue<String>    pending;
+    private final AtomicInteger            outstanding;
+    private final int                      capacity;
+    private final int                      batchSize;
+    private final long                     intervalMillis;
+    private final AtomicLong               deleted;
+    private final AtomicLong               failed;
+    private final AtomicLong               dropped;
+    private final ScheduledExecutorService collector;
+
+    /**
+     * Constructor.
+     *
+     * @param settingsService
+     *         holder of the Codenvy settings.
+     * @param client
+     *         client of the Codenvy API.
+     * @param metrics
+     *         registry the deletion latencies are recorded in.
+     */
+    public FactoryCollector(CodenvySettingsService settingsService, CodenvyClient client, CodenvyMetrics metrics) {
+        this.settingsService = settingsService;
+        this.client = client;
+        this.metrics = metrics;
+        this.capacity = Math.max(1, Integer.getInteger("codenvy.gc.capacity", 10000));
+        this.pending = new LinkedBlockingQueue<>(capacity);
+        this.outstanding = new AtomicInteger();
+        this.batchSize = Math.max(1, Integer.getInteger("codenvy.gc.batchSize", 20));
+        this.intervalMillis = Math.max(10, Long.getLong("codenvy.gc.interval", 1000));
+        this.deleted = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.dropped = new AtomicLong();
+        this.collector = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codenvy-factory-gc");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        metrics.registerGauge("gcPending", new CodenvyMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getPending();
+            }
+        });
+    }
+
+    /**
+     * Called when the plugin has been enabled.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        collector.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deleteBatch();
+                } catch (RuntimeException e) {
+                    // Never let an error cancel the next batches
+                    LOG.error("Deleting unused factories failed: " + e.getMessage(), e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        collector.shutdownNow();
+    }
+
+    /**
+     * Queue a factory for deletion, the caller checks that no issue uses it anymore
+     *
+     * @param factoryId
+     *         the id of the factory that is no longer used
+     * @return {@code false} if the factory was not queued because too many factories are waiting to be deleted
+     */
+    public boolean collect(String factoryId) {
+        if (pending.offer(factoryId)) {
+            outstanding.incrementAndGet();
+            return true;
+        }
+        dropped.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Delete the next batch of queued factories
+     */
+    public void deleteBatch() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final CodenvySettings settings = settingsService.get();
+        if (!settings.isComplete()) {
+            return;
+        }
+
+        final List<String> batch = new ArrayList<>(batchSize);
+        pending.drainTo(batch, batchSize);
+        final List<CompletableFuture<Void>> deletions = new ArrayList<>(batch.size());
+        for (String factoryId : batch) {
+            deletions.add(delete(settings, factoryId));
+        }
+        final List<String> postponed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            final String factoryId = batch.get(i);
+            try {
+                CodenvyClient.await(deletions.get(i));
+                deleted.incrementAndGet();
+                outstanding.decrementAndGet();
+            } catch (CodenvyHttpException e) {
+                if (e.getStatus() == 404) {
+                    // Already deleted
+                    deleted.incrementAndGet();
+                    outstanding.decrementAndGet();
+                } else if (e.getStatus() < 500) {
+                    failed.incrementAndGet();
+                    outstanding.decrementAndGet();
+                    LOG.warn("Factory " + factoryId + " could not be deleted: " + e.getMessage());
+                } else {
+                    postponed.add(factoryId);
+                }
+            } catch (IOException | JSONException e) {
+                LOG.debug("Deletion of factory " + factoryId + " postponed: " + e.getMessage());
+                postponed.add(factoryId);
+            }
+        }
+        requeue(postponed);
+    }
+
+    /**
+     * Get the number of factories waiting to be deleted, including the ones of the batch being deleted
+     *
+     * @return the number of queued factories not deleted yet
+     */
+    public int getPending() {
+        return outstanding.get();
+    }
+
+    /**
+     * Get the maximum number of factories waiting to be deleted
+     *
+     * @return the capacity of the deletion queue
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Get the number of factories not deleted because too many were queued
+     *
+     * @return the number of factories left on Codenvy
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private CompletableFuture<Void> delete(CodenvySettings settings, final String factoryId) {
+        final long stageStart = System.nanoTime();
+        return client.execute(settings.getInstanceUrl(), settings.getUsername(), settings.getPassword(),
+                              session -> client.deleteFactory(session, factoryId))
+                     .whenComplete((result, error) -> metrics.recordStage("delete", stageStart))
+                     .toCompletableFuture();
+    }
+
+    private void requeue(List<String> factoryIds) {
+        for (String factoryId : factoryIds) {
+            if (!pending.offer(factoryId)) {
+                dropped.incrementAndGet();
+                outstanding.decrementAndGet();
+            }
+        }
+    }
+}
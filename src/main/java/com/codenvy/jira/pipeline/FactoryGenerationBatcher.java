@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import us.monoid.json.JSONException;
+
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces bursts of created issues (CSV imports, bulk clones) into batches.
+ * <p/>
+ * Requests are collected until {@code codenvy.batch.size} of them are pending (default 50) or
+ * {@code codenvy.batch.window} milliseconds elapsed since the first one (default 200). A batch is then split by
+ * project: the parent factory of each project is fetched once, then the factories of its issues are generated on the
+ * {@link FactoryGenerationQueue}, whose workers bound how many issues are generated in parallel. A batch size of 1 or
+ * a window of 0 disables batching.
+ */
+public class FactoryGenerationBatcher implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryGenerationBatcher.class);
+
+    private final FactoryGenerationQueue   generationQueue;
+    private final FactoryGenerator         generator;
+    private final FactoryOutbox            outbox;
+    private final CodenvyMetrics           metrics;
+    private final int                      maxBatchSize;
+    private final long                     windowMillis;
+    private final ScheduledExecutorService timer;
+    private final Runnable                 flushTask;
+    private final AtomicLong               batches;
+    private final AtomicLong               batchedRequests;
+
+    private List<FactoryRequest> pending;
+    private ScheduledFuture<?>   scheduledFlush;
+
+    /**
+     * Constructor.
+     *
+     * @param generationQueue
+     *         queue that runs factory generations in the background.
+     * @param generator
+     *         generator of the factories of an issue.
+     * @param outbox
+     *         store of the generations to retry.
+     * @param metrics
+     *         registry the skipped issues are counted in.
+     */
+    public FactoryGenerationBatcher(FactoryGenerationQueue generationQueue, FactoryGenerator generator,
+                                    FactoryOutbox outbox, CodenvyMetrics metrics) {
+        this.generationQueue = generationQueue;
+        this.generator = generator;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.maxBatchSize = Math.max(1, Integer.getInteger("codenvy.batch.size", 50));
+        this.windowMillis = Math.max(0, Long.getLong("codenvy.batch.window", 200));
+        this.batches = new AtomicLong();
+        this.batchedRequests = new AtomicLong();
+        this.pending = new ArrayList<>();
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codenvy-factory-batcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Add a request to the current batch
+     *
+     * @param request
+     *         the issue to generate factories for
+     */
+    public void add(FactoryRequest request) {
+        if (maxBatchSize == 1 || windowMillis == 0) {
+            submit(request);
+            return;
+        }
+
+        List<FactoryRequest> full = null;
+        synchronized (this) {
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                full = drain();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(flushTask, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+    }
+
+    /**
+     * Dispatch the pending requests without waiting for the end of the window
+     */
+    public void flush() {
+        final List<FactoryRequest> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getBatchedRequests() {
+        return batchedRequests.get();
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        timer.shutdownNow();
+        flush();
+    }
+
+    private List<FactoryRequest> drain() {
+        final List<FactoryRequest> batch = pending;
+        pending = new ArrayList<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(List<FactoryRequest> batch) {
+        batches.incrementAndGet();
+        batchedRequests.addAndGet(batch.size());
+
+        final Map<String, List<FactoryRequest>> byProject = new LinkedHashMap<>();
+        for (FactoryRequest request : batch) {
+            List<FactoryRequest> projectRequests = byProject.get(request.getProjectKey());
+            if (projectRequests == null) {
+                projectRequests = new ArrayList<>();
+                byProject.put(request.getProjectKey(), projectRequests);
+            }
+            projectRequests.add(request);
+        }
+        LOG.debug("Dispatching " + batch.size() + " factory generation(s) for " + byProject.size() + " project(s).");
+
+        for (final Map.Entry<String, List<FactoryRequest>> entry : byProject.entrySet()) {
+            if (entry.getValue().size() == 1) {
+                submit(entry.getValue().get(0));
+                continue;
+            }
+            final Runnable handOff = new Runnable() {
+                @Override
+                public void run() {
+                    // Don't lose the issues of the project, the outbox will submit them again one by one
+                    for (FactoryRequest request : entry.getValue()) {
+                        outbox.handOff(request);
+                    }
+                }
+            };
+            final boolean accepted = generationQueue.submit(entry.getKey(), new Runnable() {
+                @Override
+                public void run() {
+                    dispatchProject(entry.getKey(), entry.getValue());
+                }
+            }, handOff);
+            if (!accepted) {
+                handOff.run();
+            }
+        }
+    }
+
+    private void dispatchProject(String projectKey, List<FactoryRequest> requests) {
+        // Fetch the parent factory once for the whole batch, the generations will hit the cache
+        try {
+            if (generator.getParentFactory(requests.get(0)) == null) {
+                LOG.warn("No factory found with name: " + projectKey.toLowerCase(Locale.getDefault()) + ", " + requests.size() +
+                         " issue(s) skipped.");
+                for (int i = 0; i < requests.size(); i++) {
+                    metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_PARENT_FACTORY);
+                }
+                return;
+            }
+        } catch (JSONException | IOException e) {
+            for (FactoryRequest request : requests) {
+                outbox.failed(request, e);
+            }
+            return;
+        }
+        for (FactoryRequest request : requests) {
+            submit(request);
+        }
+    }
+
+    private void submit(final FactoryRequest request) {
+        final Runnable handOff = new Runnable() {
+            @Override
+            public void run() {
+                // Don't lose the issue, the outbox will submit it again on a node whose queue has room
+                outbox.handOff(request);
+            }
+        };
+        final boolean accepted = generationQueue.submit(request.getIssueKey(), new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    generator.generate(request);
+                } catch (JSONException | IOException e) {
+                    outbox.failed(request, e);
+                }
+            }
+        }, handOff);
+        if (!accepted) {
+            handOff.run();
+        }
+    }
+}
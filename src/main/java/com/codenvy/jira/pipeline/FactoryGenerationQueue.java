@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded work queue that runs factory generations outside of the JIRA event thread.
+ * <p/>
+ * The pool is sized with system properties {@code codenvy.queue.workers} (default 4) and
+ * {@code codenvy.queue.capacity} (default 1000). When the queue is full, {@code codenvy.queue.overflow} decides what
+ * happens to new work: {@code DISCARD} (default) rejects it, {@code DISCARD_OLDEST} drops the oldest pending work to
+ * make room for it and {@code CALLER_RUNS} runs it on the submitting thread. Callers hand rejected and evicted work
+ * over to the {@link FactoryOutbox}, so that the JIRA event thread never calls Codenvy and another node can pick the
+ * work up.
+ * <p/>
+ * With {@code codenvy.queue.virtualThreads} set to {@code true}, each generation runs on a virtual thread when the JDK
+ * has them. {@code codenvy.queue.workers} then defaults to {@code codenvy.http.maxInFlight}: more workers would only
+ * wait for a call slot or a rate limit token and fail once the connect timeout elapses. On older JDKs the queue falls
+ * back to a pool of platform threads. The cluster locks of JIRA Data Center taken by the workers may pin the carrier
+ * thread of a virtual thread while it waits for them.
+ */
+public class FactoryGenerationQueue implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryGenerationQueue.class);
+
+    public static final String STAGE_QUEUE = "queue";
+    public static final String STAGE_TOTAL = "total";
+
+    /**
+     * What to do with new work when the queue is full
+     */
+    public enum OverflowPolicy {
+        CALLER_RUNS, DISCARD, DISCARD_OLDEST
+    }
+
+    private final int                workers;
+    private final int                capacity;
+    private final boolean            virtualThreads;
+    private final OverflowPolicy     overflowPolicy;
+    private final ThreadPoolExecutor executor;
+    private final CodenvyMetrics     metrics;
+    private final AtomicLong         submitted;
+    private final AtomicLong         rejected;
+    private final AtomicLong         failed;
+
+    /**
+     * Constructor.
+     *
+     * @param metrics
+     *         registry the queue latency and the queue gauges are published in.
+     */
+    public FactoryGenerationQueue(CodenvyMetrics metrics) {
+        ThreadFactory threadFactory = null;
+        if (Boolean.getBoolean("codenvy.queue.virtualThreads")) {
+            threadFactory = VirtualThreads.newThreadFactory("codenvy-factory-worker-");
+            if (threadFactory == null) {
+                LOG.warn("Virtual threads are not available on Java " + System.getProperty("java.version") +
+                         ", factories are generated by platform threads.");
+            }
+        }
+        this.virtualThreads = threadFactory != null;
+        this.workers = Math.max(1, Integer.getInteger("codenvy.queue.workers", virtualThreads ? Integer.getInteger(
+                "codenvy.http.maxInFlight", CodenvyHttpClient.DEFAULT_MAX_IN_FLIGHT) : 4));
+        this.capacity = Math.max(1, Integer.getInteger("codenvy.queue.capacity", 1000));
+        this.overflowPolicy = OverflowPolicy.valueOf(
+                System.getProperty("codenvy.queue.overflow", OverflowPolicy.DISCARD.name()).toUpperCase(Locale.ENGLISH));
+        this.metrics = metrics;
+        this.submitted = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<Runnable>(capacity),
+                                               virtualThreads ? threadFactory : new WorkerThreadFactory(),
+                                               new OverflowHandler());
+        this.executor.allowCoreThreadTimeOut(true);
+        metrics.registerGauge("queueDepth", new CodenvyMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getQueueDepth();
+            }
+        });
+        metrics.registerGauge("activeWorkers", new CodenvyMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return getActiveWorkers();
+            }
+        });
+    }
+
+    /**
+     * Enqueue a factory generation that can be lost if it is evicted from a full queue
+     *
+     * @param issueKey
+     *         the key of the issue the work is done for
+     * @param work
+     *         the work to run
+     * @return {@code false} if the work has been discarded because the queue is full
+     */
+    public boolean submit(String issueKey, Runnable work) {
+        return submit(issueKey, work, null);
+    }
+
+    /**
+     * Enqueue a factory generation
+     *
+     * @param issueKey
+     *         the key of the issue the work is done for
+     * @param work
+     *         the work to run
+     * @param onEvicted
+     *         called instead of the work if it is dropped from the queue to make room for newer work, {@code null} if
+     *         nothing has to be done
+     * @return {@code false} if the work has been discarded because the queue is full
+     */
+    public boolean submit(String issueKey, Runnable work, Runnable onEvicted) {
+        submitted.incrementAndGet();
+        try {
+            executor.execute(new QueuedWork(issueKey, work, onEvicted));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            LOG.warn("Factory generation for issue " + issueKey + " rejected: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * Check if the generations run on virtual threads
+     *
+     * @return {@code true} if virtual threads were asked for and the JDK has them
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getActiveWorkers() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Get the ratio of busy workers
+     *
+     * @return a value between 0 and 1
+     */
+    public double getUtilization() {
+        return (double)executor.getActiveCount() / workers;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    public long getCompleted() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOG.warn(executor.shutdownNow().size() + " pending factory generation(s) dropped on shutdown.");
+        }
+    }
+
+    private class OverflowHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable work, ThreadPoolExecutor pool) {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("queue is shut down");
+            }
+            switch (overflowPolicy) {
+                case CALLER_RUNS:
+                    work.run();
+                    break;
+                case DISCARD_OLDEST:
+                    final Runnable oldest = pool.getQueue().poll();
+                    if (oldest != null) {
+                        rejected.incrementAndGet();
+                        LOG.warn("Factory generation queue is full (" + capacity + "), oldest work discarded.");
+                        if (oldest instanceof QueuedWork) {
+                            ((QueuedWork)oldest).evicted();
+                        }
+                    }
+                    pool.execute(work);
+                    break;
+                default:
+                    throw new RejectedExecutionException("queue is full (" + capacity + ")");
+            }
+        }
+    }
+
+    /**
+     * Factory generation waiting in the queue, it knows what to do with its issue if it is evicted
+     */
+    private class QueuedWork implements Runnable {
+        private final String   issueKey;
+        private final Runnable work;
+        private final Runnable onEvicted;
+        private final long     enqueuedAt;
+
+        private QueuedWork(String issueKey, Runnable work, Runnable onEvicted) {
+            this.issueKey = issueKey;
+            this.work = work;
+            this.onEvicted = onEvicted;
+            this.enqueuedAt = System.nanoTime();
+        }
+
+        @Override
+        public void run() {
+            final long startedAt = System.nanoTime();
+            metrics.recordStage(STAGE_QUEUE, enqueuedAt);
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                LOG.error("Factory generation for issue " + issueKey + " failed: " + e.getMessage(), e);
+            } finally {
+                metrics.recordStage(STAGE_TOTAL, startedAt);
+            }
+        }
+
+        private void evicted() {
+            if (onEvicted == null) {
+                return;
+            }
+            try {
+                onEvicted.run();
+            } catch (RuntimeException e) {
+                LOG.error("Factory generation for issue " + issueKey + " evicted and lost: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "codenvy-factory-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
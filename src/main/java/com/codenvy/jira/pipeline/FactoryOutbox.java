@@ -0,0 +1,520 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.codenvy.jira.client.CodenvyHttpException;
+import com.codenvy.jira.client.CodenvyThrottledException;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+
+import net.java.ao.DBParam;
+import net.java.ao.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Durable queue of the factory generations that failed because Codenvy could not be reached.
+ * <p/>
+ * Failed generations are stored in the {@code FACTORY_OUTBOX} Active Objects table and retried with an exponential
+ * backoff: {@code codenvy.outbox.backoff} seconds after the first failure (default 30), doubled after each failure up
+ * to {@code codenvy.outbox.maxBackoff} seconds (default 3600), with a 20% jitter so that retries of a same outage are
+ * spread. A generation is given up after {@code codenvy.outbox.maxAttempts} attempts (default 20). A generation that
+ * was not sent because of a local limit of the Codenvy client (circuit open, rate or in-flight limit) is retried after
+ * the backoff of its last attempt without counting as an attempt.
+ * <p/>
+ * The outbox is drained every {@code codenvy.outbox.drainInterval} seconds (default 30), at most
+ * {@code codenvy.outbox.drainBatch} due generations at a time (default 20), so that recovery after an outage doesn't
+ * flood Codenvy with the whole backlog at once. Drained generations are leased to the draining node for
+ * {@code codenvy.outbox.lease} seconds (default 600) so that the generations in flight on a node that stopped or
+ * crashed are retried by another node once their lease expires, an expired lease counting as a failed attempt.
+ * <p/>
+ * On a JIRA cluster the outbox is shared by all nodes, which claim due generations one at a time under a cluster lock.
+ * A node whose queue is full hands its new generations off to the outbox and tells the other nodes, the idle ones
+ * drain them right away while the busy one postpones its own drains.
+ */
+public class FactoryOutbox implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryOutbox.class);
+
+    private static final int    MAX_ERROR_LENGTH = 255;
+    private static final double JITTER           = 0.2;
+
+    private final ActiveObjects            ao;
+    private final FactoryGenerationQueue   generationQueue;
+    private final FactoryGenerator         generator;
+    private final FactoryRequestResolver   requestResolver;
+    private final IssueManager             issueManager;
+    private final UserManager              jiraUserManager;
+    private final ClusterCoordinator       clusterCoordinator;
+    private final long                     backoffMillis;
+    private final long                     maxBackoffMillis;
+    private final int                      maxAttempts;
+    private final long                     drainIntervalMillis;
+    private final int                      drainBatch;
+    private final long                     leaseMillis;
+    private final AtomicLong               retried;
+    private final AtomicLong               abandoned;
+    private final AtomicLong               handedOff;
+    private final AtomicBoolean            drainRequested;
+    private final ScheduledExecutorService drainer;
+
+    /**
+     * Constructor.
+     *
+     * @param ao
+     *         the Active Objects store of the outbox.
+     * @param generationQueue
+     *         queue that runs factory generations in the background.
+     * @param generator
+     *         generator of the factories of an issue.
+     * @param requestResolver
+     *         rebuilds the factory requests of the stored issues.
+     * @param issueManager
+     *         service to get JIRA issues.
+     * @param jiraUserManager
+     *         service to get JIRA users.
+     * @param clusterCoordinator
+     *         shares the outbox between the nodes of a cluster.
+     */
+    public FactoryOutbox(ActiveObjects ao, FactoryGenerationQueue generationQueue, FactoryGenerator generator,
+                         FactoryRequestResolver requestResolver, IssueManager issueManager, UserManager jiraUserManager,
+                         ClusterCoordinator clusterCoordinator) {
+        this.ao = ao;
+        this.generationQueue = generationQueue;
+        this.generator = generator;
+        this.requestResolver = requestResolver;
+        this.issueManager = issueManager;
+        this.jiraUserManager = jiraUserManager;
+        this.clusterCoordinator = clusterCoordinator;
+        this.backoffMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong("codenvy.outbox.backoff", 30)));
+        this.maxBackoffMillis = Math.max(backoffMillis,
+                                         TimeUnit.SECONDS.toMillis(Long.getLong("codenvy.outbox.maxBackoff", 3600)));
+        this.maxAttempts = Math.max(1, Integer.getInteger("codenvy.outbox.maxAttempts", 20));
+        this.drainIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong("codenvy.outbox.drainInterval", 30)));
+        this.drainBatch = Math.max(1, Integer.getInteger("codenvy.outbox.drainBatch", 20));
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong("codenvy.outbox.lease", 600)));
+        this.retried = new AtomicLong();
+        this.abandoned = new AtomicLong();
+        this.handedOff = new AtomicLong();
+        this.drainRequested = new AtomicBoolean();
+        this.drainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codenvy-factory-outbox");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Called when the plugin has been enabled.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        final Runnable drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drainRequested.set(false);
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    // Never let an error cancel the next drains
+                    LOG.error("Draining the factory outbox failed: " + e.getMessage(), e);
+                }
+            }
+        };
+        drainer.scheduleWithFixedDelay(drainTask, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+        clusterCoordinator.addWorkListener(new Runnable() {
+            @Override
+            public void run() {
+                // Coalesce the announces received while a drain is pending
+                if (drainRequested.compareAndSet(false, true)) {
+                    drainer.execute(drainTask);
+                }
+            }
+        });
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        drainer.shutdownNow();
+    }
+
+    /**
+     * Handle a failed factory generation: store it for a later retry if the failure is transient, drop it otherwise
+     *
+     * @param request
+     *         the issue whose factories could not be generated
+     * @param e
+     *         the cause of the failure
+     */
+    public void failed(FactoryRequest request, Exception e) {
+        if (e instanceof CodenvyThrottledException) {
+            defer(request, e.getMessage());
+        } else if (isRetriable(e)) {
+            schedule(request, e.getMessage());
+        } else {
+            LOG.error("Factory generation for issue " + request.getIssueKey() + " failed: " + e.getMessage());
+            complete(request.getIssueKey());
+        }
+    }
+
+    /**
+     * Store a factory generation for a later retry
+     *
+     * @param request
+     *         the issue whose factories have to be generated
+     * @param error
+     *         why the generation has to be retried
+     */
+    public void schedule(final FactoryRequest request, final String error) {
+        final String issueKey = request.getIssueKey();
+        final String userKey = request.getUser().getKey();
+        final String lastError = truncate(error);
+        ao.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                FactoryOutboxEntry[] entries = ao.find(FactoryOutboxEntry.class, Query.select().where("ISSUE_KEY = ?", issueKey));
+                if (entries.length == 0) {
+                    ao.create(FactoryOutboxEntry.class,
+                              new DBParam("ISSUE_KEY", issueKey),
+                              new DBParam("USER_KEY", userKey),
+                              new DBParam("ATTEMPTS", 1),
+                              new DBParam("NEXT_ATTEMPT_AT", System.currentTimeMillis() + getRetryDelay(1)),
+                              new DBParam("LAST_ERROR", lastError));
+                    LOG.warn("Factory generation for issue " + issueKey + " failed (" + error + "), will be retried.");
+                    return null;
+                }
+
+                final FactoryOutboxEntry entry = entries[0];
+                final int attempts = entry.getAttempts() + 1;
+                if (attempts > maxAttempts) {
+                    ao.delete(entries);
+                    abandoned.incrementAndGet();
+                    LOG.error("Factory generation for issue " + issueKey + " abandoned after " + entry.getAttempts() +
+                              " attempts, last error: " + error);
+                    return null;
+                }
+                entry.setUserKey(userKey);
+                entry.setOwnerNode(null);
+                entry.setAttempts(attempts);
+                entry.setNextAttemptAt(System.currentTimeMillis() + getRetryDelay(attempts));
+                entry.setLastError(lastError);
+                entry.save();
+                LOG.warn("Factory generation for issue " + issueKey + " failed again (" + error + "), attempt " + attempts +
+                         " of " + maxAttempts + ".");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Store a factory generation that was not sent to Codenvy because of a local limit for a later retry, without
+     * counting it as a failed attempt
+     *
+     * @param request
+     *         the issue whose factories have to be generated
+     * @param error
+     *         why the generation has to be retried
+     */
+    private void defer(final FactoryRequest request, final String error) {
+        final String issueKey = request.getIssueKey();
+        final String userKey = request.getUser().getKey();
+        final String lastError = truncate(error);
+        ao.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                FactoryOutboxEntry[] entries = ao.find(FactoryOutboxEntry.class, Query.select().where("ISSUE_KEY = ?", issueKey));
+                if (entries.length == 0) {
+                    ao.create(FactoryOutboxEntry.class,
+                              new DBParam("ISSUE_KEY", issueKey),
+                              new DBParam("USER_KEY", userKey),
+                              new DBParam("ATTEMPTS", 0),
+                              new DBParam("NEXT_ATTEMPT_AT", System.currentTimeMillis() + getRetryDelay(1)),
+                              new DBParam("LAST_ERROR", lastError));
+                } else {
+                    final FactoryOutboxEntry entry = entries[0];
+                    entry.setUserKey(userKey);
+                    entry.setOwnerNode(null);
+                    entry.setNextAttemptAt(System.currentTimeMillis() + getRetryDelay(Math.max(1, entry.getAttempts())));
+                    entry.setLastError(lastError);
+                    entry.save();
+                }
+                LOG.info("Factory generation for issue " + issueKey + " deferred (" + error + "), will be retried.");
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Hand a factory generation this node has no room for over to the outbox, due right away, and tell the other
+     * nodes so that an idle one picks it up
+     *
+     * @param request
+     *         the issue whose factories have to be generated
+     */
+    public void handOff(final FactoryRequest request) {
+        final String issueKey = request.getIssueKey();
+        final String userKey = request.getUser().getKey();
+        ao.executeInTransaction(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                final long now = System.currentTimeMillis();
+                FactoryOutboxEntry[] entries = ao.find(FactoryOutboxEntry.class, Query.select().where("ISSUE_KEY = ?", issueKey));
+                if (entries.length == 0) {
+                    // Not a failure, no attempt is counted
+                    ao.create(FactoryOutboxEntry.class,
+                              new DBParam("ISSUE_KEY", issueKey),
+                              new DBParam("USER_KEY", userKey),
+                              new DBParam("ATTEMPTS", 0),
+                              new DBParam("NEXT_ATTEMPT_AT", now));
+                } else {
+                    entries[0].setUserKey(userKey);
+                    entries[0].setOwnerNode(null);
+                    entries[0].setNextAttemptAt(now);
+                    entries[0].save();
+                }
+                return null;
+            }
+        });
+        handedOff.incrementAndGet();
+        LOG.debug("Factory generation for issue " + issueKey + " handed off to the outbox, the queue is full.");
+        clusterCoordinator.announceWork();
+    }
+
+    /**
+     * Remove the factory generation of an issue from the outbox
+     *
+     * @param issueKey
+     *         the key of the issue
+     */
+    public void complete(final String issueKey) {
+        ao.deleteWithSQL(FactoryOutboxEntry.class, "ISSUE_KEY = ?", issueKey);
+    }
+
+    /**
+     * Retry the factory generations that are due
+     */
+    public void drain() {
+        // Let the queue absorb the fresh issues first
+        if (generationQueue.getQueueDepth() > generationQueue.getCapacity() / 2) {
+            LOG.debug("Factory generation queue is busy, outbox drain postponed.");
+            return;
+        }
+
+        for (final Claim claim : claimDueEntries()) {
+            final Issue issue = issueManager.getIssueObject(claim.issueKey);
+            final ApplicationUser user = claim.userKey == null ? null : jiraUserManager.getUserByKey(claim.userKey);
+            final FactoryRequest request = issue == null || user == null ? null : requestResolver.resolve(issue, user);
+            if (request == null) {
+                LOG.warn("Factory generation for issue " + claim.issueKey + " dropped from outbox, the issue, its user or " +
+                         "its Codenvy fields are gone.");
+                complete(claim.issueKey);
+                continue;
+            }
+
+            retried.incrementAndGet();
+            final Runnable handOff = new Runnable() {
+                @Override
+                public void run() {
+                    handOff(request);
+                }
+            };
+            final boolean accepted = generationQueue.submit(request.getIssueKey(), new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        generator.generate(request);
+                        complete(request.getIssueKey());
+                    } catch (JSONException | IOException e) {
+                        failed(request, e);
+                    } catch (RuntimeException e) {
+                        // Not retriable: the entry is dropped instead of being leased again forever
+                        LOG.error("Factory generation for issue " + request.getIssueKey() + " failed: " + e.getMessage(), e);
+                        failed(request, e);
+                    }
+                }
+            }, handOff);
+            if (!accepted) {
+                handOff.run();
+            }
+        }
+    }
+
+    /**
+     * Get the delay before a given attempt
+     *
+     * @param attempts
+     *         the number of failed attempts
+     * @return the delay in milliseconds, jittered
+     */
+    public long getRetryDelay(int attempts) {
+        long delay = backoffMillis;
+        for (int i = 1; i < attempts && delay < maxBackoffMillis; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoffMillis);
+        final double jitter = 1 + JITTER * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long)(delay * jitter);
+    }
+
+    /**
+     * Get the number of factory generations waiting for a retry
+     *
+     * @return the size of the outbox
+     */
+    public int getSize() {
+        return ao.count(FactoryOutboxEntry.class);
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * Get the number of factory generations handed off to the outbox because the queue was full
+     *
+     * @return the number of generations handed off by this node
+     */
+    public long getHandedOff() {
+        return handedOff.get();
+    }
+
+    /**
+     * Get the number of factory generations being retried by a node
+     *
+     * @return the number of leased generations, on all nodes
+     */
+    public int getLeased() {
+        return ao.count(FactoryOutboxEntry.class, Query.select().where("OWNER_NODE IS NOT NULL AND NEXT_ATTEMPT_AT > ?",
+                                                                        System.currentTimeMillis()));
+    }
+
+    /**
+     * Select the due entries and lease them to this node so that they are not drained twice
+     *
+     * @return the leased entries, none if another node is claiming entries
+     */
+    private List<Claim> claimDueEntries() {
+        // Transactions alone don't keep two nodes from selecting the same entries
+        final Lock claimLock = clusterCoordinator.getLock("outbox.claim");
+        try {
+            if (!claimLock.tryLock(drainIntervalMillis, TimeUnit.MILLISECONDS)) {
+                return new ArrayList<>();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        }
+        try {
+            final String nodeId = clusterCoordinator.getNodeId();
+            return ao.executeInTransaction(new TransactionCallback<List<Claim>>() {
+                @Override
+                public List<Claim> doInTransaction() {
+                    final long now = System.currentTimeMillis();
+                    final FactoryOutboxEntry[] entries = ao.find(FactoryOutboxEntry.class,
+                                                                 Query.select()
+                                                                      .where("NEXT_ATTEMPT_AT <= ?", now)
+                                                                      .order("NEXT_ATTEMPT_AT ASC")
+                                                                      .limit(drainBatch));
+                    final List<Claim> claims = new ArrayList<>(entries.length);
+                    for (FactoryOutboxEntry entry : entries) {
+                        if (entry.getOwnerNode() != null) {
+                            // The node crashed or the generation never ended, counted as a failed attempt
+                            final int attempts = entry.getAttempts() + 1;
+                            if (attempts > maxAttempts) {
+                                ao.delete(entry);
+                                abandoned.incrementAndGet();
+                                LOG.error("Factory generation for issue " + entry.getIssueKey() + " abandoned after " +
+                                          entry.getAttempts() + " attempts, its last lease by node " +
+                                          entry.getOwnerNode() + " expired.");
+                                continue;
+                            }
+                            entry.setAttempts(attempts);
+                            LOG.info("Lease of the factory generation for issue " + entry.getIssueKey() + " by node " +
+                                     entry.getOwnerNode() + " expired, retrying it.");
+                        }
+                        // Retried by another node, or this one after a restart, if the generation doesn't complete
+                        entry.setOwnerNode(nodeId);
+                        entry.setNextAttemptAt(now + leaseMillis);
+                        entry.save();
+                        claims.add(new Claim(entry.getIssueKey(), entry.getUserKey()));
+                    }
+                    return claims;
+                }
+            });
+        } finally {
+            claimLock.unlock();
+        }
+    }
+
+    /**
+     * Tell if a failed generation is worth a retry: Codenvy couldn't be reached, is overloaded or failed, the requests
+     * rejected for good (4xx) are not retried
+     */
+    private static boolean isRetriable(Exception e) {
+        if (e instanceof CodenvyHttpException) {
+            final int status = ((CodenvyHttpException)e).getStatus();
+            return status >= 500 || status == 401 || status == 408 || status == 429;
+        }
+        return e instanceof IOException;
+    }
+
+    private static String truncate(String error) {
+        return error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    private static final class Claim {
+        private final String issueKey;
+        private final String userKey;
+
+        private Claim(String issueKey, String userKey) {
+            this.issueKey = issueKey;
+            this.userKey = userKey;
+        }
+    }
+}
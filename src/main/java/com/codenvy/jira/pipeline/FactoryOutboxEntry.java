@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import net.java.ao.Entity;
+import net.java.ao.schema.Indexed;
+import net.java.ao.schema.NotNull;
+import net.java.ao.schema.Table;
+
+/**
+ * Factory generation waiting in the outbox to be retried
+ */
+@Table("FACTORY_OUTBOX")
+public interface FactoryOutboxEntry extends Entity {
+
+    @NotNull
+    @Indexed
+    String getIssueKey();
+
+    void setIssueKey(String issueKey);
+
+    /**
+     * Get the key of the JIRA user the issue is updated with
+     *
+     * @return the user key
+     */
+    String getUserKey();
+
+    void setUserKey(String userKey);
+
+    int getAttempts();
+
+    void setAttempts(int attempts);
+
+    /**
+     * Get when the generation is due
+     *
+     * @return epoch milliseconds of the next attempt
+     */
+    @Indexed
+    long getNextAttemptAt();
+
+    void setNextAttemptAt(long nextAttemptAt);
+
+    /**
+     * Get the node the generation is leased to
+     *
+     * @return the id of the node retrying the generation, {@code null} if it is waiting for its next attempt
+     */
+    String getOwnerNode();
+
+    void setOwnerNode(String ownerNode);
+
+    String getLastError();
+
+    void setLastError(String lastError);
+}
@@ -0,0 +1,412 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.pipeline;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.issue.search.SearchProvider;
+import com.atlassian.jira.jql.builder.JqlQueryBuilder;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyJson.NamedFactory;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the factories left on Codenvy by the plugin that no issue uses anymore and hands them to the
+ * {@link FactoryCollector}.
+ * <p/>
+ * Every {@code codenvy.orphans.interval} hours (default 24, 0 to only run it from the administration page) the
+ * factories created by the Codenvy user of the plugin are read by pages of {@code codenvy.orphans.pageSize} factories
+ * (default 100). The Develop and Review factories of a page are checked against JIRA and the factory index at once: a
+ * factory is an orphan if its issue was deleted or moved to another key, or if the index records other factories for
+ * its issue, unless another issue shares it. The next page is only read once the collector has deleted all the
+ * orphans found so far, so that the deleted factories no longer shift the pages and the deletion rate is the one of
+ * the collector ({@code codenvy.gc.batchSize} and {@code codenvy.gc.interval}). The scan stops if the collector
+ * deletes nothing for {@code codenvy.orphans.stallTimeout} seconds (default 300), e.g. while Codenvy is down.
+ * <p/>
+ * On a JIRA cluster a single node runs the scan at a time.
+ */
+public class OrphanFactoryCollector implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OrphanFactoryCollector.class);
+
+    private static final long    AWAIT_INTERVAL_MILLIS = 100;
+    private static final Pattern ISSUE_FACTORY_NAME    = Pattern.compile("(.+)-(develop|review)-factory");
+
+    private final CodenvySettingsService   settingsService;
+    private final CodenvyClient            client;
+    private final IssueManager             issueManager;
+    private final SearchProvider           searchProvider;
+    private final IssueFactoryIndex        index;
+    private final FactoryCollector         collector;
+    private final ClusterCoordinator       clusterCoordinator;
+    private final long                     intervalMillis;
+    private final int                      pageSize;
+    private final long                     stallTimeoutMillis;
+    private final AtomicBoolean            running;
+    private final AtomicLong               scanned;
+    private final AtomicLong               orphans;
+    private final AtomicLong               totalOrphans;
+    private final ScheduledExecutorService scanner;
+    private volatile long                  lastStartedAt;
+    private volatile long                  lastEndedAt;
+    private volatile String                error;
+
+    /**
+     * Constructor.
+     *
+     * @param settingsService
+     *         holder of the Codenvy settings.
+     * @param client
+     *         client of the Codenvy API.
+     * @param issueManager
+     *         service to get JIRA issues.
+     * @param searchProvider
+     *         service to get the JIRA issues of a page at once.
+     * @param index
+     *         index of the factories generated for each issue.
+     * @param collector
+     *         deletes the orphan factories.
+     * @param clusterCoordinator
+     *         keeps two nodes from scanning at the same time.
+     */
+    public OrphanFactoryCollector(CodenvySettingsService settingsService, CodenvyClient client,
+                                  IssueManager issueManager, SearchProvider searchProvider, IssueFactoryIndex index,
+                                  FactoryCollector collector, ClusterCoordinator clusterCoordinator) {
+        this.settingsService = settingsService;
+        this.client = client;
+        this.issueManager = issueManager;
+        this.searchProvider = searchProvider;
+        this.index = index;
+        this.collector = collector;
+        this.clusterCoordinator = clusterCoordinator;
+        this.intervalMillis = TimeUnit.HOURS.toMillis(Math.max(0, Long.getLong("codenvy.orphans.interval", 24)));
+        this.pageSize = Math.max(1, Integer.getInteger("codenvy.orphans.pageSize", 100));
+        this.stallTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong("codenvy.orphans.stallTimeout", 300)));
+        this.running = new AtomicBoolean();
+        this.scanned = new AtomicLong();
+        this.orphans = new AtomicLong();
+        this.totalOrphans = new AtomicLong();
+        this.scanner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "codenvy-orphan-factories");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Called when the plugin has been enabled.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (intervalMillis > 0) {
+            // Not right at startup, but not a whole interval later either in case JIRA is restarted daily
+            final long initialDelay = Math.min(intervalMillis, TimeUnit.HOURS.toMillis(1));
+            scanner.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    scan();
+                }
+            }, initialDelay, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        scanner.shutdownNow();
+    }
+
+    /**
+     * Start a scan in the background
+     *
+     * @throws IllegalStateException
+     *         if a scan is already running on this node
+     */
+    public void start() {
+        if (running.get()) {
+            throw new IllegalStateException("Unused factories are already being searched.");
+        }
+        scanner.execute(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        });
+    }
+
+    /**
+     * Find the orphan factories on Codenvy and queue them for deletion
+     */
+    public void scan() {
+        final CodenvySettings settings = settingsService.get();
+        if (!settings.isComplete() || !running.compareAndSet(false, true)) {
+            return;
+        }
+        final Lock lock = clusterCoordinator.getLock("orphans");
+        if (!lock.tryLock()) {
+            running.set(false);
+            LOG.debug("Unused factories are being searched by another node.");
+            return;
+        }
+        try {
+            lastStartedAt = System.currentTimeMillis();
+            scanned.set(0);
+            orphans.set(0);
+            error = null;
+            final Set<String> collected = new HashSet<>();
+            int skipCount = 0;
+            List<NamedFactory> page;
+            do {
+                page = findFactories(settings, skipCount);
+                scanned.addAndGet(page.size());
+                int pageOrphans = 0;
+                for (String factoryId : findOrphans(page)) {
+                    if (!collected.add(factoryId)) {
+                        // Read again because it was not deleted yet
+                        continue;
+                    }
+                    if (!collector.collect(factoryId)) {
+                        break;
+                    }
+                    pageOrphans++;
+                    orphans.incrementAndGet();
+                    totalOrphans.incrementAndGet();
+                }
+                awaitCollector();
+                // The orphans of the page are deleted, the factories after them moved up by as many places. The ones
+                // Codenvy refused to delete are read again and skipped rather than pushing unseen factories out of reach.
+                skipCount += page.size() - pageOrphans;
+            } while (page.size() == pageSize);
+            LOG.info(orphans.get() + " unused factories found among the " + scanned.get() + " factories on Codenvy.");
+        } catch (IOException | JSONException e) {
+            error = e.getMessage();
+            LOG.warn("Searching unused factories failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // Never let an error cancel the next scans
+            error = e.getMessage();
+            LOG.error("Searching unused factories failed: " + e.getMessage(), e);
+        } finally {
+            lastEndedAt = System.currentTimeMillis();
+            lock.unlock();
+            running.set(false);
+        }
+    }
+
+    /**
+     * Select the factories of a page that no issue uses
+     *
+     * @param page
+     *         factories found on Codenvy
+     * @return the ids of the orphan factories
+     */
+    public List<String> findOrphans(List<NamedFactory> page) {
+        final Map<String, List<String>> factoriesByIssue = new LinkedHashMap<>();
+        for (NamedFactory factory : page) {
+            final Matcher matcher = factory.getName() == null ? null : ISSUE_FACTORY_NAME.matcher(factory.getName());
+            if (factory.getId() == null || matcher == null || !matcher.matches()) {
+                // Parent factories and factories not made by the plugin
+                continue;
+            }
+            List<String> factoryIds = factoriesByIssue.get(matcher.group(1));
+            if (factoryIds == null) {
+                factoryIds = new ArrayList<>();
+                factoriesByIssue.put(matcher.group(1), factoryIds);
+            }
+            factoryIds.add(factory.getId());
+        }
+
+        final Map<String, IssueFactories> indexed = index.getAll(factoriesByIssue.keySet());
+        final Map<String, Issue> issues = findIssues(factoriesByIssue.keySet());
+        final List<String> orphanIds = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : factoriesByIssue.entrySet()) {
+            Issue issue = issues.get(entry.getKey());
+            if (issue == null) {
+                // Deleted or moved, unless the search index lags behind the database
+                issue = issueManager.getIssueObject(entry.getKey());
+            }
+            final IssueFactories factories = indexed.get(entry.getKey());
+            for (String factoryId : entry.getValue()) {
+                if (issue == null || !entry.getKey().equals(issue.getKey()) || isSuperseded(factoryId, factories)) {
+                    orphanIds.add(factoryId);
+                }
+            }
+        }
+        // Factories shared with sub-tasks or linked issues are still used after their own issue is gone
+        orphanIds.removeAll(index.getReferenced(orphanIds));
+        return orphanIds;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Get the number of factories read during the last scan
+     *
+     * @return the number of factories created by the plugin user on Codenvy
+     */
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    /**
+     * Get the number of orphan factories found during the last scan
+     *
+     * @return the number of factories queued for deletion
+     */
+    public long getOrphans() {
+        return orphans.get();
+    }
+
+    /**
+     * Get the number of orphan factories found since the plugin was enabled
+     *
+     * @return the number of factories queued for deletion by all scans
+     */
+    public long getTotalOrphans() {
+        return totalOrphans.get();
+    }
+
+    public long getLastStartedAt() {
+        return lastStartedAt;
+    }
+
+    public long getLastEndedAt() {
+        return lastEndedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Get the issues of some keys with a single search, whatever the permissions on their projects
+     *
+     * @param issueKeys
+     *         the keys of the issues
+     * @return the issues found by their current key, moved issues are found by their new key only
+     */
+    protected Map<String, Issue> findIssues(Collection<String> issueKeys) {
+        final Map<String, Issue> issues = new HashMap<>();
+        if (issueKeys.isEmpty()) {
+            return issues;
+        }
+        final ApplicationUser searcher = null;
+        try {
+            for (Issue issue : searchProvider.searchOverrideSecurity(
+                    JqlQueryBuilder.newBuilder().where().issue(issueKeys.toArray(new String[issueKeys.size()])).buildQuery(),
+                    searcher, new PagerFilter(issueKeys.size()), null).getIssues()) {
+                issues.put(issue.getKey(), issue);
+            }
+        } catch (SearchException e) {
+            // The issues are then checked one by one
+            LOG.warn("Searching the issues of " + issueKeys.size() + " factories failed: " + e.getMessage());
+        }
+        return issues;
+    }
+
+    /**
+     * Read a page of the factories created by the plugin user
+     *
+     * @param settings
+     *         the Codenvy settings
+     * @param skipCount
+     *         the number of factories already read
+     * @return the factories of the page
+     * @throws IOException
+     * @throws JSONException
+     */
+    protected List<NamedFactory> findFactories(CodenvySettings settings, final int skipCount)
+            throws IOException, JSONException {
+        return CodenvyClient.await(client.execute(settings.getInstanceUrl(), settings.getUsername(),
+                                                  settings.getPassword(),
+                                                  session -> client.findFactories(session, skipCount, pageSize)));
+    }
+
+    /**
+     * Tell if a factory was replaced by other factories for its issue, for instance by a generation retried after
+     * its first factories could not be deleted
+     */
+    private static boolean isSuperseded(String factoryId, IssueFactories factories) {
+        // The factories of an issue without a fresh index entry may still be stored in the issue
+        return factories != null && factories.hasFactories() && !factoryId.equals(factories.getDevelopFactoryId()) &&
+               !factoryId.equals(factories.getReviewFactoryId());
+    }
+
+    /**
+     * Wait for the collector to delete all the queued factories before reading the next page
+     *
+     * @throws IOException
+     *         if the collector deleted nothing for {@code codenvy.orphans.stallTimeout} seconds
+     */
+    private void awaitCollector() throws IOException, InterruptedException {
+        int pending = collector.getPending();
+        long handled = collector.getDeleted() + collector.getFailed();
+        long progressAt = System.currentTimeMillis();
+        while (pending > 0) {
+            Thread.sleep(AWAIT_INTERVAL_MILLIS);
+            final int stillPending = collector.getPending();
+            final long nowHandled = collector.getDeleted() + collector.getFailed();
+            // Factories queued meanwhile by deleted issues may keep the count up while the collector works
+            if (stillPending < pending || nowHandled > handled) {
+                progressAt = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - progressAt > stallTimeoutMillis) {
+                throw new IOException(stillPending + " factories still waiting to be deleted after " +
+                                      TimeUnit.MILLISECONDS.toSeconds(stallTimeoutMillis) + " seconds, scan stopped.");
+            }
+            pending = stillPending;
+            handled = nowHandled;
+        }
+    }
+}
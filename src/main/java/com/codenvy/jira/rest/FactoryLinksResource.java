@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.rest;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.issue.search.SearchResults;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.codenvy.jira.customfield.FactoryLinkRenderer;
+import com.codenvy.jira.factory.CodenvyFieldResolver;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service to look up the factory links of many issues at once, given their keys or a JQL query
+ * <p/>
+ * Links are read from the {@link IssueFactoryIndex} with a single query per page, and from the Develop and Review fields
+ * of the issues that aren't indexed. Pages hold at most {@code codenvy.links.maxResults} issues (default 1000) and are
+ * tagged with an ETag, so that clients polling the links of the same issues get a 304 while they don't change.
+ */
+@Path("/links")
+public class FactoryLinksResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryLinksResource.class);
+
+    private final JiraAuthenticationContext authenticationContext;
+    private final IssueService              issueService;
+    private final SearchService             searchService;
+    private final CustomFieldManager        customFieldManager;
+    private final CodenvyFieldResolver      fieldResolver;
+    private final IssueFactoryIndex         index;
+    private final int                       maxResultsLimit;
+
+    public FactoryLinksResource(JiraAuthenticationContext authenticationContext, IssueService issueService,
+                                SearchService searchService, CustomFieldManager customFieldManager,
+                                CodenvyFieldResolver fieldResolver, IssueFactoryIndex index) {
+        this.authenticationContext = authenticationContext;
+        this.issueService = issueService;
+        this.searchService = searchService;
+        this.customFieldManager = customFieldManager;
+        this.fieldResolver = fieldResolver;
+        this.index = index;
+        this.maxResultsLimit = Math.max(1, Integer.getInteger("codenvy.links.maxResults", 1000));
+    }
+
+    /**
+     * Get the factory links of a page of issues, without calling Codenvy
+     *
+     * @param issueKeys the keys of the issues, issues that don't exist or can't be seen are left out of the page
+     * @param jql the query matching the issues, used if no key is given
+     * @param startAt the index of the first issue of the page
+     * @param maxResults the maximum number of issues of the page
+     * @param request the HTTP request, checked against the ETag of the page
+     * @return the links of the issues of the page, 304 if they didn't change since the ETag sent by the client, 400 if
+     * neither keys nor a valid query are given or 401 if not logged in
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@QueryParam("key") List<String> issueKeys, @QueryParam("jql") String jql,
+                        @QueryParam("startAt") @DefaultValue("0") int startAt,
+                        @QueryParam("maxResults") @DefaultValue("100") int maxResults, @Context Request request) {
+        final ApplicationUser user = authenticationContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        if (startAt < 0 || maxResults < 1) {
+            return Response.status(Status.BAD_REQUEST).entity("startAt must be positive and maxResults at least 1.").build();
+        }
+        final int pageSize = Math.min(maxResults, maxResultsLimit);
+
+        final List<Issue> issues = new ArrayList<>();
+        final int total;
+        if (issueKeys != null && !issueKeys.isEmpty()) {
+            final List<String> keys = new ArrayList<>(new LinkedHashSet<>(issueKeys));
+            total = keys.size();
+            for (String issueKey : keys.subList(Math.min(startAt, total), Math.min(startAt + pageSize, total))) {
+                final IssueService.IssueResult result = issueService.getIssue(user, issueKey);
+                if (result.isValid() && result.getIssue() != null) {
+                    issues.add(result.getIssue());
+                }
+            }
+        } else if (jql != null && !jql.trim().isEmpty()) {
+            final SearchService.ParseResult parseResult = searchService.parseQuery(user, jql);
+            if (!parseResult.isValid()) {
+                return Response.status(Status.BAD_REQUEST).entity("Invalid JQL query '" + jql + "': " +
+                                                                  parseResult.getErrors().getErrorMessages()).build();
+            }
+            try {
+                final SearchResults results = searchService.search(user, parseResult.getQuery(),
+                                                                   new PagerFilter(startAt, pageSize));
+                issues.addAll(results.getIssues());
+                total = results.getTotal();
+            } catch (SearchException e) {
+                LOG.error("Search of the factory links of '" + jql + "' failed: " + e.getMessage(), e);
+                return Response.status(Status.BAD_REQUEST).entity("JQL query '" + jql + "' failed: " + e.getMessage())
+                               .build();
+            }
+        } else {
+            return Response.status(Status.BAD_REQUEST).entity("Either issue keys or a JQL query are required.").build();
+        }
+
+        final FactoryLinksPage page = new FactoryLinksPage();
+        page.startAt = startAt;
+        page.maxResults = pageSize;
+        page.total = total;
+        page.issues = getLinks(user, issues);
+
+        final EntityTag etag = new EntityTag(digest(page));
+        final CacheControl cacheControl = new CacheControl();
+        cacheControl.setPrivate(true);
+        cacheControl.setNoCache(true);
+        final Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.cacheControl(cacheControl).build();
+        }
+        return Response.ok(page).tag(etag).cacheControl(cacheControl).build();
+    }
+
+    /**
+     * Get the factory links of issues, from the index or else from their fields
+     */
+    private List<IssueLinks> getLinks(ApplicationUser user, List<Issue> issues) {
+        final List<String> keys = new ArrayList<>(issues.size());
+        for (Issue issue : issues) {
+            keys.add(issue.getKey());
+        }
+        final Map<String, IssueFactories> indexed = index.getAll(keys);
+
+        final List<IssueLinks> links = new ArrayList<>(issues.size());
+        for (Issue issue : issues) {
+            final IssueLinks issueLinks = new IssueLinks();
+            issueLinks.issueKey = issue.getKey();
+            final IssueFactories factories = indexed.get(issue.getKey());
+            if (factories != null) {
+                // The factories of a stale entry are the ones of the former project of the issue
+                if (!factories.isStale()) {
+                    issueLinks.developUrl = factories.getDevelopUrl();
+                    issueLinks.reviewUrl = factories.getReviewUrl();
+                }
+            } else {
+                try {
+                    final CodenvyFieldResolver.CodenvyFields fields = fieldResolver.resolve(user, issue);
+                    issueLinks.developUrl = getStoredUrl(issue, fields.getDevelopFieldId());
+                    issueLinks.reviewUrl = getStoredUrl(issue, fields.getReviewFieldId());
+                } catch (FieldException e) {
+                    LOG.warn("Codenvy fields of issue " + issue.getKey() + " could not be read: " + e.getMessage());
+                }
+            }
+            links.add(issueLinks);
+        }
+        return links;
+    }
+
+    private String getStoredUrl(Issue issue, String fieldId) {
+        final CustomField field = fieldId == null ? null : customFieldManager.getCustomFieldObject(fieldId);
+        final Object value = field == null ? null : issue.getCustomFieldValue(field);
+        return value == null ? null : FactoryLinkRenderer.getUrl(value.toString());
+    }
+
+    private static String digest(FactoryLinksPage page) {
+        final StringBuilder content = new StringBuilder();
+        content.append(page.startAt).append(':').append(page.maxResults).append(':').append(page.total);
+        for (IssueLinks links : page.issues) {
+            content.append('\n').append(links.issueKey).append(' ').append(links.developUrl).append(' ')
+                   .append(links.reviewUrl);
+        }
+        try {
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-1").digest(content.toString().getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class FactoryLinksPage {
+        @XmlElement
+        private int              startAt;
+        @XmlElement
+        private int              maxResults;
+        @XmlElement
+        private int              total;
+        @XmlElement
+        private List<IssueLinks> issues;
+
+        public int getStartAt() {
+            return startAt;
+        }
+
+        public int getMaxResults() {
+            return maxResults;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public List<IssueLinks> getIssues() {
+            return issues;
+        }
+    }
+
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class IssueLinks {
+        @XmlElement
+        private String issueKey;
+        @XmlElement
+        private String developUrl;
+        @XmlElement
+        private String reviewUrl;
+
+        public String getIssueKey() {
+            return issueKey;
+        }
+
+        public String getDevelopUrl() {
+            return developUrl;
+        }
+
+        public String getReviewUrl() {
+            return reviewUrl;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.rest;
+
+import us.monoid.json.JSONException;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.factory.OnDemandFactoryGenerator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Locale;
+
+/**
+ * Service to look up and open the factories of an issue, generating them on first use in lazy generation mode.
+ * <p/>
+ * Opening a factory with GET never calls Codenvy, the generation is a POST sent by the link of the factory field.
+ */
+@Path("/factories")
+public class FactoryResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FactoryResource.class);
+
+    private static final String XSRF_HEADER   = "X-Atlassian-Token";
+    private static final String XSRF_NO_CHECK = "no-check";
+
+    private final JiraAuthenticationContext authenticationContext;
+    private final IssueService              issueService;
+    private final OnDemandFactoryGenerator  onDemandGenerator;
+    private final IssueFactoryIndex         index;
+
+    public FactoryResource(JiraAuthenticationContext authenticationContext, IssueService issueService,
+                           OnDemandFactoryGenerator onDemandGenerator, IssueFactoryIndex index) {
+        this.authenticationContext = authenticationContext;
+        this.issueService = issueService;
+        this.onDemandGenerator = onDemandGenerator;
+        this.index = index;
+    }
+
+    /**
+     * Get the factories generated for an issue, without calling Codenvy
+     *
+     * @param issueKey the key of the issue
+     * @return the ids and URLs of the factories, 401 if not logged in or 404 if the issue can't be seen or has no
+     * factories
+     */
+    @GET
+    @Path("/{issueKey}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response get(@PathParam("issueKey") String issueKey) {
+        final ApplicationUser user = authenticationContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        final IssueService.IssueResult result = issueService.getIssue(user, issueKey);
+        if (!result.isValid() || result.getIssue() == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        // The issue key may have been given in lower case
+        final IssueFactories factories = index.get(result.getIssue().getKey());
+        if (factories == null || factories.isStale()) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        IssueFactoryLinks links = new IssueFactoryLinks();
+        links.issueKey = factories.getIssueKey();
+        links.developFactoryId = factories.getDevelopFactoryId();
+        links.developUrl = factories.getDevelopUrl();
+        links.reviewFactoryId = factories.getReviewFactoryId();
+        links.reviewUrl = factories.getReviewUrl();
+        return Response.ok(links).build();
+    }
+
+    /**
+     * Redirect to a factory of an issue, without generating it
+     *
+     * @param issueKey the key of the issue
+     * @param kind the factory to open, DEVELOP or REVIEW
+     * @return HTTP 303 to the factory, 401 if not logged in or 404 if the issue can't be seen or its factories haven't
+     * been generated
+     */
+    @GET
+    @Path("/{issueKey}/{kind}")
+    public Response open(@PathParam("issueKey") String issueKey, @PathParam("kind") String kind) {
+        final ApplicationUser user = authenticationContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        final OnDemandFactoryGenerator.Kind factoryKind = toKind(kind);
+        final IssueService.IssueResult result = issueService.getIssue(user, issueKey);
+        if (factoryKind == null || !result.isValid() || result.getIssue() == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        final String factoryUrl = onDemandGenerator.findFactoryUrl(result.getIssue(), user, factoryKind);
+        if (factoryUrl == null) {
+            return Response.status(Status.NOT_FOUND).entity("Codenvy factories of issue " + issueKey +
+                                                            " have not been generated.").build();
+        }
+        return Response.seeOther(URI.create(factoryUrl)).build();
+    }
+
+    /**
+     * Generate the factories of an issue if they don't exist yet and get the URL of one of them
+     * <p/>
+     * The call has to carry the {@value #XSRF_HEADER} header, which cross-site forms and links can't set, so that
+     * factories are only generated when a user asks for them.
+     *
+     * @param issueKey the key of the issue
+     * @param kind the factory to open, DEVELOP or REVIEW
+     * @param xsrfToken the value of the {@value #XSRF_HEADER} header, {@value #XSRF_NO_CHECK}
+     * @return the URL of the factory, 401 if not logged in, 403 if the XSRF header is missing, 404 if the issue can't
+     * be seen or has no factories or 503 if Codenvy could not generate them
+     */
+    @POST
+    @Path("/{issueKey}/{kind}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response generate(@PathParam("issueKey") String issueKey, @PathParam("kind") String kind,
+                             @HeaderParam(XSRF_HEADER) String xsrfToken) {
+        final ApplicationUser user = authenticationContext.getLoggedInUser();
+        if (user == null) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+        if (!XSRF_NO_CHECK.equals(xsrfToken)) {
+            return Response.status(Status.FORBIDDEN).entity("XSRF check failed.").build();
+        }
+        final OnDemandFactoryGenerator.Kind factoryKind = toKind(kind);
+        // Only users who can see the issue may generate its factories
+        final IssueService.IssueResult result = issueService.getIssue(user, issueKey);
+        if (factoryKind == null || !result.isValid() || result.getIssue() == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+
+        final String factoryUrl;
+        try {
+            factoryUrl = onDemandGenerator.getFactoryUrl(result.getIssue(), user, factoryKind);
+        } catch (IOException | JSONException e) {
+            LOG.error("Factory generation for issue " + issueKey + " failed: " + e.getMessage(), e);
+            return Response.status(Status.SERVICE_UNAVAILABLE).entity("Codenvy factories of issue " + issueKey +
+                                                                      " could not be generated: " + e.getMessage()).build();
+        }
+        if (factoryUrl == null) {
+            return Response.status(Status.NOT_FOUND).entity("Codenvy factories are not available for issue " + issueKey +
+                                                            ".").build();
+        }
+        FactoryLink link = new FactoryLink();
+        link.url = factoryUrl;
+        return Response.ok(link).build();
+    }
+
+    private static OnDemandFactoryGenerator.Kind toKind(String kind) {
+        try {
+            return OnDemandFactoryGenerator.Kind.valueOf(kind.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class FactoryLink {
+        @XmlElement
+        private String url;
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    @XmlRootElement
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static final class IssueFactoryLinks {
+        @XmlElement
+        private String issueKey;
+        @XmlElement
+        private String developFactoryId;
+        @XmlElement
+        private String developUrl;
+        @XmlElement
+        private String reviewFactoryId;
+        @XmlElement
+        private String reviewUrl;
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.settings;
+
+import java.util.Objects;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+/**
+ * Immutable snapshot of the Codenvy settings saved on the admin page
+ */
+public final class CodenvySettings {
+
+    public static final String INSTANCE_URL = "codenvy.admin.instanceurl";
+    public static final String USERNAME     = "codenvy.admin.username";
+    public static final String PASSWORD     = "codenvy.admin.password";
+    public static final String LAZY         = "codenvy.admin.lazy";
+    public static final String SHARE_PARENT = "codenvy.admin.shareParent";
+    public static final String SHARE_LINK   = "codenvy.admin.shareLink";
+
+    private final String  instanceUrl;
+    private final String  username;
+    private final String  password;
+    private final boolean lazy;
+    private final boolean shareParent;
+    private final String  shareLinkType;
+
+    public CodenvySettings(String instanceUrl, String username, String password) {
+        this(instanceUrl, username, password, false);
+    }
+
+    public CodenvySettings(String instanceUrl, String username, String password, boolean lazy) {
+        this(instanceUrl, username, password, lazy, false, null);
+    }
+
+    public CodenvySettings(String instanceUrl, String username, String password, boolean lazy, boolean shareParent,
+                           String shareLinkType) {
+        this.instanceUrl = instanceUrl;
+        this.username = username;
+        this.password = password;
+        this.lazy = lazy;
+        this.shareParent = shareParent;
+        this.shareLinkType = isNullOrEmpty(shareLinkType) ? null : shareLinkType.trim();
+    }
+
+    public String getInstanceUrl() {
+        return instanceUrl;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    /**
+     * Tell if factories are generated the first time a user opens them rather than when the issue is created
+     *
+     * @return {@code true} if factories are generated on demand
+     */
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Tell if sub-tasks use the factories of their parent issue instead of having their own
+     *
+     * @return {@code true} if sub-tasks share the factories of their parent
+     */
+    public boolean isShareParent() {
+        return shareParent;
+    }
+
+    /**
+     * Get the type of the issue links whose issues share their factories, the issue the link is created from using the
+     * factories of the other one
+     *
+     * @return the name of the link type or {@code null} if linked issues have their own factories
+     */
+    public String getShareLinkType() {
+        return shareLinkType;
+    }
+
+    /**
+     * Tell if the plugin can call Codenvy with these settings
+     *
+     * @return {@code false} if the URL, username or password is not set or empty
+     */
+    public boolean isComplete() {
+        return !isNullOrEmpty(instanceUrl) && !isNullOrEmpty(username) && !isNullOrEmpty(password);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CodenvySettings)) {
+            return false;
+        }
+        CodenvySettings other = (CodenvySettings)o;
+        return Objects.equals(instanceUrl, other.instanceUrl) && Objects.equals(username, other.username) &&
+               Objects.equals(password, other.password) && lazy == other.lazy && shareParent == other.shareParent &&
+               Objects.equals(shareLinkType, other.shareLinkType);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(instanceUrl, username, password, lazy, shareParent, shareLinkType);
+    }
+}
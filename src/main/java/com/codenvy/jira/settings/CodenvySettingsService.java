@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package com.codenvy.jira.settings;
+
+import com.atlassian.jira.cluster.ClusterMessageConsumer;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.codenvy.jira.factory.ParentFactoryCache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the Codenvy settings in memory so that they are read from the settings store only when they change.
+ * <p/>
+ * The snapshot is replaced atomically when the settings are saved. On a JIRA cluster the other nodes are told to reload
+ * their snapshot through the cluster messaging service.
+ */
+public class CodenvySettingsService implements InitializingBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CodenvySettingsService.class);
+
+    /** Cluster channel names are limited to 20 characters */
+    static final String CHANNEL = "codenvy-settings";
+
+    private final PluginSettingsFactory            pluginSettingsFactory;
+    private final TransactionTemplate              transactionTemplate;
+    private final ClusterMessagingService          clusterMessagingService;
+    private final ParentFactoryCache               parentFactoryCache;
+    private final AtomicReference<CodenvySettings> snapshot;
+    private final ClusterMessageConsumer           reloadConsumer;
+
+    /**
+     * Constructor.
+     *
+     * @param pluginSettingsFactory
+     *         factory to get globally saved settings.
+     * @param transactionTemplate
+     *         runs the settings updates in a transaction.
+     * @param clusterMessagingService
+     *         tells the other nodes of the cluster that the settings changed.
+     * @param parentFactoryCache
+     *         cache of parent factories, cleared when the settings change.
+     */
+    public CodenvySettingsService(PluginSettingsFactory pluginSettingsFactory, TransactionTemplate transactionTemplate,
+                                  ClusterMessagingService clusterMessagingService, ParentFactoryCache parentFactoryCache) {
+        this.pluginSettingsFactory = pluginSettingsFactory;
+        this.transactionTemplate = transactionTemplate;
+        this.clusterMessagingService = clusterMessagingService;
+        this.parentFactoryCache = parentFactoryCache;
+        this.snapshot = new AtomicReference<>();
+        // The cluster messaging service only keeps a weak reference to its listeners
+        this.reloadConsumer = new ClusterMessageConsumer() {
+            @Override
+            public void receive(String channel, String message, String senderId) {
+                LOG.debug("Codenvy settings changed on node " + senderId + ", reloading.");
+                reload();
+            }
+        };
+    }
+
+    /**
+     * Called when the plugin has been enabled.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        clusterMessagingService.registerListener(CHANNEL, reloadConsumer);
+    }
+
+    /**
+     * Called when the plugin is being disabled or removed.
+     *
+     * @throws Exception
+     */
+    @Override
+    public void destroy() throws Exception {
+        clusterMessagingService.unregisterListener(CHANNEL, reloadConsumer);
+    }
+
+    /**
+     * Get the current settings
+     *
+     * @return the settings, never {@code null}
+     */
+    public CodenvySettings get() {
+        CodenvySettings settings = snapshot.get();
+        if (settings == null) {
+            settings = load();
+            if (!snapshot.compareAndSet(null, settings)) {
+                settings = snapshot.get();
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * Save new settings and make them visible to every node
+     *
+     * @param settings
+     *         the settings to save
+     */
+    public void save(final CodenvySettings settings) {
+        transactionTemplate.execute(new TransactionCallback<Void>() {
+            @Override
+            public Void doInTransaction() {
+                PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
+                pluginSettings.put(CodenvySettings.INSTANCE_URL, settings.getInstanceUrl());
+                pluginSettings.put(CodenvySettings.USERNAME, settings.getUsername());
+                pluginSettings.put(CodenvySettings.PASSWORD, settings.getPassword());
+                pluginSettings.put(CodenvySettings.LAZY, String.valueOf(settings.isLazy()));
+                pluginSettings.put(CodenvySettings.SHARE_PARENT, String.valueOf(settings.isShareParent()));
+                pluginSettings.put(CodenvySettings.SHARE_LINK, settings.getShareLinkType());
+                return null;
+            }
+        });
+        update(settings);
+        clusterMessagingService.sendRemote(CHANNEL, "saved");
+    }
+
+    /**
+     * Read the settings from the settings store again
+     */
+    public void reload() {
+        update(load());
+    }
+
+    private void update(CodenvySettings settings) {
+        final CodenvySettings previous = snapshot.getAndSet(settings);
+        if (previous != null && !previous.equals(settings)) {
+            // Cached parent factories may belong to another Codenvy instance or user
+            parentFactoryCache.invalidateAll();
+        }
+    }
+
+    private CodenvySettings load() {
+        PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
+        return new CodenvySettings((String)pluginSettings.get(CodenvySettings.INSTANCE_URL),
+                                   (String)pluginSettings.get(CodenvySettings.USERNAME),
+                                   (String)pluginSettings.get(CodenvySettings.PASSWORD),
+                                   Boolean.parseBoolean((String)pluginSettings.get(CodenvySettings.LAZY)),
+                                   Boolean.parseBoolean((String)pluginSettings.get(CodenvySettings.SHARE_PARENT)),
+                                   (String)pluginSettings.get(CodenvySettings.SHARE_LINK));
+    }
+}
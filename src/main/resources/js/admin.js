@@ -20,6 +20,9 @@ AJS.toInit(function() {
                 AJS.$("#instanceUrl").attr("value", config.instanceUrl);
                 AJS.$("#username").attr("value", config.username);
                 AJS.$("#password").attr("value", config.password);
+                AJS.$("#lazy").prop("checked", config.lazy === true);
+                AJS.$("#shareParent").prop("checked", config.shareParent === true);
+                AJS.$("#shareLinkType").attr("value", config.shareLinkType || "");
             }
         });
     }
@@ -28,17 +31,142 @@ AJS.toInit(function() {
             url: baseUrl + "/rest/codenvy-admin/1.0/",
             type: "PUT",
             contentType: "application/json",
-            data: '{ "instanceUrl": "' + AJS.$("#instanceUrl").attr("value") + '", "username": "' + AJS.$("#username").attr("value") + '", "password": "' + AJS.$("#password").attr("value") + '" }',
+            data: '{ "instanceUrl": "' + AJS.$("#instanceUrl").attr("value") + '", "username": "' + AJS.$("#username").attr("value") + '", "password": "' + AJS.$("#password").attr("value") + '", "lazy": ' + AJS.$("#lazy").is(":checked") + ', "shareParent": ' + AJS.$("#shareParent").is(":checked") + ', "shareLinkType": ' + JSON.stringify(AJS.$("#shareLinkType").attr("value")) + ' }',
             processData: false
         }).done(function( data ) {
             alert("Codenvy data successfully saved.");
         });
     }
+    function populateCacheStatus() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/cache/parent-factories",
+            dataType: "json",
+            success: function(status) {
+                AJS.$("#cacheSize").text(status.size + " / " + status.maxSize);
+                AJS.$("#cacheCounters").text(status.hits + " / " + status.misses + " / " + status.evictions);
+            }
+        });
+    }
+    function clearCache() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/cache/parent-factories",
+            type: "DELETE"
+        }).done(function() {
+            populateCacheStatus();
+        });
+    }
+    function populateBackfillStatus() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/backfill",
+            dataType: "json",
+            success: function(status) {
+                var progress = status.state;
+                if (status.state !== "IDLE") {
+                    progress += ": " + status.processed + " / " + status.total + " issues, " + status.generated +
+                                " generated, " + status.skipped + " skipped, " + status.failed + " failed";
+                }
+                if (status.node && status.node !== "local") {
+                    progress += " on node " + status.node;
+                }
+                if (status.etaMillis >= 0) {
+                    progress += ", about " + Math.ceil(status.etaMillis / 60000) + " min left";
+                }
+                if (status.error) {
+                    progress += " (" + status.error + ")";
+                }
+                AJS.$("#backfillProgress").text(progress);
+                if (status.jql && !AJS.$("#backfillJql").attr("value")) {
+                    AJS.$("#backfillJql").attr("value", status.jql);
+                }
+                if (status.state === "RUNNING") {
+                    setTimeout(populateBackfillStatus, 5000);
+                }
+            }
+        });
+    }
+    function startBackfill() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/backfill",
+            type: "POST",
+            contentType: "application/json",
+            data: JSON.stringify({ jql: AJS.$("#backfillJql").attr("value") }),
+            processData: false
+        }).done(function() {
+            populateBackfillStatus();
+        }).fail(function(xhr) {
+            alert("Backfill not started: " + xhr.responseText);
+        });
+    }
+    function cancelBackfill() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/backfill",
+            type: "DELETE"
+        }).done(function() {
+            populateBackfillStatus();
+        });
+    }
+    function populateOrphanStatus() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/orphans",
+            dataType: "json",
+            success: function(status) {
+                var search = "never";
+                if (status.running) {
+                    search = "running: " + status.scanned + " factories read, " + status.orphans + " unused";
+                } else if (status.lastStartedAt > 0) {
+                    search = new Date(status.lastEndedAt).toLocaleString() + ": " + status.scanned +
+                             " factories read, " + status.orphans + " unused";
+                }
+                if (status.error) {
+                    search += " (" + status.error + ")";
+                }
+                AJS.$("#orphansSearch").text(search);
+                AJS.$("#orphansDeleted").text(status.deleted + " / " + status.pending + " / " + (status.failed + status.dropped));
+                if (status.running || status.pending > 0) {
+                    setTimeout(populateOrphanStatus, 5000);
+                }
+            }
+        });
+    }
+    function startOrphanSearch() {
+        AJS.$.ajax({
+            url: baseUrl + "/rest/codenvy-admin/1.0/orphans",
+            type: "POST"
+        }).done(function() {
+            setTimeout(populateOrphanStatus, 1000);
+        }).fail(function(xhr) {
+            alert("Search not started: " + xhr.responseText);
+        });
+    }
     populateForm();
+    populateCacheStatus();
+    populateBackfillStatus();
+    populateOrphanStatus();
 
     // Submit new Codenvy admin data
     AJS.$("#admin").submit(function(e) {
         e.preventDefault();
         updateConfig();
     });
+
+    // Clear the parent factory cache
+    AJS.$("#parent-factory-cache").submit(function(e) {
+        e.preventDefault();
+        clearCache();
+    });
+
+    // Generate the factories of existing issues
+    AJS.$("#backfill").submit(function(e) {
+        e.preventDefault();
+        startBackfill();
+    });
+    AJS.$("#backfillCancel").click(function() {
+        cancelBackfill();
+    });
+
+    // Delete the factories no issue uses anymore
+    AJS.$("#orphans").submit(function(e) {
+        e.preventDefault();
+        startOrphanSearch();
+    });
 });
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ */
+// Javascript generating the factories of an issue when the link of a Codenvy field is clicked in lazy generation mode
+AJS.toInit(function() {
+    AJS.$(document).on("click", "a.codenvy-generate-factory", function(event) {
+        event.preventDefault();
+        var link = AJS.$(this);
+        if (link.data("generating")) {
+            return;
+        }
+        link.data("generating", true);
+        // A POST with the XSRF header, so that links and prefetchers never generate factories
+        AJS.$.ajax({
+            url: link.attr("href"),
+            type: "POST",
+            dataType: "json",
+            headers: { "X-Atlassian-Token": "no-check" }
+        }).done(function(factory) {
+            window.location.href = factory.url;
+        }).fail(function(xhr) {
+            alert(xhr.responseText || "Codenvy factories could not be generated.");
+        }).always(function() {
+            link.data("generating", false);
+        });
+    });
+});
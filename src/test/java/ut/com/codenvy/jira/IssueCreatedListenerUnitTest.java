@@ -15,10 +15,12 @@ import ch.qos.logback.core.Appender;
 
 import com.atlassian.event.api.EventPublisher;
 import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.cluster.ClusterMessagingService;
 import com.atlassian.jira.event.issue.IssueEvent;
 import com.atlassian.jira.event.type.EventType;
 import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.IssueInputParameters;
+import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.MutableIssue;
 import com.atlassian.jira.issue.fields.FieldException;
 import com.atlassian.jira.issue.fields.FieldManager;
@@ -27,32 +29,119 @@ import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.jira.util.ErrorCollection;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
 import com.codenvy.jira.IssueCreatedListener;
+import com.codenvy.jira.factory.CodenvyFieldResolver;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.FactoryCollector;
+import com.codenvy.jira.pipeline.FactoryGenerationBatcher;
+import com.codenvy.jira.settings.CodenvySettingsService;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class IssueCreatedListenerUnitTest {
 
-    private EventPublisher mockEventPublisher;
-    private IssueService   mockIssueService;
-    private FieldManager   mockFieldManager;
-    private Appender       mockAppender;
+    private EventPublisher           mockEventPublisher;
+    private IssueService             mockIssueService;
+    private FieldManager             mockFieldManager;
+    private FactoryGenerationBatcher mockBatcher;
+    private IssueManager             mockIssueManager;
+    private Appender                 mockAppender;
+    private IssueFactoryIndex        index;
+    private FactoryCollector         collector;
+
+    private Map<String, IssueFactories> indexed;
+    private List<String>                collected;
+    private Set<String>                 stale;
+    private List<String>                cleared;
+    private FactoryGenerator            generator;
 
     @Before
     public void setup() {
         mockEventPublisher = mock(EventPublisher.class);
         mockIssueService = mock(IssueService.class);
         mockFieldManager = mock(FieldManager.class);
+        mockBatcher = mock(FactoryGenerationBatcher.class);
+        mockIssueManager = mock(IssueManager.class);
+        indexed = new ConcurrentHashMap<>();
+        collected = new ArrayList<>();
+        stale = new HashSet<>();
+        cleared = new ArrayList<>();
+        generator = new FactoryGenerator(null, null, null, null, null, null, new CodenvyMetrics()) {
+            @Override
+            public boolean clearIssue(FactoryRequest request) {
+                return cleared.add(request.getIssueKey());
+            }
+        };
+        index = new IssueFactoryIndex(null) {
+            @Override
+            public IssueFactories get(String issueKey) {
+                return indexed.get(issueKey);
+            }
+
+            @Override
+            public void put(IssueFactories factories) {
+                indexed.put(factories.getIssueKey(), factories);
+            }
+
+            @Override
+            public IssueFactories remove(String issueKey) {
+                return indexed.remove(issueKey);
+            }
+
+            @Override
+            public void markStale(String issueKey) {
+                stale.add(issueKey);
+            }
+
+            @Override
+            public Set<String> getReferenced(Collection<String> factoryIds) {
+                Set<String> referenced = new HashSet<>();
+                for (IssueFactories factories : indexed.values()) {
+                    for (String factoryId : factoryIds) {
+                        if (factoryId.equals(factories.getDevelopFactoryId()) ||
+                            factoryId.equals(factories.getReviewFactoryId())) {
+                            referenced.add(factoryId);
+                        }
+                    }
+                }
+                return referenced;
+            }
+        };
+        collector = new FactoryCollector(null, null, new CodenvyMetrics()) {
+            @Override
+            public boolean collect(String factoryId) {
+                return collected.add(factoryId);
+            }
+        };
 
         ApplicationUser mockUser = mock(ApplicationUser.class);
 
@@ -94,8 +183,7 @@ public class IssueCreatedListenerUnitTest {
         PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
         when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mockPluginSettings);
 
-        IssueCreatedListener issueCreatedListener =
-                new IssueCreatedListener(mockEventPublisher, mockPluginSettingsFactory, mockIssueService, mockFieldManager);
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mockPluginSettingsFactory);
 
 
         Issue mockIssue = mock(Issue.class);
@@ -126,8 +214,7 @@ public class IssueCreatedListenerUnitTest {
         PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
         when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mockPluginSettings);
 
-        IssueCreatedListener issueCreatedListener =
-                new IssueCreatedListener(mockEventPublisher, mockPluginSettingsFactory, mockIssueService, mockFieldManager);
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mockPluginSettingsFactory);
 
         Issue mockIssue = mock(Issue.class);
         Project mockIssueProject = mock(Project.class);
@@ -170,8 +257,7 @@ public class IssueCreatedListenerUnitTest {
         ApplicationUser mockUser = mock(ApplicationUser.class);
         when(mockFieldManager.getAvailableCustomFields(mockUser, mockIssue)).thenReturn(Collections.EMPTY_SET);
 
-        IssueCreatedListener issueCreatedListener =
-                new IssueCreatedListener(mockEventPublisher, mockPluginSettingsFactory, mockIssueService, mockFieldManager);
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mockPluginSettingsFactory);
 
         IssueEvent issueEvent = new IssueEvent(mockIssue, null, mockUser, EventType.ISSUE_CREATED_ID);
         // call method to test
@@ -189,4 +275,109 @@ public class IssueCreatedListenerUnitTest {
             }
         }));
     }
+
+    @Test
+    public void testFactoriesOfDeletedIssueAreCollected() {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mock(PluginSettingsFactory.class));
+
+        Issue mockIssue = mock(Issue.class);
+        when(mockIssue.getKey()).thenReturn("TEST-1");
+        issueCreatedListener.onIssueEvent(new IssueEvent(mockIssue, null, null, EventType.ISSUE_DELETED_ID));
+
+        assertEquals(Arrays.asList("d1", "r1"), collected);
+        assertTrue(indexed.isEmpty());
+    }
+
+    @Test
+    public void testFactoriesSharedWithAnotherIssueAreKept() {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+        indexed.put("TEST-2", new IssueFactories("TEST-2", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mock(PluginSettingsFactory.class));
+
+        Issue mockIssue = mock(Issue.class);
+        when(mockIssue.getKey()).thenReturn("TEST-1");
+        issueCreatedListener.onIssueEvent(new IssueEvent(mockIssue, null, null, EventType.ISSUE_DELETED_ID));
+
+        assertTrue(collected.isEmpty());
+        assertNull(indexed.get("TEST-1"));
+    }
+
+    @Test
+    public void testFactoriesOfIssueMovedToAnotherProjectAreCollected() {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+        PluginSettings mockPluginSettings = mock(PluginSettings.class);
+        when(mockPluginSettings.get("codenvy.admin.instanceurl")).thenReturn("");
+        PluginSettingsFactory mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+        when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(mockPluginSettings);
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mockPluginSettingsFactory);
+
+        Issue mockIssue = mock(Issue.class);
+        when(mockIssue.getId()).thenReturn(1L);
+        when(mockIssue.getKey()).thenReturn("OTHER-1");
+        when(mockIssueManager.getAllIssueKeys(1L)).thenReturn(new HashSet<>(Arrays.asList("TEST-1", "OTHER-1")));
+        issueCreatedListener.onIssueEvent(new IssueEvent(mockIssue, null, null, EventType.ISSUE_MOVED_ID));
+
+        assertEquals(Arrays.asList("d1", "r1"), collected);
+        assertNull(indexed.get("TEST-1"));
+        // Not configured, nothing to generate again
+        assertNull(indexed.get("OTHER-1"));
+    }
+
+    @Test
+    public void testFactoriesOfIssueWhoseTypeChangedAreKept() {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+        IssueCreatedListener issueCreatedListener = newIssueCreatedListener(mock(PluginSettingsFactory.class));
+
+        Issue mockIssue = mock(Issue.class);
+        when(mockIssue.getId()).thenReturn(1L);
+        when(mockIssue.getKey()).thenReturn("TEST-1");
+        when(mockIssueManager.getAllIssueKeys(1L)).thenReturn(Collections.singleton("TEST-1"));
+        issueCreatedListener.onIssueEvent(new IssueEvent(mockIssue, null, null, EventType.ISSUE_MOVED_ID));
+
+        assertTrue(collected.isEmpty());
+        assertFalse(indexed.get("TEST-1").isStale());
+    }
+
+    @Test
+    public void testLinksOfIssueMovedInLazyModeAreCleared() {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+        ApplicationUser mockUser = mock(ApplicationUser.class);
+        final FactoryRequest request = new FactoryRequest("http://unittest.codenvy.com", "username", "password", "OTHER-1",
+                                                          "OTHER", "Other", mockUser, "customfield_1", "customfield_2");
+        FactoryRequestResolver lazyResolver = new FactoryRequestResolver(null, null, null, new CodenvyMetrics()) {
+            @Override
+            public boolean isLazy() {
+                return true;
+            }
+
+            @Override
+            public FactoryRequest resolve(Issue issue, ApplicationUser appUser) {
+                return request;
+            }
+        };
+        IssueCreatedListener issueCreatedListener = new IssueCreatedListener(mockEventPublisher, lazyResolver, mockBatcher,
+                                                                             generator, mockIssueManager, index, collector);
+
+        Issue mockIssue = mock(Issue.class);
+        when(mockIssue.getId()).thenReturn(1L);
+        when(mockIssue.getKey()).thenReturn("OTHER-1");
+        when(mockIssueManager.getAllIssueKeys(1L)).thenReturn(new HashSet<>(Arrays.asList("TEST-1", "OTHER-1")));
+        issueCreatedListener.onIssueEvent(new IssueEvent(mockIssue, null, mockUser, EventType.ISSUE_MOVED_ID));
+
+        assertEquals(Arrays.asList("d1", "r1"), collected);
+        assertTrue(stale.contains("OTHER-1"));
+        // The field renders the link that generates the factories of the new project when it is clicked
+        assertEquals(Arrays.asList("OTHER-1"), cleared);
+        verify(mockBatcher, never()).add(request);
+    }
+
+    private IssueCreatedListener newIssueCreatedListener(PluginSettingsFactory pluginSettingsFactory) {
+        CodenvySettingsService settingsService = new CodenvySettingsService(pluginSettingsFactory, mock(TransactionTemplate.class),
+                                                                            mock(ClusterMessagingService.class), null);
+        CodenvyFieldResolver fieldResolver = new CodenvyFieldResolver(mockEventPublisher, mockFieldManager);
+        return new IssueCreatedListener(mockEventPublisher,
+                                        new FactoryRequestResolver(settingsService, fieldResolver, null, new CodenvyMetrics()),
+                                        mockBatcher, generator, mockIssueManager, index, collector);
+    }
 }
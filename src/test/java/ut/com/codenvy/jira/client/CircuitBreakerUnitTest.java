@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.client;
+
+import com.codenvy.jira.client.CircuitBreaker;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.codenvy.jira.client.CircuitBreaker.State.CLOSED;
+import static com.codenvy.jira.client.CircuitBreaker.State.HALF_OPEN;
+import static com.codenvy.jira.client.CircuitBreaker.State.OPEN;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerUnitTest {
+
+    private long           now;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setup() {
+        now = 0;
+        circuitBreaker = new CircuitBreaker(3, 1000, 1) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() {
+        failCalls(2);
+        circuitBreaker.onSuccess();
+        failCalls(2);
+        assertEquals(CLOSED, circuitBreaker.getState());
+
+        failCalls(1);
+        assertEquals(OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getRejected());
+    }
+
+    @Test
+    public void testHalfOpenCircuitLetsOneTrialCallThrough() {
+        failCalls(3);
+        now = 1000;
+
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.onSuccess();
+        assertEquals(CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testFailedTrialCallOpensCircuitAgain() {
+        failCalls(3);
+        now = 1000;
+
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onFailure();
+        assertEquals(OPEN, circuitBreaker.getState());
+
+        now = 1999;
+        assertFalse(circuitBreaker.allowRequest());
+        now = 2000;
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    @Test
+    public void testCancelledTrialCallIsGivenBack() {
+        failCalls(3);
+        now = 1000;
+
+        assertTrue(circuitBreaker.allowRequest());
+        circuitBreaker.onCancel();
+        assertTrue(circuitBreaker.allowRequest());
+    }
+
+    private void failCalls(int times) {
+        for (int i = 0; i < times; i++) {
+            assertTrue(circuitBreaker.allowRequest());
+            circuitBreaker.onFailure();
+        }
+    }
+}
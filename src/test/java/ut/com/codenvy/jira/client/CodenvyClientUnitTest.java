@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.client;
+
+import us.monoid.json.JSONException;
+
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.client.CodenvyHttpException;
+import com.codenvy.jira.client.CodenvyJson.CreatedFactory;
+import com.codenvy.jira.client.CodenvySession;
+import com.codenvy.jira.client.CodenvySessionManager;
+import com.codenvy.jira.client.JsonResponseHandler;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodenvyClientUnitTest {
+
+    private static final String CODENVY_URL = "http://unittest.codenvy.com";
+
+    private AtomicInteger     logins;
+    private List<String>      calls;
+    private Integer           failWith;
+    private CodenvyHttpClient httpClient;
+    private CodenvyClient     client;
+
+    @Before
+    public void setup() {
+        logins = new AtomicInteger();
+        calls = new CopyOnWriteArrayList<>();
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        httpClient = new CodenvyHttpClient(metrics) {
+            @Override
+            public <T> CompletionStage<T> get(String url, JsonResponseHandler<T> handler) {
+                calls.add("GET " + url);
+                return answer(handler, "[{\"id\":\"parent\",\"name\":\"test\"}]");
+            }
+
+            @Override
+            public <T> CompletionStage<T> post(String url, String body, JsonResponseHandler<T> handler) {
+                calls.add("POST " + url);
+                if (failWith != null) {
+                    return failure(new CodenvyHttpException(failWith, "Codenvy answered " + failWith));
+                }
+                return answer(handler, "{\"id\":\"created\",\"links\":[]}");
+            }
+
+            @Override
+            public CompletionStage<Void> delete(String url) {
+                calls.add("DELETE " + url);
+                // The first token is rejected
+                if (url.endsWith("token=token-1")) {
+                    return failure(new CodenvyHttpException(401, "Codenvy answered 401"));
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        CodenvySessionManager sessionManager = new CodenvySessionManager(httpClient, metrics) {
+            @Override
+            protected CompletionStage<CodenvySession> login(String instanceUrl, String username, String password) {
+                long now = System.currentTimeMillis();
+                return CompletableFuture.completedFuture(
+                        new CodenvySession(instanceUrl, username, password, "token-" + logins.incrementAndGet(), "userId",
+                                           now + 60000, now + 120000));
+            }
+        };
+        client = new CodenvyClient(httpClient, sessionManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.destroy();
+    }
+
+    @Test
+    public void testDependentCallsAreChained() throws IOException, JSONException {
+        CreatedFactory created = CodenvyClient.await(client.execute(CODENVY_URL, "username", "password", session -> {
+            // The factory found is posted again with the same session
+            return client.findFactory(session, "test").thenCompose(parent -> client.createFactory(session, parent));
+        }));
+
+        assertEquals("created", created.getId());
+        assertEquals(2, calls.size());
+        assertEquals("GET " + CODENVY_URL + "/api/factory/find?name=test&creator.userId=userId&token=token-1", calls.get(0));
+        assertEquals("POST " + CODENVY_URL + "/api/factory?token=token-1", calls.get(1));
+    }
+
+    @Test
+    public void testRejectedTokenIsRenewedOnce() throws IOException, JSONException {
+        CodenvyClient.await(client.execute(CODENVY_URL, "username", "password",
+                                           session -> client.deleteFactory(session, "factory")));
+
+        assertEquals(2, logins.get());
+        assertEquals("DELETE " + CODENVY_URL + "/api/factory/factory?token=token-2", calls.get(1));
+    }
+
+    @Test
+    public void testFailureIsRethrownUnwrapped() throws JSONException {
+        failWith = 503;
+        try {
+            CodenvyClient.await(client.execute(CODENVY_URL, "username", "password",
+                                               session -> client.createFactory(session, "{}")));
+            fail("failure of the factory creation not reported");
+        } catch (IOException e) {
+            assertTrue(e instanceof CodenvyHttpException);
+            assertEquals(503, ((CodenvyHttpException)e).getStatus());
+        }
+        assertEquals(1, logins.get());
+    }
+
+    private static <T> CompletionStage<T> answer(JsonResponseHandler<T> handler, String json) {
+        try {
+            return CompletableFuture.completedFuture(handler.handle(new JsonReader(new StringReader(json))));
+        } catch (IOException e) {
+            return failure(e);
+        }
+    }
+
+    private static <T> CompletionStage<T> failure(Throwable error) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.client;
+
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.client.CodenvyJson;
+import com.codenvy.jira.client.CodenvyThrottledException;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CodenvyHttpClientUnitTest {
+
+    private static final String CODENVY_URL = "http://unittest.codenvy.com";
+
+    private BlockingQueue<FutureCallback<HttpResponse>> sent;
+    private CodenvyHttpClient                           httpClient;
+
+    @Before
+    public void setup() {
+        System.setProperty("codenvy.http.maxInFlight", "1");
+        System.setProperty("codenvy.http.connectTimeout", "200");
+        System.setProperty("codenvy.rate.permitsPerSecond", "0");
+        sent = new LinkedBlockingQueue<>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty("codenvy.http.maxInFlight");
+        System.clearProperty("codenvy.http.connectTimeout");
+        System.clearProperty("codenvy.rate.permitsPerSecond");
+        System.clearProperty("codenvy.rate.burst");
+        if (httpClient != null) {
+            httpClient.destroy();
+        }
+    }
+
+    @Test
+    public void testCallBeyondInFlightLimitIsQueuedWithoutBlocking() throws Exception {
+        System.setProperty("codenvy.http.connectTimeout", "5000");
+        httpClient = newHttpClient();
+
+        CompletableFuture<String> first = get();
+        CompletableFuture<String> second = get();
+
+        // Both calls returned at once, the second one waits for the slot of the first one
+        FutureCallback<HttpResponse> firstCallback = sent.poll(1, TimeUnit.SECONDS);
+        assertNotNull(firstCallback);
+        assertNull(sent.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, httpClient.getWaiting());
+
+        firstCallback.completed(response(200, "{\"id\":\"first\"}"));
+        assertEquals("first", first.get(1, TimeUnit.SECONDS));
+        FutureCallback<HttpResponse> secondCallback = sent.poll(1, TimeUnit.SECONDS);
+        assertNotNull("queued call not sent once a slot is free", secondCallback);
+        assertFalse(second.isDone());
+
+        secondCallback.completed(response(200, "{\"id\":\"second\"}"));
+        assertEquals("second", second.get(1, TimeUnit.SECONDS));
+        assertEquals(0, httpClient.getInFlight());
+    }
+
+    @Test
+    public void testQueuedCallIsThrottledAfterConnectTimeout() throws Exception {
+        httpClient = newHttpClient();
+
+        get();
+        CompletableFuture<String> queued = get();
+
+        try {
+            queued.get(5, TimeUnit.SECONDS);
+            fail("queued call not timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CodenvyThrottledException);
+        }
+        assertEquals(1, sent.size());
+        assertEquals(0, httpClient.getWaiting());
+    }
+
+    @Test
+    public void testRateLimitedCallIsDelayedWithoutBlocking() throws Exception {
+        System.setProperty("codenvy.http.maxInFlight", "2");
+        System.setProperty("codenvy.rate.permitsPerSecond", "10");
+        System.setProperty("codenvy.rate.burst", "1");
+        httpClient = newHttpClient();
+
+        final long start = System.nanoTime();
+        get();
+        get();
+        assertTrue("caller blocked by the rate limit", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertNotNull(sent.poll(1, TimeUnit.SECONDS));
+        assertNotNull(sent.poll(1, TimeUnit.SECONDS));
+        assertTrue("token given too early", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    @Test
+    public void testFailedCallFreesItsSlot() throws Exception {
+        httpClient = newHttpClient();
+
+        CompletableFuture<String> failed = get();
+        sent.poll(1, TimeUnit.SECONDS).failed(new ConnectException("Connection refused"));
+
+        try {
+            failed.get(1, TimeUnit.SECONDS);
+            fail("failure not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectException);
+        }
+        assertEquals(0, httpClient.getInFlight());
+        assertEquals(1, httpClient.getCircuitBreaker().getConsecutiveFailures());
+    }
+
+    private CodenvyHttpClient newHttpClient() {
+        return new CodenvyHttpClient(new CodenvyMetrics()) {
+            @Override
+            protected void send(HttpRequestBase request, FutureCallback<HttpResponse> callback) {
+                sent.add(callback);
+            }
+        };
+    }
+
+    private CompletableFuture<String> get() {
+        return httpClient.get(CODENVY_URL + "/api/user", CodenvyJson.stringField("id")).toCompletableFuture();
+    }
+
+    private static HttpResponse response(int status, String json) {
+        BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, "");
+        response.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON));
+        return response;
+    }
+}
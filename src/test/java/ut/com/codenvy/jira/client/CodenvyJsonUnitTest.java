@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.client;
+
+import com.codenvy.jira.client.CodenvyJson;
+import com.codenvy.jira.client.JsonResponseHandler;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CodenvyJsonUnitTest {
+
+    @Test
+    public void testStringFieldIsReadAmongOtherFields() throws IOException {
+        String json = "{\"links\":[{\"rel\":\"self\"}],\"value\":\"token\",\"ttl\":1800}";
+
+        assertEquals("token", read(CodenvyJson.stringField("value"), json));
+        assertNull(read(CodenvyJson.stringField("id"), json));
+    }
+
+    @Test
+    public void testOnlyFirstElementIsRead() throws IOException {
+        // The rest of the array is truncated, which must not matter
+        String json = "[{\"name\":\"test\",\"size\":1.50,\"tags\":[true,null]},{\"name\":\"other\",";
+
+        assertEquals("{\"name\":\"test\",\"size\":1.50,\"tags\":[true,null]}", read(CodenvyJson.firstElement(), json));
+        assertNull(read(CodenvyJson.firstElement(), "[]"));
+    }
+
+    @Test
+    public void testCreatedFactoryIsReadUpToItsIdAndLink() throws IOException {
+        String json = "{\"links\":[{\"href\":\"http://codenvy/f?id=1\",\"rel\":\"accept\"}," +
+                      "{\"rel\":\"accept-named\",\"href\":\"http://codenvy/f?name=TEST-1\"},{\"rel\":\"self\"}]," +
+                      "\"id\":\"factory1\",\"workspace\":{\"truncated\":";
+
+        CodenvyJson.CreatedFactory factory = read(CodenvyJson.createdFactory("accept-named"), json);
+
+        assertEquals("factory1", factory.getId());
+        assertEquals("http://codenvy/f?name=TEST-1", factory.getUrl());
+    }
+
+    @Test
+    public void testCreatedFactoryWithoutLink() throws IOException {
+        CodenvyJson.CreatedFactory factory = read(CodenvyJson.createdFactory("accept-named"),
+                                                  "{\"id\":\"factory1\",\"links\":[{\"rel\":\"self\"}]}");
+
+        assertEquals("factory1", factory.getId());
+        assertNull(factory.getUrl());
+    }
+
+    @Test
+    public void testNamedFactoriesAreReadWithoutTheirWorkspace() throws IOException {
+        String json = "[{\"workspace\":{\"projects\":[{\"name\":\"ignored\"}]},\"id\":\"f1\",\"name\":\"TEST-1-develop-factory\"}," +
+                      "{\"name\":\"test\",\"id\":\"f2\"}]";
+
+        List<CodenvyJson.NamedFactory> factories = read(CodenvyJson.namedFactories(), json);
+
+        assertEquals(2, factories.size());
+        assertEquals("f1", factories.get(0).getId());
+        assertEquals("TEST-1-develop-factory", factories.get(0).getName());
+        assertEquals("f2", factories.get(1).getId());
+        assertEquals("test", factories.get(1).getName());
+    }
+
+    @Test(expected = IOException.class)
+    public void testUnexpectedDocumentIsRejected() throws IOException {
+        read(CodenvyJson.stringField("value"), "[\"value\"]");
+    }
+
+    private static <T> T read(JsonResponseHandler<T> handler, String json) throws IOException {
+        return handler.handle(new JsonReader(new StringReader(json)));
+    }
+}
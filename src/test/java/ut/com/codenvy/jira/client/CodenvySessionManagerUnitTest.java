@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.client;
+
+import us.monoid.json.JSONException;
+
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvySession;
+import com.codenvy.jira.client.CodenvySessionManager;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CodenvySessionManagerUnitTest {
+
+    private AtomicInteger         logins;
+    private CodenvySessionManager sessionManager;
+
+    @Before
+    public void setup() {
+        logins = new AtomicInteger();
+        sessionManager = new CodenvySessionManager(null, new CodenvyMetrics()) {
+            @Override
+            protected CompletionStage<CodenvySession> login(final String instanceUrl, final String username,
+                                                            final String password) {
+                // Answered later by Codenvy
+                return CompletableFuture.supplyAsync(() -> {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    long now = System.currentTimeMillis();
+                    return new CodenvySession(instanceUrl, username, password, "token-" + logins.incrementAndGet(),
+                                              "userId", now + 60000, now + 120000);
+                });
+            }
+        };
+    }
+
+    @Test
+    public void testSessionIsReused() throws IOException, JSONException {
+        CodenvySession first = getSession("password");
+        CodenvySession second = getSession("password");
+
+        assertSame(first, second);
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    public void testSessionIsRenewedWhenCredentialsChange() throws IOException, JSONException {
+        CodenvySession first = getSession("password");
+        CodenvySession second = getSession("newpassword");
+
+        assertNotSame(first, second);
+        assertEquals(2, logins.get());
+    }
+
+    @Test
+    public void testConcurrentCallersLogInOnce() throws InterruptedException {
+        final int callers = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(callers);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        for (int i = 0; i < callers; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        getSession("password");
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        start.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(1, logins.get());
+    }
+
+    @Test
+    public void testCallersWaitingForLoginAreNotBlocked() throws IOException, JSONException {
+        CompletionStage<CodenvySession> first = sessionManager.getSession("http://unittest.codenvy.com", "username",
+                                                                          "password");
+        CompletionStage<CodenvySession> second = sessionManager.getSession("http://unittest.codenvy.com", "username",
+                                                                           "password");
+
+        // Both callers are given the login in flight
+        assertFalse(first.toCompletableFuture().isDone());
+        assertSame(CodenvyClient.await(first), CodenvyClient.await(second));
+        assertEquals(1, logins.get());
+    }
+
+    private CodenvySession getSession(String password) throws IOException, JSONException {
+        return CodenvyClient.await(sessionManager.getSession("http://unittest.codenvy.com", "username", password));
+    }
+}
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.client;
+
+import com.codenvy.jira.client.RateLimiter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterUnitTest {
+
+    @Test
+    public void testBurstIsLimited() {
+        RateLimiter rateLimiter = new RateLimiter(0.001, 3);
+
+        assertEquals(0, rateLimiter.reserve(0));
+        assertEquals(0, rateLimiter.reserve(0));
+        assertEquals(0, rateLimiter.reserve(0));
+        assertEquals(-1, rateLimiter.reserve(0));
+        assertEquals(1, rateLimiter.getThrottled());
+    }
+
+    @Test
+    public void testCallerIsToldWhenNextTokenIsDue() {
+        RateLimiter rateLimiter = new RateLimiter(20, 1);
+
+        assertEquals(0, rateLimiter.reserve(0));
+        final long first = rateLimiter.reserve(1000);
+        assertTrue("token given too early: " + first, first > 40000000L && first <= 50000000L);
+        // Reservations are paid back in order
+        final long second = rateLimiter.reserve(1000);
+        assertTrue("token given too early: " + second, second > 90000000L && second <= 100000000L);
+        assertEquals(-1, rateLimiter.reserve(100));
+    }
+
+    @Test
+    public void testNoLimit() {
+        RateLimiter rateLimiter = new RateLimiter(0, 1);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, rateLimiter.reserve(0));
+        }
+    }
+}
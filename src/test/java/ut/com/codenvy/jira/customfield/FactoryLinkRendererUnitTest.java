@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.customfield;
+
+import com.codenvy.jira.customfield.FactoryLinkRenderer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FactoryLinkRendererUnitTest {
+
+    private static final String LEGACY_LINK = "<a id=\"codenvy_develop_field\" href=\"http://codenvy/f?name=TEST-1-develop-factory" +
+                                              "&user=jira\">Developer Workspace</a>";
+
+    @Test
+    public void testUrlIsRenderedAsEscapedLink() {
+        FactoryLinkRenderer renderer = new FactoryLinkRenderer("develop", "Developer Workspace");
+
+        assertEquals("<a id=\"codenvy_develop_field\" href=\"http://codenvy/f?name=TEST-1-develop-factory&amp;user=jira\">" +
+                     "Developer Workspace</a>", renderer.renderHtml("http://codenvy/f?name=TEST-1-develop-factory&user=jira"));
+    }
+
+    @Test
+    public void testRenderedLinkIsCached() {
+        FactoryLinkRenderer renderer = new FactoryLinkRenderer("review", "Reviewer Workspace");
+
+        String first = renderer.renderHtml("http://codenvy/f?name=TEST-1-review-factory");
+
+        assertSame(first, renderer.renderHtml("http://codenvy/f?name=TEST-1-review-factory"));
+        assertEquals(1, renderer.getSize());
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        System.setProperty("codenvy.render.cacheSize", "2");
+        try {
+            FactoryLinkRenderer renderer = new FactoryLinkRenderer("review", "Reviewer Workspace");
+            for (int i = 0; i < 5; i++) {
+                renderer.renderHtml("http://codenvy/f?name=TEST-" + i + "-review-factory");
+            }
+
+            assertEquals(2, renderer.getSize());
+        } finally {
+            System.clearProperty("codenvy.render.cacheSize");
+        }
+    }
+
+    @Test
+    public void testLegacyLinkIsBuiltAgainFromItsUrl() {
+        FactoryLinkRenderer renderer = new FactoryLinkRenderer("develop", "Developer Workspace");
+
+        assertEquals("<a id=\"codenvy_develop_field\" href=\"http://codenvy/f?name=TEST-1-develop-factory&amp;user=jira\">" +
+                     "Developer Workspace</a>", renderer.renderHtml(LEGACY_LINK));
+        assertEquals(renderer.renderHtml("http://codenvy/f?name=TEST-1-develop-factory&amp;user=jira"),
+                     renderer.renderHtml("<a href=\"http://codenvy/f?name=TEST-1-develop-factory&amp;amp;user=jira\">x</a>"));
+    }
+
+    @Test
+    public void testValueWithoutHttpUrlIsRenderedAsText() {
+        FactoryLinkRenderer renderer = new FactoryLinkRenderer("develop", "Developer Workspace");
+
+        assertEquals("javascript:alert(&quot;x&quot;)", renderer.renderHtml("javascript:alert(\"x\")"));
+        assertEquals("&lt;a href=&quot;javascript:alert(1)&quot;&gt;x&lt;/a&gt;",
+                     renderer.renderHtml("<a href=\"javascript:alert(1)\">x</a>"));
+        assertEquals("&lt;script&gt;alert(1)&lt;/script&gt;", renderer.renderHtml("<script>alert(1)</script>"));
+    }
+
+    @Test
+    public void testUrlIsReadFromBothForms() {
+        assertEquals("http://codenvy/f?name=TEST-1-develop-factory&user=jira", FactoryLinkRenderer.getUrl(LEGACY_LINK));
+        assertEquals("http://codenvy/f?name=TEST-1", FactoryLinkRenderer.getUrl("http://codenvy/f?name=TEST-1"));
+        assertEquals("https://codenvy/f?name=TEST-1", FactoryLinkRenderer.getUrl("https://codenvy/f?name=TEST-1"));
+        assertNull(FactoryLinkRenderer.getUrl(""));
+        assertNull(FactoryLinkRenderer.getUrl("javascript:alert(1)"));
+        assertNull(FactoryLinkRenderer.getUrl("<a href=\"javascript:alert(1)\">x</a>"));
+    }
+}
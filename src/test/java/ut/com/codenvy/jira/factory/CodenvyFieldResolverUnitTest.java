@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.factory;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.customfields.CustomFieldType;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.issue.fields.FieldManager;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.factory.CodenvyFieldResolver;
+import com.codenvy.jira.factory.CodenvyFieldResolver.CodenvyFields;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static com.codenvy.jira.factory.CodenvyFieldResolver.CODENVY_DEVELOP_FIELD_TYPE_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CodenvyFieldResolverUnitTest {
+
+    private FieldManager         mockFieldManager;
+    private ApplicationUser      mockUser;
+    private CodenvyFieldResolver fieldResolver;
+
+    @Before
+    public void setup() {
+        mockFieldManager = mock(FieldManager.class);
+        mockUser = mock(ApplicationUser.class);
+        fieldResolver = new CodenvyFieldResolver(mock(EventPublisher.class), mockFieldManager);
+    }
+
+    @Test
+    public void testFieldsAreScannedOncePerContext() throws FieldException {
+        Issue bug1 = mockIssue(1L, "bug");
+        Issue bug2 = mockIssue(1L, "bug");
+        Issue task = mockIssue(1L, "task");
+        CustomField developField = mockCustomField("customfield_10000", CODENVY_DEVELOP_FIELD_TYPE_KEY);
+        when(mockFieldManager.getAvailableCustomFields(mockUser, bug1)).thenReturn(Collections.singleton(developField));
+        when(mockFieldManager.getAvailableCustomFields(mockUser, bug2)).thenReturn(Collections.singleton(developField));
+
+        CodenvyFields fields = fieldResolver.resolve(mockUser, bug1);
+        assertEquals("customfield_10000", fields.getDevelopFieldId());
+        assertNull(fields.getReviewFieldId());
+        assertEquals("customfield_10000", fieldResolver.resolve(mockUser, bug2).getDevelopFieldId());
+        assertNull(fieldResolver.resolve(mockUser, task).getDevelopFieldId());
+
+        verify(mockFieldManager, times(1)).getAvailableCustomFields(mockUser, bug1);
+        verify(mockFieldManager, times(0)).getAvailableCustomFields(mockUser, bug2);
+        verify(mockFieldManager, times(1)).getAvailableCustomFields(mockUser, task);
+    }
+
+    @Test
+    public void testInvalidateAllClearsCache() throws FieldException {
+        Issue bug = mockIssue(1L, "bug");
+
+        fieldResolver.resolve(mockUser, bug);
+        fieldResolver.invalidateAll();
+        fieldResolver.resolve(mockUser, bug);
+
+        verify(mockFieldManager, times(2)).getAvailableCustomFields(mockUser, bug);
+    }
+
+    private static Issue mockIssue(Long projectId, String issueTypeId) {
+        Issue issue = mock(Issue.class);
+        when(issue.getProjectId()).thenReturn(projectId);
+        when(issue.getIssueTypeId()).thenReturn(issueTypeId);
+        return issue;
+    }
+
+    private static CustomField mockCustomField(String id, String typeKey) {
+        CustomFieldType type = mock(CustomFieldType.class);
+        when(type.getKey()).thenReturn(typeKey);
+        CustomField field = mock(CustomField.class);
+        when(field.getId()).thenReturn(id);
+        when(field.getCustomFieldType()).thenReturn(type);
+        return field;
+    }
+}
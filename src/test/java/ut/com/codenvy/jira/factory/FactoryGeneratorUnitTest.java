@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.factory;
+
+import us.monoid.json.JSONArray;
+import us.monoid.json.JSONException;
+import us.monoid.json.JSONObject;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.issue.IssueInputParameters;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.util.ErrorCollection;
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.client.CodenvyHttpException;
+import com.codenvy.jira.client.CodenvySession;
+import com.codenvy.jira.client.CodenvySessionManager;
+import com.codenvy.jira.client.JsonResponseHandler;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.factory.ParentFactoryCache;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FactoryGeneratorUnitTest {
+
+    private static final String CODENVY_URL    = "http://unittest.codenvy.com";
+    private static final String PARENT_FACTORY = "{\"id\":\"parent\",\"name\":\"test\",\"workspace\":{\"projects\":" +
+                                                 "[{\"source\":{\"parameters\":{}}}]}}";
+
+    private CodenvyMetrics         metrics;
+    private CodenvyHttpClient      httpClient;
+    private CodenvyClient          client;
+    private FactoryGenerator       generator;
+    private List<String>           deleted;
+    private CountDownLatch         bothPosted;
+    private boolean                failReview;
+    private boolean                withoutUrl;
+    private boolean                alreadyGenerated;
+    private ReentrantLock          issueLock;
+    private boolean                lockedWhilePosting;
+    private IssueFactoryIndex      index;
+
+    private Map<String, IssueFactories> indexed;
+    private Set<String>                 claimed;
+
+    @Before
+    public void setup() {
+        deleted = new CopyOnWriteArrayList<>();
+        bothPosted = new CountDownLatch(2);
+        issueLock = new ReentrantLock();
+        indexed = new ConcurrentHashMap<>();
+        claimed = ConcurrentHashMap.newKeySet();
+        metrics = new CodenvyMetrics();
+
+        httpClient = new CodenvyHttpClient(metrics) {
+            @Override
+            public <T> CompletionStage<T> post(String url, final String body, final JsonResponseHandler<T> handler) {
+                lockedWhilePosting |= issueLock.isLocked();
+                // Answered later by Codenvy
+                return CompletableFuture.supplyAsync(() -> {
+                    bothPosted.countDown();
+                    try {
+                        // Both creations must be in flight at the same time
+                        assertTrue("factories created sequentially", bothPosted.await(5, TimeUnit.SECONDS));
+                        final String name = new JSONObject(body).getString("name");
+                        if (failReview && name.endsWith("-review-factory")) {
+                            throw new CodenvyHttpException(503, "Codenvy answered 503");
+                        }
+                        final JSONArray links = new JSONArray();
+                        if (!withoutUrl) {
+                            links.put(new JSONObject().put("rel", "accept-named").put("href", "http://codenvy/f?name=" + name));
+                        }
+                        final String factory = new JSONObject().put("id", name + "-id").put("links", links).toString();
+                        return handler.handle(new JsonReader(new StringReader(factory)));
+                    } catch (InterruptedException | IOException | JSONException e) {
+                        throw new CompletionException(e);
+                    }
+                });
+            }
+
+            @Override
+            public CompletionStage<Void> delete(String url) {
+                deleted.add(url);
+                return CompletableFuture.completedFuture(null);
+            }
+        };
+        CodenvySessionManager sessionManager = new CodenvySessionManager(httpClient, metrics) {
+            @Override
+            protected CompletionStage<CodenvySession> login(String instanceUrl, String username, String password) {
+                long now = System.currentTimeMillis();
+                return CompletableFuture.completedFuture(
+                        new CodenvySession(instanceUrl, username, password, "token", "userId", now + 60000, now + 120000));
+            }
+        };
+        client = new CodenvyClient(httpClient, sessionManager);
+        ParentFactoryCache parentFactoryCache = new ParentFactoryCache();
+        parentFactoryCache.put("TEST", PARENT_FACTORY);
+        ClusterCoordinator clusterCoordinator = new ClusterCoordinator(null, null, null) {
+            @Override
+            public Lock getIssueLock(String issueKey) {
+                return issueLock;
+            }
+        };
+        index = new IssueFactoryIndex(null) {
+            @Override
+            public IssueFactories get(String issueKey) {
+                return indexed.get(issueKey);
+            }
+
+            @Override
+            public void put(IssueFactories factories) {
+                indexed.put(factories.getIssueKey(), factories);
+            }
+
+            @Override
+            public boolean claim(String issueKey) {
+                return claimed.add(issueKey);
+            }
+
+            @Override
+            public void release(String issueKey) {
+                claimed.remove(issueKey);
+            }
+
+            @Override
+            public void markIssueUpdated(String issueKey) {
+                IssueFactories factories = indexed.get(issueKey);
+                indexed.put(issueKey, new IssueFactories(issueKey, factories.getDevelopFactoryId(),
+                                                         factories.getDevelopUrl(), factories.getReviewFactoryId(),
+                                                         factories.getReviewUrl(), true));
+            }
+        };
+        IssueService issueService = mockIssueService(mock(IssueInputParameters.class), mock(ErrorCollection.class));
+        generator = new FactoryGenerator(issueService, null, parentFactoryCache, client, clusterCoordinator, index, metrics) {
+            @Override
+            protected boolean isGenerated(FactoryRequest request) {
+                return alreadyGenerated;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        httpClient.destroy();
+    }
+
+    @Test
+    public void testFactoriesAreCreatedConcurrently() throws IOException, JSONException {
+        generator.generate(request());
+
+        assertEquals(0, bothPosted.getCount());
+        assertTrue(deleted.isEmpty());
+        assertTrue(indexed.get("TEST-1").isIssueUpdated());
+        assertEquals(1, metrics.getSucceeded());
+    }
+
+    @Test
+    public void testCodenvyIsCalledWithoutTheIssueLock() throws IOException, JSONException {
+        generator.generate(request());
+
+        assertEquals(0, bothPosted.getCount());
+        assertFalse("issue lock held while calling Codenvy", lockedWhilePosting);
+        assertTrue(claimed.isEmpty());
+    }
+
+    @Test
+    public void testIssueClaimedByAnotherGenerationIsRetriedLater() throws JSONException {
+        claimed.add("TEST-1");
+        try {
+            generator.generate(request());
+            fail("issue generated while claimed by another generation");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("already being generated"));
+        }
+
+        assertEquals(2, bothPosted.getCount());
+        // Still claimed by the other generation
+        assertTrue(claimed.contains("TEST-1"));
+        assertFalse(issueLock.isLocked());
+    }
+
+    @Test
+    public void testCreatedFactoriesWithoutUrlAreDeleted() throws IOException, JSONException {
+        withoutUrl = true;
+        generator.generate(request());
+
+        assertEquals(2, deleted.size());
+        assertTrue(deleted.contains(CODENVY_URL + "/api/factory/TEST-1-develop-factory-id?token=token"));
+        assertTrue(deleted.contains(CODENVY_URL + "/api/factory/TEST-1-review-factory-id?token=token"));
+        assertNull(indexed.get("TEST-1"));
+        assertEquals(Long.valueOf(1), metrics.getSkipped().get(CodenvyMetrics.SKIPPED_MISSING_FACTORY_URL));
+        assertEquals(0, metrics.getSucceeded());
+    }
+
+    @Test
+    public void testCreatedFactoryIsDeletedWhenItsSiblingFails() throws JSONException {
+        failReview = true;
+        try {
+            generator.generate(request());
+            fail("failure of the review factory creation not reported");
+        } catch (IOException e) {
+            assertTrue(e instanceof CodenvyHttpException);
+        }
+
+        assertEquals(1, deleted.size());
+        assertEquals(CODENVY_URL + "/api/factory/TEST-1-develop-factory-id?token=token", deleted.get(0));
+        assertEquals(Long.valueOf(1), metrics.getErrors().get("CodenvyHttpException"));
+        assertEquals(0, metrics.getInFlightGenerations());
+        assertTrue(claimed.isEmpty());
+    }
+
+    @Test
+    public void testIndexedIssueIsSkippedWithoutCallingCodenvy() throws IOException, JSONException {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/f?name=TEST-1-develop-factory", "r1",
+                                                 "http://codenvy/f?name=TEST-1-review-factory", true));
+
+        generator.generate(request());
+
+        assertEquals(2, bothPosted.getCount());
+        assertEquals(Long.valueOf(1), metrics.getSkipped().get(CodenvyMetrics.SKIPPED_ALREADY_GENERATED));
+    }
+
+    @Test
+    public void testIssueMovedToAnotherProjectIsGeneratedAgain() throws IOException, JSONException {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", null, null, null, null, false, true));
+        alreadyGenerated = true;
+
+        generator.generate(request());
+
+        assertEquals(0, bothPosted.getCount());
+        assertNull(metrics.getSkipped().get(CodenvyMetrics.SKIPPED_ALREADY_GENERATED));
+    }
+
+    @Test
+    public void testIssueGeneratedMeanwhileIsSkipped() throws IOException, JSONException {
+        alreadyGenerated = true;
+        generator.generate(request());
+
+        assertEquals(2, bothPosted.getCount());
+        assertEquals(Long.valueOf(1), metrics.getSkipped().get(CodenvyMetrics.SKIPPED_ALREADY_GENERATED));
+        assertFalse(issueLock.isLocked());
+    }
+
+    @Test
+    public void testIssueLockedByAnotherNodeIsNotGenerated() throws Exception {
+        System.setProperty("codenvy.cluster.lockTimeout", "0");
+        Thread otherNode = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                issueLock.lock();
+            }
+        });
+        otherNode.start();
+        otherNode.join();
+        try {
+            generator = new FactoryGenerator(null, null, null, null, new ClusterCoordinator(null, null, null) {
+                @Override
+                public Lock getIssueLock(String issueKey) {
+                    return issueLock;
+                }
+            }, index, metrics);
+
+            generator.generate(request());
+            fail("issue generated while locked by another node");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("another node"));
+        } finally {
+            System.clearProperty("codenvy.cluster.lockTimeout");
+        }
+        assertEquals(2, bothPosted.getCount());
+    }
+
+    @Test
+    public void testSubTaskSharesTheFactoriesOfItsParent() throws IOException, JSONException {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/f?name=TEST-1-develop-factory", "r1",
+                                                 "http://codenvy/f?name=TEST-1-review-factory", true));
+        IssueInputParameters inputParameters = mock(IssueInputParameters.class);
+        generator = newUpdatingGenerator(inputParameters, mock(ErrorCollection.class));
+
+        generator.generate(new FactoryRequest(CODENVY_URL, "username", "password", "TEST-2", "TEST", "Test", null,
+                                              "customfield_1", "customfield_2", "TEST-1"));
+
+        assertEquals(2, bothPosted.getCount());
+        verify(inputParameters).addCustomFieldValue("customfield_1", "http://codenvy/f?name=TEST-1-develop-factory");
+        verify(inputParameters).addCustomFieldValue("customfield_2", "http://codenvy/f?name=TEST-1-review-factory");
+        IssueFactories shared = indexed.get("TEST-2");
+        assertEquals("d1", shared.getDevelopFactoryId());
+        assertEquals("r1", shared.getReviewFactoryId());
+        assertTrue(shared.isIssueUpdated());
+        assertEquals(Long.valueOf(1), metrics.getSkipped().get(CodenvyMetrics.SKIPPED_SHARED));
+        // Not counted twice
+        assertEquals(0, metrics.getSucceeded());
+    }
+
+    @Test
+    public void testSharedFactoriesRejectedByTheIssueAreNotCountedAsShared() throws IOException, JSONException {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/f?name=TEST-1-develop-factory", "r1",
+                                                 "http://codenvy/f?name=TEST-1-review-factory", true));
+        ErrorCollection errors = mock(ErrorCollection.class);
+        when(errors.hasAnyErrors()).thenReturn(true);
+        generator = newUpdatingGenerator(mock(IssueInputParameters.class), errors);
+
+        generator.generate(new FactoryRequest(CODENVY_URL, "username", "password", "TEST-2", "TEST", "Test", null,
+                                              "customfield_1", "customfield_2", "TEST-1"));
+
+        assertEquals(2, bothPosted.getCount());
+        assertFalse(indexed.get("TEST-2").isIssueUpdated());
+        assertNull(metrics.getSkipped().get(CodenvyMetrics.SKIPPED_SHARED));
+        assertEquals(Long.valueOf(1), metrics.getSkipped().get(CodenvyMetrics.SKIPPED_INVALID_UPDATE));
+        assertEquals(0, metrics.getSucceeded());
+    }
+
+    @Test
+    public void testIssueWhoseSharedIssueIsNotGeneratedGetsItsOwnFactories() throws IOException, JSONException {
+        generator.generate(new FactoryRequest(CODENVY_URL, "username", "password", "TEST-2", "TEST", "Test", null,
+                                              "customfield_1", "customfield_2", "TEST-1"));
+
+        assertEquals(0, bothPosted.getCount());
+        assertNull(metrics.getSkipped().get(CodenvyMetrics.SKIPPED_SHARED));
+    }
+
+    private FactoryGenerator newUpdatingGenerator(IssueInputParameters inputParameters, ErrorCollection errors) {
+        IssueService issueService = mockIssueService(inputParameters, errors);
+        return new FactoryGenerator(issueService, null, null, client, new ClusterCoordinator(null, null, null) {
+            @Override
+            public Lock getIssueLock(String issueKey) {
+                return issueLock;
+            }
+        }, index, metrics) {
+            @Override
+            protected boolean isGenerated(FactoryRequest request) {
+                return false;
+            }
+        };
+    }
+
+    private static IssueService mockIssueService(IssueInputParameters inputParameters, ErrorCollection errors) {
+        MutableIssue issue = mock(MutableIssue.class);
+        when(issue.getId()).thenReturn(2L);
+        IssueService.IssueResult issueResult = mock(IssueService.IssueResult.class);
+        when(issueResult.getIssue()).thenReturn(issue);
+        IssueService issueService = mock(IssueService.class);
+        when(issueService.getIssue(null, "TEST-1")).thenReturn(issueResult);
+        when(issueService.getIssue(null, "TEST-2")).thenReturn(issueResult);
+        when(issueService.newIssueInputParameters()).thenReturn(inputParameters);
+        IssueService.UpdateValidationResult validationResult = mock(IssueService.UpdateValidationResult.class);
+        when(validationResult.getErrorCollection()).thenReturn(errors);
+        when(issueService.validateUpdate(null, 2L, inputParameters)).thenReturn(validationResult);
+        return issueService;
+    }
+
+    private static FactoryRequest request() {
+        return new FactoryRequest(CODENVY_URL, "username", "password", "TEST-1", "TEST", "Test", null, "customfield_1",
+                                  "customfield_2");
+    }
+}
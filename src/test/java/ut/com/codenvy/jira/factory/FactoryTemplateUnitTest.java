@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.factory;
+
+import us.monoid.json.JSONException;
+import us.monoid.json.JSONObject;
+
+import com.codenvy.jira.factory.FactoryTemplate;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FactoryTemplateUnitTest {
+
+    private static final String PARENT_FACTORY = "{\"id\":\"parent\",\"name\":\"test\",\"creator\":{\"userId\":\"u\"}," +
+                                                 "\"policies\":{\"create\":\"perAccount\",\"until\":42}," +
+                                                 "\"workspace\":{\"projects\":[{\"source\":{\"type\":\"git\"," +
+                                                 "\"parameters\":{\"branch\":\"master\"}}}]}}";
+
+    @Test
+    public void testRenderSubstitutesIssueValues() throws JSONException {
+        FactoryTemplate template = FactoryTemplate.compile(PARENT_FACTORY);
+
+        JSONObject factory = new JSONObject(template.render("TEST-1-develop-factory", "TEST-1", "origin/master", "perUser"));
+
+        assertEquals("TEST-1-develop-factory", factory.getString("name"));
+        assertFalse(factory.has("id"));
+        assertFalse(factory.has("creator"));
+        assertEquals("perUser", factory.getJSONObject("policies").getString("create"));
+        assertEquals(42, factory.getJSONObject("policies").getInt("until"));
+        JSONObject source = factory.getJSONObject("workspace").getJSONArray("projects").getJSONObject(0).getJSONObject("source");
+        assertEquals("git", source.getString("type"));
+        assertEquals("TEST-1", source.getJSONObject("parameters").getString("branch"));
+        assertEquals("origin/master", source.getJSONObject("parameters").getString("startPoint"));
+    }
+
+    @Test
+    public void testRendersAreIndependent() throws JSONException {
+        FactoryTemplate template = FactoryTemplate.compile(PARENT_FACTORY);
+
+        String develop = template.render("TEST-1-develop-factory", "TEST-1", "origin/master", "perUser");
+        String review = template.render("TEST-1-review-factory", "TEST-1", "origin/master", "perClick");
+
+        assertEquals("perUser", new JSONObject(develop).getJSONObject("policies").getString("create"));
+        assertEquals("perClick", new JSONObject(review).getJSONObject("policies").getString("create"));
+    }
+
+    @Test
+    public void testValuesAreEscaped() throws JSONException {
+        FactoryTemplate template = FactoryTemplate.compile("{\"workspace\":{\"projects\":[{\"source\":{\"parameters\":{}}}]}}");
+
+        JSONObject factory = new JSONObject(template.render("a\"b", "c\\d", "origin/master", "perUser"));
+
+        assertEquals("a\"b", factory.getString("name"));
+        assertEquals("perUser", factory.getJSONObject("policies").getString("create"));
+    }
+
+    @Test
+    public void testTemplateKnowsItsParentFactory() throws JSONException {
+        FactoryTemplate template = FactoryTemplate.compile(PARENT_FACTORY);
+
+        assertTrue(template.isCompiledFrom(new String(PARENT_FACTORY)));
+        assertFalse(template.isCompiledFrom(PARENT_FACTORY.replace("master", "develop")));
+    }
+}
@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.factory;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.factory.OnDemandFactoryGenerator;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OnDemandFactoryGeneratorUnitTest {
+
+    private FactoryGenerator            generator;
+    private OnDemandFactoryGenerator    onDemandGenerator;
+    private Map<String, String>         storedUrls;
+    private Map<String, IssueFactories> indexed;
+    private AtomicInteger               generations;
+    private Issue                       issue;
+
+    @Before
+    public void setup() {
+        storedUrls = new ConcurrentHashMap<>();
+        indexed = new ConcurrentHashMap<>();
+        generations = new AtomicInteger();
+        issue = mock(Issue.class);
+        when(issue.getKey()).thenReturn("TEST-1");
+
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        FactoryRequestResolver requestResolver = new FactoryRequestResolver(null, null, null, metrics) {
+            @Override
+            public FactoryRequest resolve(Issue issue, ApplicationUser user) {
+                if (!"TEST-1".equals(issue.getKey())) {
+                    return null;
+                }
+                return new FactoryRequest("http://codenvy", "user", "password", issue.getKey(), "TEST", "Test", user,
+                                          "customfield_1", "customfield_2");
+            }
+        };
+        generator = new FactoryGenerator(null, null, null, null, null, null, metrics) {
+            @Override
+            public void generate(FactoryRequest request) {
+                generations.incrementAndGet();
+                try {
+                    // Give concurrent requests time to pile up
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                storedUrls.put("customfield_1", "http://codenvy/f?name=TEST-1-develop-factory");
+                storedUrls.put("customfield_2", "http://codenvy/f?name=TEST-1-review-factory");
+                indexed.remove(request.getIssueKey());
+            }
+        };
+        IssueFactoryIndex index = new IssueFactoryIndex(null) {
+            @Override
+            public IssueFactories get(String issueKey) {
+                return indexed.get(issueKey);
+            }
+        };
+        onDemandGenerator = new OnDemandFactoryGenerator(requestResolver, generator, null, null, index) {
+            @Override
+            protected String getStoredUrl(String issueKey, String fieldId) {
+                return storedUrls.get(fieldId);
+            }
+        };
+    }
+
+    @Test
+    public void testConcurrentRequestsGenerateFactoriesOnce() throws Exception {
+        ExecutorService clicks = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> urls = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final OnDemandFactoryGenerator.Kind kind = i % 2 == 0 ? OnDemandFactoryGenerator.Kind.DEVELOP
+                                                                      : OnDemandFactoryGenerator.Kind.REVIEW;
+                urls.add(clicks.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return onDemandGenerator.getFactoryUrl(issue, null, kind);
+                    }
+                }));
+            }
+            for (int i = 0; i < urls.size(); i++) {
+                assertEquals(i % 2 == 0 ? "http://codenvy/f?name=TEST-1-develop-factory"
+                                        : "http://codenvy/f?name=TEST-1-review-factory", urls.get(i).get());
+            }
+        } finally {
+            clicks.shutdownNow();
+        }
+
+        assertEquals(1, generations.get());
+        assertEquals(0, onDemandGenerator.getInFlight());
+    }
+
+    @Test
+    public void testFactoryIsFoundWithoutGeneratingIt() throws Exception {
+        assertNull(onDemandGenerator.findFactoryUrl(issue, null, OnDemandFactoryGenerator.Kind.DEVELOP));
+        assertEquals(0, generations.get());
+
+        storedUrls.put("customfield_1", "http://codenvy/f?name=TEST-1-develop-factory");
+        assertEquals("http://codenvy/f?name=TEST-1-develop-factory",
+                     onDemandGenerator.findFactoryUrl(issue, null, OnDemandFactoryGenerator.Kind.DEVELOP));
+        assertEquals(0, generations.get());
+    }
+
+    @Test
+    public void testStoredFactoryIsNotGeneratedAgain() throws Exception {
+        storedUrls.put("customfield_2", "http://codenvy/f?name=TEST-1-review-factory");
+
+        assertEquals("http://codenvy/f?name=TEST-1-review-factory",
+                     onDemandGenerator.getFactoryUrl(issue, null, OnDemandFactoryGenerator.Kind.REVIEW));
+        assertEquals(0, generations.get());
+    }
+
+    @Test
+    public void testIndexedFactoryIsServedWithoutResolvingTheIssue() throws Exception {
+        Issue other = mock(Issue.class);
+        when(other.getKey()).thenReturn("OTHER-1");
+        indexed.put("OTHER-1", new IssueFactories("OTHER-1", "d1", "http://codenvy/f?name=OTHER-1-develop-factory", "r1",
+                                                  "http://codenvy/f?name=OTHER-1-review-factory", true));
+
+        assertEquals("http://codenvy/f?name=OTHER-1-develop-factory",
+                     onDemandGenerator.getFactoryUrl(other, null, OnDemandFactoryGenerator.Kind.DEVELOP));
+        assertEquals(0, generations.get());
+    }
+
+    @Test
+    public void testFactoryOfMovedIssueIsGeneratedAgain() throws Exception {
+        storedUrls.put("customfield_1", "http://codenvy/f?name=OLD-1-develop-factory");
+        indexed.put("TEST-1", new IssueFactories("TEST-1", null, null, null, null, false, true));
+
+        assertEquals("http://codenvy/f?name=TEST-1-develop-factory",
+                     onDemandGenerator.getFactoryUrl(issue, null, OnDemandFactoryGenerator.Kind.DEVELOP));
+        assertEquals(1, generations.get());
+    }
+
+    @Test
+    public void testIssueWithoutFactoriesIsNotGenerated() throws Exception {
+        Issue other = mock(Issue.class);
+        when(other.getKey()).thenReturn("OTHER-1");
+
+        assertNull(onDemandGenerator.getFactoryUrl(other, null, OnDemandFactoryGenerator.Kind.DEVELOP));
+        assertEquals(0, generations.get());
+    }
+}
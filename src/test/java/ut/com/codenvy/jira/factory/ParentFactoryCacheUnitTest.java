@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.factory;
+
+import com.codenvy.jira.factory.ParentFactoryCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ParentFactoryCacheUnitTest {
+
+    private AtomicInteger             loads;
+    private ParentFactoryCache.Loader loader;
+
+    @Before
+    public void setup() {
+        loads = new AtomicInteger();
+        loader = new ParentFactoryCache.Loader() {
+            @Override
+            public String load(String projectKey) {
+                loads.incrementAndGet();
+                return "NONE".equals(projectKey) ? null : "{\"name\":\"" + projectKey + "\"}";
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("codenvy.parentFactory.cacheSize");
+    }
+
+    @Test
+    public void testParentFactoryIsLoadedOnce() throws Exception {
+        ParentFactoryCache cache = new ParentFactoryCache();
+
+        assertEquals("{\"name\":\"TEST\"}", cache.get("TEST", loader));
+        assertEquals("{\"name\":\"TEST\"}", cache.get("TEST", loader));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testMissingParentFactoryIsCached() throws Exception {
+        ParentFactoryCache cache = new ParentFactoryCache();
+
+        assertNull(cache.get("NONE", loader));
+        assertNull(cache.get("NONE", loader));
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testConcurrentMissesShareOneLoad() throws Exception {
+        final ParentFactoryCache cache = new ParentFactoryCache();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ParentFactoryCache.Loader slowLoader = new ParentFactoryCache.Loader() {
+            @Override
+            public String load(String projectKey) {
+                loads.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return cache.get("NONE", slowLoader);
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertNull(result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, loads.get());
+        assertEquals(31, cache.getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedProjectIsEvicted() throws Exception {
+        System.setProperty("codenvy.parentFactory.cacheSize", "2");
+        ParentFactoryCache cache = new ParentFactoryCache();
+
+        cache.get("A", loader);
+        cache.get("B", loader);
+        cache.get("A", loader);
+        cache.get("C", loader);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.getIfPresent("B"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        ParentFactoryCache cache = new ParentFactoryCache();
+        cache.get("TEST", loader);
+
+        cache.invalidate("TEST");
+        cache.get("TEST", loader);
+
+        assertEquals(2, loads.get());
+    }
+}
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.metrics;
+
+import com.codenvy.jira.metrics.CodenvyMetrics;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CodenvyMetricsUnitTest {
+
+    @Test
+    public void testOutcomesAreCounted() {
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        metrics.recordSuccess();
+        metrics.recordSuccess();
+        metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_CONFIG);
+        metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_FIELDS);
+        metrics.recordSkipped(CodenvyMetrics.SKIPPED_MISSING_FIELDS);
+        metrics.recordError(new IOException());
+        metrics.recordError(new IllegalStateException());
+        metrics.recordError(new IOException());
+
+        assertEquals(2, metrics.getSucceeded());
+        assertEquals(1, metrics.getSkippedMissingConfig());
+        assertEquals(2, metrics.getSkippedMissingFields());
+        assertEquals(Long.valueOf(2), metrics.getErrors().get("IOException"));
+        assertEquals(Long.valueOf(1), metrics.getErrors().get("IllegalStateException"));
+    }
+
+    @Test
+    public void testStagesAndGaugesAreReported() {
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        metrics.recordStage("find", System.nanoTime());
+        metrics.recordStage("find", System.nanoTime());
+        metrics.registerGauge("queueDepth", new CodenvyMetrics.Gauge() {
+            @Override
+            public long getValue() {
+                return 7;
+            }
+        });
+        metrics.generationStarted();
+
+        assertEquals(Long.valueOf(2), metrics.getStageCounts().get("find"));
+        assertTrue(metrics.getStageMaxMillis().get("find") >= metrics.getStageMeanMillis().get("find"));
+        assertEquals(Collections.singletonMap("queueDepth", 7L), metrics.getGauges());
+        assertEquals(1, metrics.getInFlightGenerations());
+    }
+
+    @Test
+    public void testResetKeepsGauges() {
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        metrics.recordSuccess();
+        metrics.recordStage("find", System.nanoTime());
+        metrics.recordError(new IOException());
+        metrics.generationStarted();
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getSucceeded());
+        assertTrue(metrics.getStages().isEmpty());
+        assertTrue(metrics.getErrors().isEmpty());
+        assertEquals(1, metrics.getInFlightGenerations());
+    }
+
+    @Test
+    public void testStageMapsAreReadableOverJmx() throws Exception {
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        metrics.recordStage("find", System.nanoTime());
+        metrics.afterPropertiesSet();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(CodenvyMetrics.OBJECT_NAME);
+
+            assertTrue(server.getAttribute(name, "StageCounts") instanceof TabularData);
+            assertEquals(1, ((TabularData)server.getAttribute(name, "StageP99Millis")).size());
+        } finally {
+            metrics.destroy();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.metrics;
+
+import com.codenvy.jira.metrics.LatencyStats;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyStatsUnitTest {
+
+    @Test
+    public void testTotalIsCumulative() {
+        LatencyStats stats = new LatencyStats();
+        stats.record(TimeUnit.MILLISECONDS.toNanos(10));
+        stats.record(TimeUnit.MILLISECONDS.toNanos(30));
+
+        assertEquals(2, stats.getCount());
+        assertEquals(40, stats.getTotalMillis(), 0);
+        assertEquals(20, stats.getMeanMillis(), 0);
+        assertEquals(30, stats.getMaxMillis(), 0);
+    }
+
+    @Test
+    public void testPercentilesAreComputedOverRecentExecutions() {
+        LatencyStats stats = new LatencyStats();
+        for (int i = 0; i < LatencyStats.RECENT_SAMPLES; i++) {
+            stats.record(TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+        for (int i = 0; i < LatencyStats.RECENT_SAMPLES; i++) {
+            stats.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        assertEquals(1, stats.getPercentileMillis(99), 0);
+
+        for (int i = 0; i < LatencyStats.RECENT_SAMPLES / 50; i++) {
+            stats.record(TimeUnit.MILLISECONDS.toNanos(1000));
+        }
+        assertEquals(1, stats.getPercentileMillis(95), 0);
+        assertEquals(1000, stats.getPercentileMillis(99), 0);
+    }
+
+    @Test
+    public void testPercentileIsZeroWithoutExecutions() {
+        assertEquals(0, new LatencyStats().getPercentileMillis(95), 0);
+    }
+}
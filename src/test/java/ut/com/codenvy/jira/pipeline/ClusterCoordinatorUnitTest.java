@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.atlassian.beehive.ClusterLock;
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.jira.cluster.ClusterManager;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ClusterCoordinatorUnitTest {
+
+    private ClusterManager          clusterManager;
+    private ClusterLockService      clusterLockService;
+    private ClusterMessagingService clusterMessagingService;
+    private Set<String>             lockNames;
+
+    @Before
+    public void setup() {
+        System.setProperty("codenvy.cluster.lockStripes", "4");
+        lockNames = new HashSet<>();
+        clusterManager = mock(ClusterManager.class);
+        clusterMessagingService = mock(ClusterMessagingService.class);
+        clusterLockService = new ClusterLockService() {
+            @Override
+            public ClusterLock getLockForName(String lockName) {
+                lockNames.add(lockName);
+                return mock(ClusterLock.class);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("codenvy.cluster.lockStripes");
+    }
+
+    @Test
+    public void testIssuesShareABoundedNumberOfLocks() {
+        ClusterCoordinator coordinator = new ClusterCoordinator(clusterLockService, clusterManager, clusterMessagingService);
+
+        for (int i = 0; i < 100; i++) {
+            coordinator.getIssueLock("TEST-" + i);
+        }
+
+        assertEquals(4, lockNames.size());
+        for (String lockName : lockNames) {
+            assertTrue(lockName.startsWith("com.codenvy.jira.issue."));
+        }
+    }
+
+    @Test
+    public void testNodeIdOfClusteredJira() {
+        when(clusterManager.isClustered()).thenReturn(true);
+        when(clusterManager.getNodeId()).thenReturn("node1");
+        ClusterCoordinator coordinator = new ClusterCoordinator(clusterLockService, clusterManager, clusterMessagingService);
+
+        assertEquals("node1", coordinator.getNodeId());
+        coordinator.announceWork();
+        verify(clusterMessagingService).sendRemote(anyString(), anyString());
+    }
+
+    @Test
+    public void testNodeIdOfSingleNodeJira() {
+        when(clusterManager.isClustered()).thenReturn(false);
+        ClusterCoordinator coordinator = new ClusterCoordinator(clusterLockService, clusterManager, clusterMessagingService);
+
+        assertEquals("local", coordinator.getNodeId());
+    }
+}
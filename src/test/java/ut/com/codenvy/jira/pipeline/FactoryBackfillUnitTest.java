@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.search.SearchException;
+import com.atlassian.jira.issue.search.SearchResults;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.atlassian.jira.util.MessageSetImpl;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+import com.codenvy.jira.pipeline.FactoryBackfill;
+import com.codenvy.jira.pipeline.FactoryGenerationQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FactoryBackfillUnitTest {
+
+    private FactoryGenerationQueue queue;
+    private FactoryBackfill        backfill;
+    private SearchService          searchService;
+    private ApplicationUser        user;
+    private Map<String, Object>    settings;
+    private Set<String>            generated;
+
+    @Before
+    public void setup() throws SearchException {
+        System.setProperty("codenvy.backfill.pageSize", "2");
+        settings = new ConcurrentHashMap<>();
+        generated = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        queue = new FactoryGenerationQueue(metrics);
+
+        user = mock(ApplicationUser.class);
+        when(user.getKey()).thenReturn("admin");
+        UserManager jiraUserManager = mock(UserManager.class);
+        when(jiraUserManager.getUserByKey("admin")).thenReturn(user);
+
+        CustomField developField = mock(CustomField.class);
+        CustomField reviewField = mock(CustomField.class);
+        CustomFieldManager customFieldManager = mock(CustomFieldManager.class);
+        when(customFieldManager.getCustomFieldObject("customfield_1")).thenReturn(developField);
+        when(customFieldManager.getCustomFieldObject("customfield_2")).thenReturn(reviewField);
+
+        List<Issue> issues = Arrays.asList(issue("A-1", developField, reviewField, "http://develop", "http://review"),
+                               issue("A-2", developField, reviewField, null, null),
+                               issue("B-1", developField, reviewField, null, null),
+                               issue("A-3", developField, reviewField, "http://develop", null),
+                               issue("A-4", developField, reviewField, null, null));
+        searchService = mock(SearchService.class);
+        Query query = mock(Query.class);
+        when(searchService.parseQuery(any(ApplicationUser.class), anyString()))
+                .thenReturn(new SearchService.ParseResult(query, new MessageSetImpl()));
+        when(searchService.search(any(ApplicationUser.class), any(Query.class), page(0)))
+                .thenReturn(new SearchResults(issues.subList(0, 2), 5, 2, 0));
+        when(searchService.search(any(ApplicationUser.class), any(Query.class), page(2)))
+                .thenReturn(new SearchResults(issues.subList(2, 4), 5, 2, 2));
+        when(searchService.search(any(ApplicationUser.class), any(Query.class), page(4)))
+                .thenReturn(new SearchResults(issues.subList(4, 5), 5, 2, 4));
+        when(searchService.search(any(ApplicationUser.class), any(Query.class), page(5)))
+                .thenReturn(new SearchResults(Collections.<Issue>emptyList(), 5, 2, 5));
+
+        PluginSettingsFactory pluginSettingsFactory = mock(PluginSettingsFactory.class);
+        when(pluginSettingsFactory.createGlobalSettings()).thenReturn(new MapPluginSettings());
+
+        FactoryRequestResolver requestResolver = new FactoryRequestResolver(null, null, null, metrics) {
+            @Override
+            public FactoryRequest resolve(Issue issue, ApplicationUser user) {
+                // project B is not factory enabled
+                if (issue.getKey().startsWith("B-")) {
+                    return null;
+                }
+                return new FactoryRequest("http://codenvy", "user", "password", issue.getKey(), "A", "Project A", user,
+                                          "customfield_1", "customfield_2");
+            }
+        };
+        FactoryGenerator generator = new FactoryGenerator(null, null, null, null, null, null, metrics) {
+            @Override
+            public void generate(FactoryRequest request) {
+                generated.add(request.getIssueKey());
+            }
+        };
+        ClusterCoordinator clusterCoordinator = new ClusterCoordinator(null, null, null) {
+            private final Lock lock = new ReentrantLock();
+
+            @Override
+            public String getNodeId() {
+                return "node1";
+            }
+
+            @Override
+            public Lock getLock(String name) {
+                return lock;
+            }
+        };
+        backfill = new FactoryBackfill(searchService, jiraUserManager, customFieldManager, pluginSettingsFactory,
+                                       requestResolver, queue, generator, null, clusterCoordinator);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty("codenvy.backfill.pageSize");
+        backfill.destroy();
+        queue.destroy();
+    }
+
+    @Test
+    public void testIssuesWithoutFactoriesAreGenerated() throws InterruptedException {
+        backfill.start("project in (A, B)", user);
+        awaitEnd();
+
+        assertEquals(FactoryBackfill.State.DONE, backfill.getState());
+        assertEquals(new HashSet<>(Arrays.asList("A-2", "A-3", "A-4")), generated);
+        assertEquals(5, backfill.getTotal());
+        assertEquals(5, backfill.getProcessed());
+        assertEquals(3, backfill.getGenerated());
+        assertEquals(2, backfill.getSkipped());
+        assertEquals(0, backfill.getFailed());
+        assertEquals("5", settings.get("codenvy.backfill.offset"));
+        assertEquals("DONE", settings.get("codenvy.backfill.state"));
+    }
+
+    @Test
+    public void testInterruptedBackfillIsResumedFromTheLastPage() throws Exception {
+        settings.put("codenvy.backfill.jql", "project in (A, B)");
+        settings.put("codenvy.backfill.user", "admin");
+        settings.put("codenvy.backfill.offset", "4");
+        settings.put("codenvy.backfill.state", "RUNNING");
+
+        backfill.afterPropertiesSet();
+
+        assertEquals(FactoryBackfill.State.RUNNING, backfill.getState());
+        assertEquals("project in (A, B)", backfill.getJql());
+        // the last saved page may not have been generated, it is done again
+        assertEquals(2, backfill.getProcessed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOnlyOneBackfillRunsAtATime() throws Exception {
+        settings.put("codenvy.backfill.jql", "project = A");
+        settings.put("codenvy.backfill.user", "admin");
+        settings.put("codenvy.backfill.state", "RUNNING");
+        backfill.afterPropertiesSet();
+
+        backfill.start("project = B", user);
+    }
+
+    @Test
+    public void testBackfillRunningOnAnotherNodeIsLeftToIt() throws Exception {
+        settings.put("codenvy.backfill.jql", "project = A");
+        settings.put("codenvy.backfill.user", "admin");
+        settings.put("codenvy.backfill.state", "RUNNING");
+        settings.put("codenvy.backfill.node", "node2");
+        settings.put("codenvy.backfill.heartbeat", String.valueOf(System.currentTimeMillis()));
+
+        backfill.afterPropertiesSet();
+
+        assertNull(backfill.getJql());
+        assertEquals(FactoryBackfill.State.RUNNING, backfill.getState());
+        assertEquals("node2", backfill.getNode());
+        try {
+            backfill.start("project = B", user);
+            fail("backfill started while another node runs one");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("node2"));
+        }
+
+        backfill.cancel();
+        assertEquals("CANCELLED", settings.get("codenvy.backfill.state"));
+    }
+
+    @Test
+    public void testBackfillOfAStoppedNodeIsTakenOver() throws Exception {
+        settings.put("codenvy.backfill.jql", "project in (A, B)");
+        settings.put("codenvy.backfill.user", "admin");
+        settings.put("codenvy.backfill.offset", "4");
+        settings.put("codenvy.backfill.state", "RUNNING");
+        settings.put("codenvy.backfill.node", "node2");
+        settings.put("codenvy.backfill.heartbeat", String.valueOf(System.currentTimeMillis() - 600000));
+
+        backfill.afterPropertiesSet();
+
+        assertEquals("project in (A, B)", backfill.getJql());
+        assertEquals("node1", backfill.getNode());
+        assertEquals(2, backfill.getProcessed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidQueryIsRejected() {
+        MessageSetImpl errors = new MessageSetImpl();
+        errors.addErrorMessage("Error in the JQL Query");
+        when(searchService.parseQuery(any(ApplicationUser.class), anyString()))
+                .thenReturn(new SearchService.ParseResult(null, errors));
+
+        backfill.start("project ==", user);
+    }
+
+    private void awaitEnd() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (backfill.getState() == FactoryBackfill.State.RUNNING) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("backfill not done");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static Issue issue(String key, CustomField developField, CustomField reviewField, String developUrl,
+                               String reviewUrl) {
+        Issue issue = mock(Issue.class);
+        when(issue.getKey()).thenReturn(key);
+        when(issue.getCustomFieldValue(developField)).thenReturn(developUrl);
+        when(issue.getCustomFieldValue(reviewField)).thenReturn(reviewUrl);
+        return issue;
+    }
+
+    private PagerFilter page(final int start) {
+        return argThat(new ArgumentMatcher<PagerFilter>() {
+            @Override
+            public boolean matches(Object argument) {
+                return argument != null && ((PagerFilter)argument).getStart() == start;
+            }
+        });
+    }
+
+    private class MapPluginSettings implements PluginSettings {
+        @Override
+        public Object get(String key) {
+            return settings.get(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return settings.put(key, value);
+        }
+
+        @Override
+        public Object remove(String key) {
+            return settings.remove(key);
+        }
+    }
+}
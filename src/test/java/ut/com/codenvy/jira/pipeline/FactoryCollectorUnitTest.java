@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.codenvy.jira.client.CodenvyClient;
+import com.codenvy.jira.client.CodenvyHttpClient;
+import com.codenvy.jira.client.CodenvyHttpException;
+import com.codenvy.jira.client.CodenvySession;
+import com.codenvy.jira.client.CodenvySessionManager;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.FactoryCollector;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FactoryCollectorUnitTest {
+
+    private static final String CODENVY_URL = "http://unittest.codenvy.com";
+
+    private List<String>      deleted;
+    private Integer           failWith;
+    private String            failingFactory;
+    private CountDownLatch    deleting;
+    private CountDownLatch    release;
+    private CodenvyHttpClient httpClient;
+    private CodenvyClient     client;
+    private FactoryCollector  collector;
+
+    @Before
+    public void setup() {
+        System.setProperty("codenvy.gc.batchSize", "3");
+        deleted = new CopyOnWriteArrayList<>();
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        httpClient = new CodenvyHttpClient(metrics) {
+            @Override
+            public CompletionStage<Void> delete(final String url) {
+                // Answered later by Codenvy
+                return CompletableFuture.runAsync(() -> {
+                    if (release != null) {
+                        deleting.countDown();
+                        try {
+                            release.await(5, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new CompletionException(new InterruptedIOException());
+                        }
+                    }
+                    if (failWith != null && (failingFactory == null || url.contains("/" + failingFactory + "?"))) {
+                        throw new CompletionException(new CodenvyHttpException(failWith, "Codenvy answered " + failWith));
+                    }
+                    deleted.add(url);
+                });
+            }
+        };
+        CodenvySessionManager sessionManager = new CodenvySessionManager(httpClient, metrics) {
+            @Override
+            protected CompletionStage<CodenvySession> login(String instanceUrl, String username, String password) {
+                long now = System.currentTimeMillis();
+                return CompletableFuture.completedFuture(
+                        new CodenvySession(instanceUrl, username, password, "token", "userId", now + 60000, now + 120000));
+            }
+        };
+        CodenvySettingsService settingsService = new CodenvySettingsService(null, null, null, null) {
+            @Override
+            public CodenvySettings get() {
+                return new CodenvySettings(CODENVY_URL, "username", "password");
+            }
+        };
+        client = new CodenvyClient(httpClient, sessionManager);
+        collector = new FactoryCollector(settingsService, client, metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        collector.destroy();
+        httpClient.destroy();
+        System.clearProperty("codenvy.gc.batchSize");
+    }
+
+    @Test
+    public void testFactoriesAreDeletedByBatches() {
+        collect("d1", "r1");
+        collect("d2", "r2");
+
+        collector.deleteBatch();
+
+        // The factories of a batch are deleted concurrently
+        assertEquals(new HashSet<>(Arrays.asList(CODENVY_URL + "/api/factory/d1?token=token",
+                                                 CODENVY_URL + "/api/factory/r1?token=token",
+                                                 CODENVY_URL + "/api/factory/d2?token=token")), new HashSet<>(deleted));
+        assertEquals(1, collector.getPending());
+
+        collector.deleteBatch();
+
+        assertEquals(4, deleted.size());
+        assertEquals(0, collector.getPending());
+        assertEquals(4, collector.getDeleted());
+    }
+
+    @Test
+    public void testFactoriesAreKeptWhileCodenvyIsDown() {
+        collect("d1", "r1");
+        failWith = 503;
+
+        collector.deleteBatch();
+
+        assertTrue(deleted.isEmpty());
+        assertEquals(2, collector.getPending());
+
+        failWith = null;
+        collector.deleteBatch();
+
+        assertEquals(2, deleted.size());
+        assertEquals(0, collector.getPending());
+    }
+
+    @Test
+    public void testOnlyFactoriesNotDeletedAreKept() {
+        collect("d1", "r1");
+        failWith = 503;
+        failingFactory = "r1";
+
+        collector.deleteBatch();
+
+        assertEquals(Arrays.asList(CODENVY_URL + "/api/factory/d1?token=token"), deleted);
+        assertEquals(1, collector.getPending());
+        assertEquals(1, collector.getDeleted());
+    }
+
+    @Test
+    public void testAlreadyDeletedFactoriesAreCounted() {
+        collect("d1", "r1");
+        failWith = 404;
+
+        collector.deleteBatch();
+
+        assertEquals(0, collector.getPending());
+        assertEquals(2, collector.getDeleted());
+        assertEquals(0, collector.getFailed());
+    }
+
+    @Test
+    public void testFactoriesBeingDeletedArePending() throws Exception {
+        collect("d1");
+        deleting = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        Thread batch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                collector.deleteBatch();
+            }
+        });
+        batch.start();
+        try {
+            assertTrue(deleting.await(5, TimeUnit.SECONDS));
+
+            // Out of the queue but not deleted yet
+            assertEquals(1, collector.getPending());
+        } finally {
+            release.countDown();
+            batch.join();
+        }
+        assertEquals(0, collector.getPending());
+    }
+
+    private void collect(String... factoryIds) {
+        for (String factoryId : factoryIds) {
+            assertTrue(collector.collect(factoryId));
+        }
+    }
+}
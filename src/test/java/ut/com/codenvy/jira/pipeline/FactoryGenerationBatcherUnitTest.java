@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.FactoryGenerationBatcher;
+import com.codenvy.jira.pipeline.FactoryGenerationQueue;
+import com.codenvy.jira.pipeline.FactoryOutbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FactoryGenerationBatcherUnitTest {
+
+    private FactoryGenerationQueue   queue;
+    private FactoryGenerationBatcher batcher;
+    private FactoryGenerator         generator;
+    private FactoryOutbox            outbox;
+    private CodenvyMetrics           metrics;
+    private AtomicInteger            parentLookups;
+    private CountDownLatch           generated;
+    private List<String>             handedOff;
+
+    @Before
+    public void setup() {
+        System.setProperty("codenvy.batch.size", "4");
+        System.setProperty("codenvy.batch.window", "60000");
+        parentLookups = new AtomicInteger();
+        generated = new CountDownLatch(4);
+        handedOff = new CopyOnWriteArrayList<>();
+        metrics = new CodenvyMetrics();
+        queue = new FactoryGenerationQueue(metrics);
+        generator = new FactoryGenerator(null, null, null, null, null, null, metrics) {
+            @Override
+            public String getParentFactory(FactoryRequest request) {
+                parentLookups.incrementAndGet();
+                // Project C has no parent factory on Codenvy
+                return "C".equals(request.getProjectKey()) ? null : "{}";
+            }
+
+            @Override
+            public void generate(FactoryRequest request) {
+                generated.countDown();
+            }
+        };
+        outbox = new FactoryOutbox(null, null, null, null, null, null, null) {
+            @Override
+            public void handOff(FactoryRequest request) {
+                handedOff.add(request.getIssueKey());
+            }
+        };
+        batcher = new FactoryGenerationBatcher(queue, generator, outbox, metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty("codenvy.batch.size");
+        System.clearProperty("codenvy.batch.window");
+        batcher.destroy();
+        queue.destroy();
+        outbox.destroy();
+    }
+
+    @Test
+    public void testFullBatchIsGroupedByProject() throws InterruptedException {
+        batcher.add(request("A-1", "A"));
+        batcher.add(request("A-2", "A"));
+        batcher.add(request("B-1", "B"));
+        batcher.add(request("A-3", "A"));
+
+        assertTrue("factories not generated", generated.await(5, TimeUnit.SECONDS));
+        assertEquals(1, batcher.getBatches());
+        assertEquals(4, batcher.getBatchedRequests());
+        // the parent factory of A is fetched once for its 3 issues, B has a single issue
+        assertEquals(1, parentLookups.get());
+    }
+
+    @Test
+    public void testFlushDispatchesPartialBatch() throws InterruptedException {
+        batcher.add(request("A-1", "A"));
+        batcher.flush();
+
+        assertTrue(waitFor(generated, 3));
+        assertEquals(1, batcher.getBatches());
+    }
+
+    @Test
+    public void testIssuesOfProjectWithoutParentFactoryAreCountedAsSkipped() throws InterruptedException {
+        batcher.add(request("C-1", "C"));
+        batcher.add(request("C-2", "C"));
+        batcher.add(request("C-3", "C"));
+        batcher.add(request("A-1", "A"));
+
+        assertTrue(waitFor(generated, 3));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (metrics.getSkipped().get(CodenvyMetrics.SKIPPED_MISSING_PARENT_FACTORY) == null &&
+               System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Long.valueOf(3), metrics.getSkipped().get(CodenvyMetrics.SKIPPED_MISSING_PARENT_FACTORY));
+    }
+
+    @Test
+    public void testRejectedProjectBatchIsHandedOff() throws Exception {
+        batcher.destroy();
+        FactoryGenerationQueue fullQueue = new FactoryGenerationQueue(metrics) {
+            @Override
+            public boolean submit(String issueKey, Runnable work, Runnable onEvicted) {
+                return false;
+            }
+        };
+        batcher = new FactoryGenerationBatcher(fullQueue, generator, outbox, metrics);
+        try {
+            batcher.add(request("A-1", "A"));
+            batcher.add(request("A-2", "A"));
+            batcher.add(request("A-3", "A"));
+            batcher.add(request("B-1", "B"));
+
+            assertEquals(Arrays.asList("A-1", "A-2", "A-3", "B-1"), handedOff);
+        } finally {
+            fullQueue.destroy();
+        }
+    }
+
+    private static boolean waitFor(CountDownLatch latch, long remaining) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (latch.getCount() > remaining && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return latch.getCount() == remaining;
+    }
+
+    private static FactoryRequest request(String issueKey, String projectKey) {
+        return new FactoryRequest("http://unittest.codenvy.com", "username", "password", issueKey, projectKey, projectKey, null,
+                                  "customfield_10000", "customfield_10001");
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.FactoryGenerationQueue;
+import com.codenvy.jira.pipeline.VirtualThreads;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FactoryGenerationQueueUnitTest {
+
+    private FactoryGenerationQueue queue;
+
+    @After
+    public void tearDown() throws Exception {
+        System.clearProperty("codenvy.queue.workers");
+        System.clearProperty("codenvy.queue.capacity");
+        System.clearProperty("codenvy.queue.overflow");
+        System.clearProperty("codenvy.queue.virtualThreads");
+        System.clearProperty("codenvy.http.maxInFlight");
+        if (queue != null) {
+            queue.destroy();
+        }
+    }
+
+    @Test
+    public void testSubmitRunsWorkInBackground() throws InterruptedException {
+        queue = new FactoryGenerationQueue(new CodenvyMetrics());
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread caller = Thread.currentThread();
+        final Thread[] worker = new Thread[1];
+
+        assertTrue(queue.submit("ISSUE-KEY", new Runnable() {
+            @Override
+            public void run() {
+                worker[0] = Thread.currentThread();
+                done.countDown();
+            }
+        }));
+
+        assertTrue("work not executed", done.await(5, TimeUnit.SECONDS));
+        assertFalse("work executed on the caller thread", caller == worker[0]);
+        assertEquals(1, queue.getSubmitted());
+    }
+
+    @Test
+    public void testVirtualThreadsFallBackToPlatformThreads() throws InterruptedException {
+        System.setProperty("codenvy.queue.virtualThreads", "true");
+        System.setProperty("codenvy.http.maxInFlight", "50");
+        queue = new FactoryGenerationQueue(new CodenvyMetrics());
+        final CountDownLatch done = new CountDownLatch(1);
+        final String[] workerName = new String[1];
+
+        assertTrue(queue.submit("ISSUE-KEY", new Runnable() {
+            @Override
+            public void run() {
+                workerName[0] = Thread.currentThread().getName();
+                done.countDown();
+            }
+        }));
+
+        assertTrue("work not executed", done.await(5, TimeUnit.SECONDS));
+        assertTrue(workerName[0].startsWith("codenvy-factory-worker-"));
+        // Java 21 or later runs the work on virtual threads, older JDKs on the default pool
+        assertEquals(VirtualThreads.isSupported(), queue.isVirtualThreads());
+        // No more workers than calls allowed in flight
+        assertEquals(VirtualThreads.isSupported() ? 50 : 4, queue.getWorkers());
+    }
+
+    @Test
+    public void testFullQueueRejectsWorkByDefault() {
+        queue = new FactoryGenerationQueue(new CodenvyMetrics());
+
+        // The event thread must never run a generation itself
+        assertEquals(FactoryGenerationQueue.OverflowPolicy.DISCARD, queue.getOverflowPolicy());
+    }
+
+    @Test
+    public void testDiscardWhenQueueIsFull() throws InterruptedException {
+        System.setProperty("codenvy.queue.workers", "1");
+        System.setProperty("codenvy.queue.capacity", "1");
+        System.setProperty("codenvy.queue.overflow", "discard");
+        queue = new FactoryGenerationQueue(new CodenvyMetrics());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        assertTrue(queue.submit("ISSUE-1", blocking));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(queue.submit("ISSUE-2", blocking));
+        assertFalse(queue.submit("ISSUE-3", blocking));
+        assertEquals(1, queue.getQueueDepth());
+        assertEquals(1, queue.getRejected());
+        release.countDown();
+    }
+
+    @Test
+    public void testOldestWorkIsHandedBackWhenEvicted() throws InterruptedException {
+        System.setProperty("codenvy.queue.workers", "1");
+        System.setProperty("codenvy.queue.capacity", "1");
+        System.setProperty("codenvy.queue.overflow", "discard_oldest");
+        queue = new FactoryGenerationQueue(new CodenvyMetrics());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> evicted = new CopyOnWriteArrayList<>();
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        assertTrue(queue.submit("ISSUE-1", blocking, null));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(queue.submit("ISSUE-2", blocking, new Runnable() {
+            @Override
+            public void run() {
+                evicted.add("ISSUE-2");
+            }
+        }));
+        assertTrue(queue.submit("ISSUE-3", blocking, null));
+
+        assertEquals(1, evicted.size());
+        assertEquals("ISSUE-2", evicted.get(0));
+        assertEquals(1, queue.getQueueDepth());
+        release.countDown();
+    }
+}
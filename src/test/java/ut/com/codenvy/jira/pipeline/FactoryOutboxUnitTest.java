@@ -0,0 +1,315 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.user.util.UserManager;
+import com.codenvy.jira.client.CodenvyThrottledException;
+import com.codenvy.jira.factory.FactoryGenerator;
+import com.codenvy.jira.factory.FactoryRequest;
+import com.codenvy.jira.factory.FactoryRequestResolver;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+import com.codenvy.jira.pipeline.FactoryGenerationBatcher;
+import com.codenvy.jira.pipeline.FactoryGenerationQueue;
+import com.codenvy.jira.pipeline.FactoryOutbox;
+import com.codenvy.jira.pipeline.FactoryOutboxEntry;
+
+import net.java.ao.DBParam;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FactoryOutboxUnitTest {
+
+    @After
+    public void tearDown() {
+        System.clearProperty("codenvy.outbox.backoff");
+        System.clearProperty("codenvy.outbox.maxBackoff");
+        System.clearProperty("codenvy.queue.workers");
+        System.clearProperty("codenvy.queue.capacity");
+        System.clearProperty("codenvy.batch.size");
+        System.clearProperty("codenvy.outbox.maxAttempts");
+    }
+
+    @Test
+    public void testRetryDelayDoublesAfterEachAttempt() {
+        System.setProperty("codenvy.outbox.backoff", "10");
+        System.setProperty("codenvy.outbox.maxBackoff", "1000");
+        FactoryOutbox outbox = new FactoryOutbox(null, null, null, null, null, null, null);
+
+        assertDelay(10000, outbox.getRetryDelay(1));
+        assertDelay(20000, outbox.getRetryDelay(2));
+        assertDelay(40000, outbox.getRetryDelay(3));
+        assertDelay(80000, outbox.getRetryDelay(4));
+    }
+
+    @Test
+    public void testRetryDelayIsCapped() {
+        System.setProperty("codenvy.outbox.backoff", "10");
+        System.setProperty("codenvy.outbox.maxBackoff", "60");
+        FactoryOutbox outbox = new FactoryOutbox(null, null, null, null, null, null, null);
+
+        assertDelay(60000, outbox.getRetryDelay(4));
+        assertDelay(60000, outbox.getRetryDelay(100));
+        assertDelay(60000, outbox.getRetryDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testGenerationRejectedBySaturatedNodeIsClaimedByAnotherNode() throws Exception {
+        System.setProperty("codenvy.queue.workers", "1");
+        System.setProperty("codenvy.queue.capacity", "1");
+        System.setProperty("codenvy.batch.size", "1");
+        // Both nodes share the database and the cluster locks
+        ActiveObjects ao = InMemoryActiveObjects.create();
+        Lock clusterLock = new ReentrantLock();
+        ApplicationUser user = mock(ApplicationUser.class);
+        when(user.getKey()).thenReturn("user");
+        final FactoryRequest request = new FactoryRequest("http://unittest.codenvy.com", "username", "password", "TEST-3",
+                                                          "TEST", "Test", user, "customfield_1", "customfield_2");
+        final CountDownLatch generatedByNode2 = new CountDownLatch(1);
+
+        // Node 1: its single worker is busy and its queue is full
+        CodenvyMetrics metrics = new CodenvyMetrics();
+        FactoryGenerationQueue saturatedQueue = new FactoryGenerationQueue(metrics);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        assertTrue(saturatedQueue.submit("TEST-1", blocking));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(saturatedQueue.submit("TEST-2", blocking));
+        FactoryOutbox node1Outbox = new FactoryOutbox(ao, saturatedQueue, null, null, null, null, coordinator("node1", clusterLock));
+        FactoryGenerationBatcher node1Batcher = new FactoryGenerationBatcher(saturatedQueue, null, node1Outbox, metrics);
+
+        // Node 2: idle
+        FactoryGenerationQueue idleQueue = new FactoryGenerationQueue(metrics);
+        FactoryGenerator node2Generator = new FactoryGenerator(null, null, null, null, null, null, metrics) {
+            @Override
+            public void generate(FactoryRequest generated) {
+                if (generated.getIssueKey().equals("TEST-3")) {
+                    generatedByNode2.countDown();
+                }
+            }
+        };
+        FactoryRequestResolver node2Resolver = new FactoryRequestResolver(null, null, null, metrics) {
+            @Override
+            public FactoryRequest resolve(Issue issue, ApplicationUser issueUser) {
+                return request;
+            }
+        };
+        IssueManager issueManager = mock(IssueManager.class);
+        when(issueManager.getIssueObject("TEST-3")).thenReturn(mock(MutableIssue.class));
+        UserManager userManager = mock(UserManager.class);
+        when(userManager.getUserByKey("user")).thenReturn(user);
+        FactoryOutbox node2Outbox = new FactoryOutbox(ao, idleQueue, node2Generator, node2Resolver, issueManager,
+                                                      userManager, coordinator("node2", clusterLock));
+        try {
+            node1Batcher.add(request);
+            assertEquals(1, node1Outbox.getHandedOff());
+            assertEquals(1, node1Outbox.getSize());
+
+            node2Outbox.drain();
+
+            assertTrue("handed off generation not run by the idle node", generatedByNode2.await(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (node2Outbox.getSize() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, node2Outbox.getSize());
+        } finally {
+            release.countDown();
+            node1Batcher.destroy();
+            node1Outbox.destroy();
+            node2Outbox.destroy();
+            saturatedQueue.destroy();
+            idleQueue.destroy();
+        }
+    }
+
+    @Test
+    public void testGenerationFailingWithRuntimeExceptionIsDropped() throws Exception {
+        ActiveObjects ao = InMemoryActiveObjects.create();
+        FactoryGenerationQueue queue = new FactoryGenerationQueue(new CodenvyMetrics());
+        final CountDownLatch generated = new CountDownLatch(1);
+        FactoryGenerator generator = new FactoryGenerator(null, null, null, null, null, null, new CodenvyMetrics()) {
+            @Override
+            public void generate(FactoryRequest request) {
+                generated.countDown();
+                throw new NullPointerException("issue is gone");
+            }
+        };
+        FactoryOutbox outbox = outbox(ao, queue, generator, "node1");
+        try {
+            outbox.handOff(newRequest());
+
+            outbox.drain();
+
+            assertTrue(generated.await(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (outbox.getSize() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, outbox.getSize());
+        } finally {
+            outbox.destroy();
+            queue.destroy();
+        }
+    }
+
+    @Test
+    public void testExpiredLeaseCountsAsAttempt() throws Exception {
+        System.setProperty("codenvy.outbox.maxAttempts", "2");
+        ActiveObjects ao = InMemoryActiveObjects.create();
+        ao.create(FactoryOutboxEntry.class,
+                  new DBParam("ISSUE_KEY", "TEST-3"),
+                  new DBParam("USER_KEY", "user"),
+                  new DBParam("OWNER_NODE", "crashed"),
+                  new DBParam("ATTEMPTS", 1),
+                  new DBParam("NEXT_ATTEMPT_AT", System.currentTimeMillis() - 1));
+        FactoryGenerationQueue queue = new FactoryGenerationQueue(new CodenvyMetrics());
+        final CountDownLatch generated = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FactoryGenerator generator = new FactoryGenerator(null, null, null, null, null, null, new CodenvyMetrics()) {
+            @Override
+            public void generate(FactoryRequest request) {
+                generated.countDown();
+                // Never ends while its lease expires
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        FactoryOutbox outbox = outbox(ao, queue, generator, "node1");
+        try {
+            outbox.drain();
+
+            assertTrue(generated.await(5, TimeUnit.SECONDS));
+            FactoryOutboxEntry[] entries = ao.find(FactoryOutboxEntry.class);
+            assertEquals(1, entries.length);
+            assertEquals(2, entries[0].getAttempts());
+
+            // Its lease expires again: the last attempt is used up
+            entries[0].setOwnerNode("crashed");
+            entries[0].setNextAttemptAt(System.currentTimeMillis() - 1);
+            entries[0].save();
+            outbox.drain();
+
+            assertEquals(0, outbox.getSize());
+            assertEquals(1, outbox.getAbandoned());
+        } finally {
+            release.countDown();
+            outbox.destroy();
+            queue.destroy();
+        }
+    }
+
+    @Test
+    public void testThrottledGenerationIsNotCountedAsAttempt() throws Exception {
+        System.setProperty("codenvy.outbox.maxAttempts", "1");
+        ActiveObjects ao = InMemoryActiveObjects.create();
+        FactoryGenerationQueue queue = new FactoryGenerationQueue(new CodenvyMetrics());
+        FactoryOutbox outbox = outbox(ao, queue, null, "node1");
+        try {
+            FactoryRequest request = newRequest();
+            outbox.failed(request, new CodenvyThrottledException("Rate limit of calls to Codenvy reached"));
+            outbox.failed(request, new CodenvyThrottledException("Codenvy is unavailable (circuit open)"));
+
+            FactoryOutboxEntry[] entries = ao.find(FactoryOutboxEntry.class);
+            assertEquals(1, entries.length);
+            assertEquals(0, entries[0].getAttempts());
+            assertTrue(entries[0].getNextAttemptAt() > System.currentTimeMillis());
+
+            // A failure of Codenvy itself still counts
+            outbox.failed(request, new IOException("Connection refused"));
+            assertEquals(1, ao.find(FactoryOutboxEntry.class)[0].getAttempts());
+            outbox.failed(request, new CodenvyThrottledException("Too many calls in flight to Codenvy"));
+            assertEquals(1, ao.find(FactoryOutboxEntry.class)[0].getAttempts());
+            assertEquals(0, outbox.getAbandoned());
+        } finally {
+            outbox.destroy();
+            queue.destroy();
+        }
+    }
+
+    private static FactoryRequest newRequest() {
+        ApplicationUser user = mock(ApplicationUser.class);
+        when(user.getKey()).thenReturn("user");
+        return new FactoryRequest("http://unittest.codenvy.com", "username", "password", "TEST-3", "TEST", "Test", user,
+                                  "customfield_1", "customfield_2");
+    }
+
+    private static FactoryOutbox outbox(ActiveObjects ao, FactoryGenerationQueue queue, FactoryGenerator generator,
+                                        String nodeId) {
+        final FactoryRequest request = newRequest();
+        FactoryRequestResolver resolver = new FactoryRequestResolver(null, null, null, new CodenvyMetrics()) {
+            @Override
+            public FactoryRequest resolve(Issue issue, ApplicationUser issueUser) {
+                return request;
+            }
+        };
+        IssueManager issueManager = mock(IssueManager.class);
+        when(issueManager.getIssueObject("TEST-3")).thenReturn(mock(MutableIssue.class));
+        UserManager userManager = mock(UserManager.class);
+        when(userManager.getUserByKey("user")).thenReturn(request.getUser());
+        return new FactoryOutbox(ao, queue, generator, resolver, issueManager, userManager,
+                                 coordinator(nodeId, new ReentrantLock()));
+    }
+
+    private static ClusterCoordinator coordinator(final String nodeId, final Lock clusterLock) {
+        return new ClusterCoordinator(null, null, null) {
+            @Override
+            public String getNodeId() {
+                return nodeId;
+            }
+
+            @Override
+            public Lock getLock(String name) {
+                return clusterLock;
+            }
+
+            @Override
+            public void announceWork() {
+            }
+        };
+    }
+
+    private static void assertDelay(long expected, long actual) {
+        assertTrue("delay " + actual + " too far from " + expected,
+                   actual >= expected * 0.8 && actual <= expected * 1.2);
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+
+import net.java.ao.DBParam;
+import net.java.ao.Query;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Active Objects store kept in memory, shared by the components of several test nodes.
+ * <p/>
+ * Only understands where clauses made of {@code COLUMN = ?}, {@code COLUMN <= ?}, {@code COLUMN > ?} and
+ * {@code COLUMN IS NOT NULL} conditions joined with {@code AND}, entities are not ordered.
+ */
+public class InMemoryActiveObjects implements InvocationHandler {
+
+    private final List<Object> entities = new CopyOnWriteArrayList<>();
+    private int lastId;
+
+    /**
+     * Create the Active Objects service backed by a new store
+     *
+     * @return the service
+     */
+    public static ActiveObjects create() {
+        return (ActiveObjects)Proxy.newProxyInstance(ActiveObjects.class.getClassLoader(),
+                                                     new Class<?>[]{ActiveObjects.class}, new InMemoryActiveObjects());
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+            case "executeInTransaction":
+                synchronized (this) {
+                    return ((TransactionCallback<?>)args[0]).doInTransaction();
+                }
+            case "create":
+                return create((Class<?>)args[0], (DBParam[])args[1]);
+            case "find":
+                return find((Class<?>)args[0], args.length == 1 ? null : (Query)args[1]);
+            case "count":
+                return args.length == 1 ? find((Class<?>)args[0], null).length
+                                        : find((Class<?>)args[0], (Query)args[1]).length;
+            case "delete":
+                for (Object entity : (Object[])args[0]) {
+                    entities.remove(entity);
+                }
+                return null;
+            case "deleteWithSQL":
+                final Object[] deleted = find((Class<?>)args[0], Query.select().where((String)args[1], (Object[])args[2]));
+                for (Object entity : deleted) {
+                    entities.remove(entity);
+                }
+                return deleted.length;
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private synchronized Object create(Class<?> type, DBParam[] params) {
+        final Map<String, Object> values = new HashMap<>();
+        for (DBParam param : params) {
+            values.put(param.getField(), param.getValue());
+        }
+        values.put("ID", ++lastId);
+        final Object entity = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new Row(type, values));
+        entities.add(entity);
+        return entity;
+    }
+
+    private Object[] find(Class<?> type, Query query) {
+        final List<Object> found = new ArrayList<>();
+        for (Object entity : entities) {
+            final Row row = (Row)Proxy.getInvocationHandler(entity);
+            if (row.type == type && (query == null || row.matches(query.getWhereClause(), query.getWhereParams()))) {
+                found.add(entity);
+            }
+        }
+        return found.toArray((Object[])Array.newInstance(type, found.size()));
+    }
+
+    private static String toColumn(String property) {
+        return property.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    private static class Row implements InvocationHandler {
+        private final Class<?>            type;
+        private final Map<String, Object> values;
+
+        private Row(Class<?> type, Map<String, Object> values) {
+            this.type = type;
+            this.values = values;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+            final String name = method.getName();
+            if (name.equals("equals")) {
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            }
+            if (name.startsWith("set")) {
+                values.put(toColumn(name.substring(3)), args[0]);
+                return null;
+            }
+            if (name.startsWith("get")) {
+                final Object value = values.get(toColumn(name.substring(3)));
+                if (value == null && method.getReturnType() == int.class) {
+                    return 0;
+                }
+                if (value == null && method.getReturnType() == long.class) {
+                    return 0L;
+                }
+                return value;
+            }
+            // save() and the other entity methods have nothing to do in memory
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized boolean matches(String where, Object[] params) {
+            if (where == null) {
+                return true;
+            }
+            int param = 0;
+            for (String condition : where.split(" AND ")) {
+                final String[] parts = condition.trim().split(" ", 2);
+                final Object value = values.get(parts[0]);
+                switch (parts[1]) {
+                    case "IS NOT NULL":
+                        if (value == null) {
+                            return false;
+                        }
+                        break;
+                    case "= ?":
+                        if (value == null || !value.equals(params[param++])) {
+                            return false;
+                        }
+                        break;
+                    case "<= ?":
+                        if (value == null || ((Comparable<Object>)value).compareTo(params[param++]) > 0) {
+                            return false;
+                        }
+                        break;
+                    case "> ?":
+                        if (value == null || ((Comparable<Object>)value).compareTo(params[param++]) <= 0) {
+                            return false;
+                        }
+                        break;
+                    default:
+                        throw new UnsupportedOperationException(condition);
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.pipeline;
+
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.MutableIssue;
+import com.codenvy.jira.client.CodenvyJson.NamedFactory;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.metrics.CodenvyMetrics;
+import com.codenvy.jira.pipeline.ClusterCoordinator;
+import com.codenvy.jira.pipeline.FactoryCollector;
+import com.codenvy.jira.pipeline.OrphanFactoryCollector;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OrphanFactoryCollectorUnitTest {
+
+    private Map<String, IssueFactories> indexed;
+    private List<String>                collected;
+    private List<List<NamedFactory>>    pages;
+    private List<Integer>               skipCounts;
+    private List<Set<String>>           searches;
+    private AtomicInteger               pendingDeletions;
+    private List<Integer>               pendingAtRead;
+    private FactoryCollector            collector;
+    private OrphanFactoryCollector      orphanCollector;
+
+    @Before
+    public void setup() {
+        System.setProperty("codenvy.orphans.pageSize", "2");
+        indexed = new HashMap<>();
+        collected = new CopyOnWriteArrayList<>();
+        pages = new ArrayList<>();
+        skipCounts = new ArrayList<>();
+        searches = new ArrayList<>();
+        pendingDeletions = new AtomicInteger();
+        pendingAtRead = new ArrayList<>();
+
+        final MutableIssue issue = mock(MutableIssue.class);
+        when(issue.getKey()).thenReturn("TEST-1");
+        // Only the issues missed by the search are looked up one by one
+        IssueManager issueManager = mock(IssueManager.class);
+        MutableIssue movedIssue = mock(MutableIssue.class);
+        when(movedIssue.getKey()).thenReturn("OTHER-1");
+        when(issueManager.getIssueObject("TEST-2")).thenReturn(movedIssue);
+
+        IssueFactoryIndex index = new IssueFactoryIndex(null) {
+            @Override
+            public Map<String, IssueFactories> getAll(Collection<String> issueKeys) {
+                Map<String, IssueFactories> factories = new HashMap<>();
+                for (String issueKey : issueKeys) {
+                    if (indexed.containsKey(issueKey)) {
+                        factories.put(issueKey, indexed.get(issueKey));
+                    }
+                }
+                return factories;
+            }
+
+            @Override
+            public Set<String> getReferenced(Collection<String> factoryIds) {
+                Set<String> referenced = new HashSet<>();
+                for (IssueFactories factories : indexed.values()) {
+                    for (String factoryId : factoryIds) {
+                        if (factoryId.equals(factories.getDevelopFactoryId()) ||
+                            factoryId.equals(factories.getReviewFactoryId())) {
+                            referenced.add(factoryId);
+                        }
+                    }
+                }
+                return referenced;
+            }
+        };
+        collector = new FactoryCollector(null, null, new CodenvyMetrics()) {
+            @Override
+            public boolean collect(String factoryId) {
+                pendingDeletions.incrementAndGet();
+                return collected.add(factoryId);
+            }
+
+            @Override
+            public int getPending() {
+                // One factory deleted each time the collector is polled
+                final int pending = pendingDeletions.get();
+                if (pending > 0) {
+                    pendingDeletions.decrementAndGet();
+                }
+                return pending;
+            }
+        };
+        CodenvySettingsService settingsService = new CodenvySettingsService(null, null, null, null) {
+            @Override
+            public CodenvySettings get() {
+                return new CodenvySettings("http://unittest.codenvy.com", "username", "password");
+            }
+        };
+        orphanCollector = new OrphanFactoryCollector(settingsService, null, issueManager, null, index, collector,
+                                                     new ClusterCoordinator(null, null, null) {
+            @Override
+            public Lock getLock(String name) {
+                return new ReentrantLock();
+            }
+        }) {
+            @Override
+            protected List<NamedFactory> findFactories(CodenvySettings settings, int skipCount) {
+                skipCounts.add(skipCount);
+                pendingAtRead.add(pendingDeletions.get());
+                return pages.isEmpty() ? new ArrayList<NamedFactory>() : pages.remove(0);
+            }
+
+            @Override
+            protected Map<String, Issue> findIssues(Collection<String> issueKeys) {
+                searches.add(new HashSet<>(issueKeys));
+                Map<String, Issue> issues = new HashMap<>();
+                if (issueKeys.contains("TEST-1")) {
+                    issues.put("TEST-1", issue);
+                }
+                return issues;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        orphanCollector.destroy();
+        collector.destroy();
+        System.clearProperty("codenvy.orphans.pageSize");
+    }
+
+    @Test
+    public void testFactoriesOfExistingIssuesAreKept() {
+        List<String> orphans = orphanCollector.findOrphans(Arrays.asList(new NamedFactory("d1", "TEST-1-develop-factory"),
+                                                                         new NamedFactory("r1", "TEST-1-review-factory"),
+                                                                         new NamedFactory("p1", "test")));
+
+        assertEquals(0, orphans.size());
+        assertEquals(Arrays.asList(new HashSet<>(Arrays.asList("TEST-1"))), searches);
+    }
+
+    @Test
+    public void testFactoriesOfDeletedAndMovedIssuesAreOrphans() {
+        List<String> orphans = orphanCollector.findOrphans(Arrays.asList(new NamedFactory("d3", "TEST-3-develop-factory"),
+                                                                         new NamedFactory("r2", "TEST-2-review-factory")));
+
+        assertEquals(Arrays.asList("d3", "r2"), orphans);
+        assertEquals(Arrays.asList(new HashSet<>(Arrays.asList("TEST-2", "TEST-3"))), searches);
+    }
+
+    @Test
+    public void testReplacedFactoriesAreOrphans() {
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/d1", "r1", "http://codenvy/r1", true));
+
+        List<String> orphans = orphanCollector.findOrphans(Arrays.asList(new NamedFactory("d0", "TEST-1-develop-factory"),
+                                                                         new NamedFactory("d1", "TEST-1-develop-factory"),
+                                                                         new NamedFactory("r1", "TEST-1-review-factory")));
+
+        assertEquals(Arrays.asList("d0"), orphans);
+    }
+
+    @Test
+    public void testFactoriesSharedWithAnotherIssueAreKept() {
+        indexed.put("TEST-4", new IssueFactories("TEST-4", "d3", "http://codenvy/d3", "r3", "http://codenvy/r3", true));
+
+        List<String> orphans = orphanCollector.findOrphans(Arrays.asList(new NamedFactory("d3", "TEST-3-develop-factory"),
+                                                                         new NamedFactory("r2", "TEST-2-review-factory")));
+
+        assertEquals(Arrays.asList("r2"), orphans);
+    }
+
+    @Test
+    public void testAllPagesAreScanned() {
+        pages.add(Arrays.asList(new NamedFactory("d1", "TEST-1-develop-factory"), new NamedFactory("d3", "TEST-3-develop-factory")));
+        pages.add(Arrays.asList(new NamedFactory("r3", "TEST-3-review-factory")));
+
+        orphanCollector.scan();
+
+        assertEquals(Arrays.asList(0, 1), skipCounts);
+        assertEquals(Arrays.asList("d3", "r3"), collected);
+        assertEquals(3, orphanCollector.getScanned());
+        assertEquals(2, orphanCollector.getOrphans());
+        assertFalse(orphanCollector.isRunning());
+    }
+
+    @Test
+    public void testCollectedOrphansAreNotSkippedOver() {
+        pages.add(Arrays.asList(new NamedFactory("d3", "TEST-3-develop-factory"), new NamedFactory("r2", "TEST-2-review-factory")));
+        pages.add(Arrays.asList(new NamedFactory("d1", "TEST-1-develop-factory"), new NamedFactory("r1", "TEST-1-review-factory")));
+        pages.add(Arrays.asList(new NamedFactory("r3", "TEST-3-review-factory")));
+
+        orphanCollector.scan();
+
+        assertEquals(Arrays.asList(0, 0, 2), skipCounts);
+        assertEquals(Arrays.asList("d3", "r2", "r3"), collected);
+    }
+
+    @Test
+    public void testNextPageIsReadOnceTheOrphansAreDeleted() {
+        pages.add(Arrays.asList(new NamedFactory("d3", "TEST-3-develop-factory"), new NamedFactory("r3", "TEST-3-review-factory")));
+        pages.add(Arrays.asList(new NamedFactory("r2", "TEST-2-review-factory"), new NamedFactory("d1", "TEST-1-develop-factory")));
+        pages.add(Arrays.asList(new NamedFactory("r1", "TEST-1-review-factory")));
+
+        orphanCollector.scan();
+
+        assertEquals(Arrays.asList(0, 0, 0), pendingAtRead);
+        assertEquals(Arrays.asList(0, 0, 1), skipCounts);
+        assertEquals(Arrays.asList("d3", "r3", "r2"), collected);
+        assertNull(orphanCollector.getError());
+    }
+
+    @Test
+    public void testOrphansReadAgainAreCollectedOnce() {
+        pages.add(Arrays.asList(new NamedFactory("d1", "TEST-1-develop-factory"), new NamedFactory("d3", "TEST-3-develop-factory")));
+        pages.add(Arrays.asList(new NamedFactory("d3", "TEST-3-develop-factory"), new NamedFactory("r3", "TEST-3-review-factory")));
+
+        orphanCollector.scan();
+
+        assertEquals(Arrays.asList(0, 1, 2), skipCounts);
+        assertEquals(Arrays.asList("d3", "r3"), collected);
+        assertEquals(2, orphanCollector.getOrphans());
+    }
+}
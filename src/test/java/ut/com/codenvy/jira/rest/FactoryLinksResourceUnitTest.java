@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.rest;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.bc.issue.search.SearchService;
+import com.atlassian.jira.issue.CustomFieldManager;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.issue.customfields.CustomFieldType;
+import com.atlassian.jira.issue.fields.CustomField;
+import com.atlassian.jira.issue.fields.FieldException;
+import com.atlassian.jira.issue.fields.FieldManager;
+import com.atlassian.jira.issue.search.SearchResults;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.atlassian.jira.util.MessageSetImpl;
+import com.atlassian.jira.web.bean.PagerFilter;
+import com.atlassian.query.Query;
+import com.codenvy.jira.factory.CodenvyFieldResolver;
+import com.codenvy.jira.factory.IssueFactories;
+import com.codenvy.jira.factory.IssueFactoryIndex;
+import com.codenvy.jira.rest.FactoryLinksResource;
+import com.codenvy.jira.rest.FactoryLinksResource.FactoryLinksPage;
+import com.codenvy.jira.rest.FactoryLinksResource.IssueLinks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.codenvy.jira.factory.CodenvyFieldResolver.CODENVY_DEVELOP_FIELD_TYPE_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FactoryLinksResourceUnitTest {
+
+    private ApplicationUser             user;
+    private IssueService                issueService;
+    private SearchService               searchService;
+    private CustomFieldManager          customFieldManager;
+    private FieldManager                fieldManager;
+    private Map<String, IssueFactories> indexed;
+    private Request                     request;
+    private FactoryLinksResource        resource;
+
+    @Before
+    public void setup() {
+        user = mock(ApplicationUser.class);
+        JiraAuthenticationContext authenticationContext = mock(JiraAuthenticationContext.class);
+        when(authenticationContext.getLoggedInUser()).thenReturn(user);
+        issueService = mock(IssueService.class);
+        searchService = mock(SearchService.class);
+        customFieldManager = mock(CustomFieldManager.class);
+        fieldManager = mock(FieldManager.class);
+        indexed = new HashMap<>();
+        request = mock(Request.class);
+        resource = newResource(authenticationContext);
+    }
+
+    @After
+    public void tearDown() {
+        System.clearProperty("codenvy.links.maxResults");
+    }
+
+    @Test
+    public void testLinksOfIssueKeysAreReadFromTheIndex() {
+        mockIssue("TEST-1");
+        mockIssue("TEST-2");
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/f?id=d1", "r1", "http://codenvy/f?id=r1",
+                                                 false));
+        indexed.put("TEST-2", new IssueFactories("TEST-2", "d2", "http://codenvy/f?id=d2", "r2", "http://codenvy/f?id=r2",
+                                                 false, true));
+        // An issue that doesn't exist or that the user can't see
+        when(issueService.getIssue(user, "UNKNOWN-1")).thenReturn(mock(IssueService.IssueResult.class));
+
+        Response response = resource.get(Arrays.asList("TEST-1", "TEST-2", "TEST-1", "UNKNOWN-1"), null, 0, 100, request);
+
+        assertEquals(200, response.getStatus());
+        FactoryLinksPage page = (FactoryLinksPage)response.getEntity();
+        assertEquals(3, page.getTotal());
+        assertEquals(2, page.getIssues().size());
+        assertEquals("http://codenvy/f?id=d1", page.getIssues().get(0).getDevelopUrl());
+        assertEquals("http://codenvy/f?id=r1", page.getIssues().get(0).getReviewUrl());
+        // A stale entry holds the factories of the former project of the issue
+        assertEquals("TEST-2", page.getIssues().get(1).getIssueKey());
+        assertNull(page.getIssues().get(1).getDevelopUrl());
+    }
+
+    @Test
+    public void testLinksOfIssuesMissingFromTheIndexAreReadFromTheirFields() throws FieldException {
+        MutableIssue issue = mockIssue("TEST-1");
+        CustomField developField = mockCustomField("customfield_1", CODENVY_DEVELOP_FIELD_TYPE_KEY);
+        when(fieldManager.getAvailableCustomFields(user, issue)).thenReturn(Collections.singleton(developField));
+        when(customFieldManager.getCustomFieldObject("customfield_1")).thenReturn(developField);
+        when(issue.getCustomFieldValue(developField)).thenReturn("http://codenvy/f?id=d1");
+
+        Response response = resource.get(Collections.singletonList("TEST-1"), null, 0, 100, request);
+
+        IssueLinks links = ((FactoryLinksPage)response.getEntity()).getIssues().get(0);
+        assertEquals("http://codenvy/f?id=d1", links.getDevelopUrl());
+        assertNull(links.getReviewUrl());
+    }
+
+    @Test
+    public void testLinksOfJqlQueryArePaged() throws Exception {
+        Query query = mock(Query.class);
+        when(searchService.parseQuery(user, "project = TEST"))
+                .thenReturn(new SearchService.ParseResult(query, new MessageSetImpl()));
+        SearchResults results = new SearchResults(Collections.<Issue>singletonList(mockIssue("TEST-3")), 40, 10, 20);
+        when(searchService.search(eq(user), eq(query), any(PagerFilter.class))).thenReturn(results);
+
+        Response response = resource.get(null, "project = TEST", 20, 10, request);
+
+        ArgumentCaptor<PagerFilter> filter = ArgumentCaptor.forClass(PagerFilter.class);
+        verify(searchService).search(eq(user), eq(query), filter.capture());
+        assertEquals(20, filter.getValue().getStart());
+        assertEquals(10, filter.getValue().getMax());
+        FactoryLinksPage page = (FactoryLinksPage)response.getEntity();
+        assertEquals(20, page.getStartAt());
+        assertEquals(40, page.getTotal());
+        assertEquals("TEST-3", page.getIssues().get(0).getIssueKey());
+    }
+
+    @Test
+    public void testPagesAreCapped() {
+        System.setProperty("codenvy.links.maxResults", "2");
+        JiraAuthenticationContext authenticationContext = mock(JiraAuthenticationContext.class);
+        when(authenticationContext.getLoggedInUser()).thenReturn(user);
+        resource = newResource(authenticationContext);
+        mockIssue("TEST-1");
+        mockIssue("TEST-2");
+        mockIssue("TEST-3");
+        mockIssue("TEST-4");
+
+        Response response = resource.get(Arrays.asList("TEST-1", "TEST-2", "TEST-3", "TEST-4"), null, 1, 1000, request);
+
+        FactoryLinksPage page = (FactoryLinksPage)response.getEntity();
+        assertEquals(2, page.getMaxResults());
+        assertEquals(4, page.getTotal());
+        assertEquals(2, page.getIssues().size());
+        assertEquals("TEST-2", page.getIssues().get(0).getIssueKey());
+        assertEquals("TEST-3", page.getIssues().get(1).getIssueKey());
+    }
+
+    @Test
+    public void testInvalidRequestsAreRejected() {
+        assertEquals(400, resource.get(null, null, 0, 100, request).getStatus());
+        assertEquals(400, resource.get(Collections.singletonList("TEST-1"), null, -1, 100, request).getStatus());
+        assertEquals(400, resource.get(Collections.singletonList("TEST-1"), null, 0, 0, request).getStatus());
+    }
+
+    @Test
+    public void testUnchangedPageIsNotModified() {
+        mockIssue("TEST-1");
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/f?id=d1", null, null, false));
+
+        Response response = resource.get(Collections.singletonList("TEST-1"), null, 0, 100, request);
+        assertEquals(200, response.getStatus());
+        EntityTag etag = (EntityTag)response.getMetadata().getFirst("ETag");
+        assertNotNull(etag);
+
+        when(request.evaluatePreconditions(etag)).thenReturn(Response.notModified(etag));
+        assertEquals(304, resource.get(Collections.singletonList("TEST-1"), null, 0, 100, request).getStatus());
+
+        // The page changes, and so does its ETag, once the review factory is generated
+        indexed.put("TEST-1", new IssueFactories("TEST-1", "d1", "http://codenvy/f?id=d1", "r1", "http://codenvy/f?id=r1",
+                                                 false));
+        response = resource.get(Collections.singletonList("TEST-1"), null, 0, 100, request);
+        assertEquals(200, response.getStatus());
+        assertEquals("http://codenvy/f?id=r1", ((FactoryLinksPage)response.getEntity()).getIssues().get(0).getReviewUrl());
+    }
+
+    @Test
+    public void testAnonymousUserIsRejected() {
+        JiraAuthenticationContext authenticationContext = mock(JiraAuthenticationContext.class);
+        resource = newResource(authenticationContext);
+
+        assertEquals(401, resource.get(Collections.singletonList("TEST-1"), null, 0, 100, request).getStatus());
+    }
+
+    private FactoryLinksResource newResource(JiraAuthenticationContext authenticationContext) {
+        IssueFactoryIndex index = new IssueFactoryIndex(null) {
+            @Override
+            public Map<String, IssueFactories> getAll(Collection<String> issueKeys) {
+                Map<String, IssueFactories> factories = new HashMap<>();
+                for (String issueKey : issueKeys) {
+                    if (indexed.containsKey(issueKey)) {
+                        factories.put(issueKey, indexed.get(issueKey));
+                    }
+                }
+                return factories;
+            }
+        };
+        return new FactoryLinksResource(authenticationContext, issueService, searchService, customFieldManager,
+                                        new CodenvyFieldResolver(mock(EventPublisher.class), fieldManager), index);
+    }
+
+    private MutableIssue mockIssue(String issueKey) {
+        MutableIssue issue = mock(MutableIssue.class);
+        when(issue.getKey()).thenReturn(issueKey);
+        IssueService.IssueResult result = mock(IssueService.IssueResult.class);
+        when(result.isValid()).thenReturn(true);
+        when(result.getIssue()).thenReturn(issue);
+        when(issueService.getIssue(user, issueKey)).thenReturn(result);
+        return issue;
+    }
+
+    private static CustomField mockCustomField(String id, String typeKey) {
+        CustomFieldType type = mock(CustomFieldType.class);
+        when(type.getKey()).thenReturn(typeKey);
+        CustomField field = mock(CustomField.class);
+        when(field.getId()).thenReturn(id);
+        when(field.getCustomFieldType()).thenReturn(type);
+        return field;
+    }
+}
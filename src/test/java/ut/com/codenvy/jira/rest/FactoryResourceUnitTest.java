@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.rest;
+
+import us.monoid.json.JSONException;
+
+import com.atlassian.jira.bc.issue.IssueService;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.user.ApplicationUser;
+import com.codenvy.jira.factory.OnDemandFactoryGenerator;
+import com.codenvy.jira.factory.OnDemandFactoryGenerator.Kind;
+import com.codenvy.jira.rest.FactoryResource;
+import com.codenvy.jira.rest.FactoryResource.FactoryLink;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FactoryResourceUnitTest {
+
+    private static final String DEVELOP_URL = "http://codenvy/f?name=TEST-1-develop-factory";
+
+    private ApplicationUser           user;
+    private JiraAuthenticationContext authenticationContext;
+    private IssueService              issueService;
+    private Map<Kind, String>         storedUrls;
+    private Map<Kind, String>         generatedUrls;
+    private IOException               generationError;
+    private int                       generations;
+    private FactoryResource           resource;
+
+    @Before
+    public void setup() {
+        user = mock(ApplicationUser.class);
+        authenticationContext = mock(JiraAuthenticationContext.class);
+        when(authenticationContext.getLoggedInUser()).thenReturn(user);
+        issueService = mock(IssueService.class);
+        MutableIssue issue = mock(MutableIssue.class);
+        when(issue.getKey()).thenReturn("TEST-1");
+        IssueService.IssueResult result = mock(IssueService.IssueResult.class);
+        when(result.isValid()).thenReturn(true);
+        when(result.getIssue()).thenReturn(issue);
+        when(issueService.getIssue(user, "TEST-1")).thenReturn(result);
+        // An issue that doesn't exist or that the user can't see
+        when(issueService.getIssue(user, "TEST-2")).thenReturn(mock(IssueService.IssueResult.class));
+
+        storedUrls = new EnumMap<>(Kind.class);
+        generatedUrls = new EnumMap<>(Kind.class);
+        OnDemandFactoryGenerator onDemandGenerator = new OnDemandFactoryGenerator(null, null, null, null, null) {
+            @Override
+            public String findFactoryUrl(Issue issue, ApplicationUser user, Kind kind) {
+                return storedUrls.get(kind);
+            }
+
+            @Override
+            public String getFactoryUrl(Issue issue, ApplicationUser user, Kind kind) throws IOException, JSONException {
+                generations++;
+                if (generationError != null) {
+                    throw generationError;
+                }
+                return generatedUrls.get(kind);
+            }
+        };
+        resource = new FactoryResource(authenticationContext, issueService, onDemandGenerator, null);
+    }
+
+    @Test
+    public void testExistingFactoryIsOpened() {
+        storedUrls.put(Kind.DEVELOP, DEVELOP_URL);
+
+        Response response = resource.open("TEST-1", "develop");
+
+        assertEquals(303, response.getStatus());
+        assertEquals(DEVELOP_URL, response.getMetadata().getFirst("Location").toString());
+        assertEquals(0, generations);
+    }
+
+    @Test
+    public void testMissingFactoryIsNotGeneratedByGet() {
+        assertEquals(404, resource.open("TEST-1", "develop").getStatus());
+        assertEquals(404, resource.open("TEST-1", "unknown").getStatus());
+        assertEquals(404, resource.open("TEST-2", "develop").getStatus());
+        assertEquals(0, generations);
+    }
+
+    @Test
+    public void testFactoryIsGeneratedByPost() {
+        generatedUrls.put(Kind.DEVELOP, DEVELOP_URL);
+
+        Response response = resource.generate("TEST-1", "DEVELOP", "no-check");
+
+        assertEquals(200, response.getStatus());
+        assertEquals(DEVELOP_URL, ((FactoryLink)response.getEntity()).getUrl());
+        assertEquals(1, generations);
+    }
+
+    @Test
+    public void testPostWithoutXsrfHeaderIsForbidden() {
+        generatedUrls.put(Kind.DEVELOP, DEVELOP_URL);
+
+        assertEquals(403, resource.generate("TEST-1", "develop", null).getStatus());
+        assertEquals(403, resource.generate("TEST-1", "develop", "nocheck").getStatus());
+        assertEquals(0, generations);
+    }
+
+    @Test
+    public void testPostOfUnavailableFactoryIsNotFound() {
+        assertEquals(404, resource.generate("TEST-2", "develop", "no-check").getStatus());
+        assertEquals(404, resource.generate("TEST-1", "unknown", "no-check").getStatus());
+        assertEquals(0, generations);
+
+        // Codenvy is not configured for the project of the issue
+        assertEquals(404, resource.generate("TEST-1", "develop", "no-check").getStatus());
+        assertEquals(1, generations);
+    }
+
+    @Test
+    public void testFailedGenerationIsUnavailable() {
+        generationError = new IOException("Connection refused");
+
+        Response response = resource.generate("TEST-1", "review", "no-check");
+
+        assertEquals(503, response.getStatus());
+        assertEquals("Codenvy factories of issue TEST-1 could not be generated: Connection refused", response.getEntity());
+    }
+
+    @Test
+    public void testAnonymousUserIsRejected() {
+        when(authenticationContext.getLoggedInUser()).thenReturn(null);
+
+        assertEquals(401, resource.open("TEST-1", "develop").getStatus());
+        assertEquals(401, resource.generate("TEST-1", "develop", "no-check").getStatus());
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2012-2016 Codenvy, S.A.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *   Codenvy, S.A. - initial API and implementation
+ *******************************************************************************/
+package ut.com.codenvy.jira.settings;
+
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.codenvy.jira.factory.ParentFactoryCache;
+import com.codenvy.jira.settings.CodenvySettings;
+import com.codenvy.jira.settings.CodenvySettingsService;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CodenvySettingsServiceUnitTest {
+
+    private Map<String, Object>     store;
+    private PluginSettingsFactory   mockPluginSettingsFactory;
+    private ClusterMessagingService mockClusterMessagingService;
+    private ParentFactoryCache      parentFactoryCache;
+    private CodenvySettingsService  settingsService;
+
+    @Before
+    public void setup() {
+        store = new HashMap<>();
+        mockPluginSettingsFactory = mock(PluginSettingsFactory.class);
+        when(mockPluginSettingsFactory.createGlobalSettings()).thenReturn(new MapPluginSettings(store));
+        mockClusterMessagingService = mock(ClusterMessagingService.class);
+        parentFactoryCache = new ParentFactoryCache();
+        settingsService = new CodenvySettingsService(mockPluginSettingsFactory, new TransactionTemplate() {
+            @Override
+            public <T> T execute(TransactionCallback<T> callback) {
+                return callback.doInTransaction();
+            }
+        }, mockClusterMessagingService, parentFactoryCache);
+    }
+
+    @Test
+    public void testSettingsAreReadOnce() {
+        store.put(CodenvySettings.INSTANCE_URL, "http://codenvy.test");
+
+        assertEquals("http://codenvy.test", settingsService.get().getInstanceUrl());
+        store.put(CodenvySettings.INSTANCE_URL, "http://other.test");
+        assertEquals("http://codenvy.test", settingsService.get().getInstanceUrl());
+        assertFalse(settingsService.get().isComplete());
+
+        verify(mockPluginSettingsFactory, times(1)).createGlobalSettings();
+    }
+
+    @Test
+    public void testSaveUpdatesSnapshotAndNotifiesCluster() {
+        settingsService.get();
+        parentFactoryCache.put("TEST", "{}");
+
+        settingsService.save(new CodenvySettings("http://codenvy.test", "user", "secret"));
+
+        assertTrue(settingsService.get().isComplete());
+        assertEquals("user", store.get(CodenvySettings.USERNAME));
+        assertNull(parentFactoryCache.getIfPresent("TEST"));
+        verify(mockClusterMessagingService).sendRemote(anyString(), anyString());
+    }
+
+    @Test
+    public void testReloadReadsStoreAgain() {
+        settingsService.get();
+        store.put(CodenvySettings.USERNAME, "user");
+
+        settingsService.reload();
+
+        assertEquals("user", settingsService.get().getUsername());
+    }
+
+    private static class MapPluginSettings implements PluginSettings {
+        private final Map<String, Object> values;
+
+        private MapPluginSettings(Map<String, Object> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return values.put(key, value);
+        }
+
+        @Override
+        public Object remove(String key) {
+            return values.remove(key);
+        }
+    }
+}